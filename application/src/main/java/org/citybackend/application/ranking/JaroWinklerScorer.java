@@ -0,0 +1,171 @@
+package org.citybackend.application.ranking;
+
+import java.util.Arrays;
+
+/**
+ * Allocation-free implementation of the Jaro Winkler similarity between city names and a query.
+ *
+ * <p>Scores are identical, bit for bit, to the ones of
+ * {@code org.apache.commons.text.similarity.JaroWinklerSimilarity#apply(name, query)}: the same
+ * matching window, transposition count and prefix bonus are computed, in the same order. Instead
+ * of allocating match arrays on every call, the scratch buffers of a scorer are kept per thread
+ * and grown when needed.</p>
+ *
+ * <p>A scorer is obtained per request with {@link #forQuery(String)}. It belongs to the calling
+ * thread and remains valid until the next call to {@link #forQuery(String)} on that thread.</p>
+ */
+public final class JaroWinklerScorer {
+
+  private static final double SCALING_FACTOR = 0.1;
+  private static final double BOOST_THRESHOLD = 0.7;
+  private static final int MAX_PREFIX_LENGTH = 4;
+  private static final int INITIAL_CAPACITY = 64;
+  private static final ThreadLocal<JaroWinklerScorer> SCORERS =
+      ThreadLocal.withInitial(JaroWinklerScorer::new);
+
+  private char[] query = new char[INITIAL_CAPACITY];
+  private int queryLength;
+  private char[] nameBuffer = new char[INITIAL_CAPACITY];
+  private boolean[] minMatchFlags = new boolean[INITIAL_CAPACITY];
+  private boolean[] maxMatchFlags = new boolean[INITIAL_CAPACITY];
+
+  private JaroWinklerScorer() {
+  }
+
+  /**
+   * Returns the scorer of the calling thread, prepared for the given query.
+   *
+   * @param q the query parameter
+   * @return the scorer of the calling thread, prepared for the given query
+   */
+  public static JaroWinklerScorer forQuery(String q) {
+    JaroWinklerScorer scorer = SCORERS.get();
+    scorer.prepare(q);
+    return scorer;
+  }
+
+  private static double jaroWinkler(int matches, int halfTranspositions, int prefixLength,
+      int nameLength, int queryLength) {
+    final double m = matches;
+    final double j =
+        ((m / nameLength + m / queryLength + (m - (double) halfTranspositions / 2) / m)) / 3;
+    return j < BOOST_THRESHOLD ? j : j + SCALING_FACTOR * prefixLength * (1d - j);
+  }
+
+  private void prepare(String q) {
+    queryLength = q.length();
+    if (query.length < queryLength) {
+      query = new char[queryLength];
+    }
+    q.getChars(0, queryLength, query, 0);
+    ensureFlagsCapacity(queryLength);
+  }
+
+  private void ensureFlagsCapacity(int length) {
+    if (minMatchFlags.length < length) {
+      minMatchFlags = new boolean[length];
+      maxMatchFlags = new boolean[length];
+    }
+  }
+
+  /**
+   * Returns the highest score a name of the given length can reach against the query: all the
+   * characters of the shortest string match without transposition, and the common prefix is as
+   * long as possible. Candidates whose bound cannot beat the current top-K threshold can be skipped
+   * without being scored.
+   *
+   * @param nameLength the length of the name
+   * @return the highest score a name of the given length can reach against the query
+   */
+  public double upperBound(int nameLength) {
+    if (nameLength == 0 || queryLength == 0) {
+      return nameLength == queryLength ? 1d : 0d;
+    }
+    int matches = Math.min(nameLength, queryLength);
+    return jaroWinkler(matches, 0, Math.min(MAX_PREFIX_LENGTH, matches), nameLength, queryLength);
+  }
+
+  /**
+   * Returns the Jaro Winkler similarity between the name and the query.
+   *
+   * @param name the name to score
+   * @return the Jaro Winkler similarity between the name and the query
+   */
+  public double score(String name) {
+    int length = name.length();
+    if (nameBuffer.length < length) {
+      nameBuffer = new char[Math.max(length, nameBuffer.length * 2)];
+    }
+    name.getChars(0, length, nameBuffer, 0);
+    return score(nameBuffer, 0, length);
+  }
+
+  /**
+   * Returns the Jaro Winkler similarity between a name stored in a {@code char} array and the
+   * query.
+   *
+   * @param name   the array holding the name to score
+   * @param offset the position of the first character of the name in the array
+   * @param length the length of the name
+   * @return the Jaro Winkler similarity between the name and the query
+   */
+  public double score(char[] name, int offset, int length) {
+    if (length == queryLength && Arrays
+        .equals(name, offset, offset + length, query, 0, queryLength)) {
+      return 1d;
+    }
+    // The query is the longest string when both have the same length, as in commons-text.
+    final boolean nameIsMax = length > queryLength;
+    final char[] max = nameIsMax ? name : query;
+    final int maxOffset = nameIsMax ? offset : 0;
+    final int maxLength = nameIsMax ? length : queryLength;
+    final char[] min = nameIsMax ? query : name;
+    final int minOffset = nameIsMax ? 0 : offset;
+    final int minLength = nameIsMax ? queryLength : length;
+    ensureFlagsCapacity(maxLength);
+    Arrays.fill(minMatchFlags, 0, minLength, false);
+    Arrays.fill(maxMatchFlags, 0, maxLength, false);
+
+    final int range = Math.max(maxLength / 2 - 1, 0);
+    int matches = 0;
+    for (int mi = 0; mi < minLength; mi++) {
+      final char c1 = min[minOffset + mi];
+      for (int xi = Math.max(mi - range, 0), xn = Math.min(mi + range + 1, maxLength); xi < xn;
+          xi++) {
+        if (!maxMatchFlags[xi] && c1 == max[maxOffset + xi]) {
+          minMatchFlags[mi] = true;
+          maxMatchFlags[xi] = true;
+          matches++;
+          break;
+        }
+      }
+    }
+    if (matches == 0) {
+      return 0d;
+    }
+
+    int halfTranspositions = 0;
+    for (int mi = 0, xi = 0; mi < minLength; mi++) {
+      if (!minMatchFlags[mi]) {
+        continue;
+      }
+      while (!maxMatchFlags[xi]) {
+        xi++;
+      }
+      if (min[minOffset + mi] != max[maxOffset + xi]) {
+        halfTranspositions++;
+      }
+      xi++;
+    }
+
+    int prefixLength = 0;
+    for (int mi = 0; mi < Math.min(MAX_PREFIX_LENGTH, minLength); mi++) {
+      if (name[offset + mi] == query[mi]) {
+        prefixLength++;
+      } else {
+        break;
+      }
+    }
+    return jaroWinkler(matches, halfTranspositions, prefixLength, length, queryLength);
+  }
+}
@@ -0,0 +1,230 @@
+package org.citybackend.application.ranking;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Selects the top-K candidates of a ranking, splitting large candidate lists across a dedicated
+ * {@code ForkJoinPool}.
+ *
+ * <p>Below the threshold, candidates are ranked on the calling thread. Above it, the candidates are
+ * split in chunks that are ranked in parallel, each one in its own {@code TopKSelector}, and the
+ * partial selections are merged. Since pairs are compared by score then by index, the result is
+ * the same as the one of a sequential ranking.</p>
+ *
+ * <p>Candidates split in shards, e.g. the candidates of each country code, are ranked by one task
+ * per shard, see {@link #rankShards(int[], int, ShardRanker)}.</p>
+ *
+ * <p>The pool is owned by this ranker and is not the common pool, so that long rankings do not
+ * starve other users of the common pool.</p>
+ */
+public class ParallelRanker implements AutoCloseable {
+
+  private static final int MIN_CHUNK_SIZE = 4096;
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private final ForkJoinPool pool;
+  private final int threshold;
+
+  /**
+   * Creates a {@code ParallelRanker}.
+   *
+   * @param threshold   the number of candidates from which rankings are run in parallel
+   * @param parallelism the number of threads of the pool, or 0 to use one per available processor
+   */
+  public ParallelRanker(int threshold, int parallelism) {
+    this.threshold = threshold;
+    this.pool = new ForkJoinPool(
+        parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors(),
+        ParallelRanker::newWorkerThread, null, false);
+  }
+
+  private static ForkJoinWorkerThread newWorkerThread(ForkJoinPool pool) {
+    ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+    thread.setName("suggestion-ranking-" + thread.getPoolIndex());
+    return thread;
+  }
+
+  /**
+   * Returns the number of candidates from which rankings are run in parallel.
+   *
+   * @return the number of candidates from which rankings are run in parallel
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Ranks the candidates {@code [0, candidateCount)} and returns a selector holding the {@code k}
+   * best of them.
+   *
+   * @param candidateCount the number of candidates
+   * @param k              the number of candidates to select
+   * @param rangeRanker    the ranker of a range of candidates
+   * @return a selector holding the {@code k} best candidates
+   */
+  public TopKSelector rank(int candidateCount, int k, RangeRanker rangeRanker) {
+    if (candidateCount < threshold) {
+      TopKSelector topK = new TopKSelector(k);
+      rangeRanker.rank(0, candidateCount, topK);
+      return topK;
+    }
+    int chunkSize = Math.max(MIN_CHUNK_SIZE,
+        candidateCount / (pool.getParallelism() * CHUNKS_PER_THREAD));
+    return invoke(new RankingTask(0, candidateCount, chunkSize, k, rangeRanker));
+  }
+
+  /**
+   * Ranks shards of candidates and returns a selector holding the {@code k} best of them. The
+   * candidates are indexed as if the shards were concatenated in order. Each shard is ranked by its
+   * own task, which selects the {@code k} best candidates of the shard, and the selections of the
+   * shards are merged: the result is the same as the one of a ranking of the concatenated shards.
+   * Shards that are too small to be worth a task are ranked on the calling thread.
+   *
+   * @param shardSizes  the number of candidates of each shard
+   * @param k           the number of candidates to select
+   * @param shardRanker the ranker of a shard
+   * @return a selector holding the {@code k} best candidates
+   */
+  public TopKSelector rankShards(int[] shardSizes, int k, ShardRanker shardRanker) {
+    int candidateCount = 0;
+    int nonEmptyShardCount = 0;
+    for (int shardSize : shardSizes) {
+      candidateCount += shardSize;
+      nonEmptyShardCount += shardSize > 0 ? 1 : 0;
+    }
+    if (candidateCount < MIN_CHUNK_SIZE || nonEmptyShardCount < 2) {
+      TopKSelector topK = new TopKSelector(k);
+      int offset = 0;
+      for (int shard = 0; shard < shardSizes.length; shard++) {
+        if (shardSizes[shard] > 0) {
+          topK.offerAll(shardRanker.rank(shard, k), offset);
+        }
+        offset += shardSizes[shard];
+      }
+      return topK;
+    }
+    return invoke(new ShardsTask(shardSizes, k, shardRanker));
+  }
+
+  /**
+   * Runs a task in the pool. A task started by a ranking that already runs in the pool, e.g. the
+   * ranking of a large shard, is run by the current worker so that it does not wait for itself.
+   */
+  private TopKSelector invoke(RecursiveTask<TopKSelector> task) {
+    return ForkJoinTask.getPool() == pool ? task.invoke() : pool.invoke(task);
+  }
+
+  /**
+   * Shuts the pool down.
+   */
+  @Override
+  public void close() {
+    pool.shutdown();
+  }
+
+  /**
+   * Ranks a range of candidates.
+   */
+  @FunctionalInterface
+  public interface RangeRanker {
+
+    /**
+     * Scores the candidates {@code [from, to)} and offers them to the given selector.
+     *
+     * @param from  the first candidate of the range, inclusive
+     * @param to    the last candidate of the range, exclusive
+     * @param topK  the selector the scored candidates are offered to
+     */
+    void rank(int from, int to, TopKSelector topK);
+  }
+
+  /**
+   * Ranks a shard of candidates.
+   */
+  @FunctionalInterface
+  public interface ShardRanker {
+
+    /**
+     * Scores the candidates of a shard and returns a selector holding the {@code k} best of them,
+     * indexed from the first candidate of the shard.
+     *
+     * @param shard the shard to rank
+     * @param k     the number of candidates to select
+     * @return a selector holding the {@code k} best candidates of the shard
+     */
+    TopKSelector rank(int shard, int k);
+  }
+
+  private static class ShardsTask extends RecursiveTask<TopKSelector> {
+
+    private final int[] shardSizes;
+    private final int k;
+    private final ShardRanker shardRanker;
+
+    ShardsTask(int[] shardSizes, int k, ShardRanker shardRanker) {
+      this.shardSizes = shardSizes;
+      this.k = k;
+      this.shardRanker = shardRanker;
+    }
+
+    @Override
+    protected TopKSelector compute() {
+      List<RecursiveTask<TopKSelector>> shardTasks = new ArrayList<>(shardSizes.length);
+      for (int shard = 0; shard < shardSizes.length; shard++) {
+        int rankedShard = shard;
+        shardTasks.add(new RecursiveTask<>() {
+          @Override
+          protected TopKSelector compute() {
+            return shardSizes[rankedShard] > 0 ? shardRanker.rank(rankedShard, k)
+                : new TopKSelector(0);
+          }
+        });
+      }
+      ForkJoinTask.invokeAll(shardTasks);
+      TopKSelector topK = new TopKSelector(k);
+      int offset = 0;
+      for (int shard = 0; shard < shardSizes.length; shard++) {
+        topK.offerAll(shardTasks.get(shard).join(), offset);
+        offset += shardSizes[shard];
+      }
+      return topK;
+    }
+  }
+
+  private static class RankingTask extends RecursiveTask<TopKSelector> {
+
+    private final int from;
+    private final int to;
+    private final int chunkSize;
+    private final int k;
+    private final RangeRanker rangeRanker;
+
+    RankingTask(int from, int to, int chunkSize, int k, RangeRanker rangeRanker) {
+      this.from = from;
+      this.to = to;
+      this.chunkSize = chunkSize;
+      this.k = k;
+      this.rangeRanker = rangeRanker;
+    }
+
+    @Override
+    protected TopKSelector compute() {
+      if (to - from <= chunkSize) {
+        TopKSelector topK = new TopKSelector(k);
+        rangeRanker.rank(from, to, topK);
+        return topK;
+      }
+      int middle = (from + to) >>> 1;
+      RankingTask left = new RankingTask(from, middle, chunkSize, k, rangeRanker);
+      left.fork();
+      TopKSelector topK = new RankingTask(middle, to, chunkSize, k, rangeRanker).compute();
+      topK.offerAll(left.join());
+      return topK;
+    }
+  }
+}
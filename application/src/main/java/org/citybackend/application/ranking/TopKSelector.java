@@ -0,0 +1,157 @@
+package org.citybackend.application.ranking;
+
+/**
+ * Keeps the {@code k} best (score, index) pairs offered to it in a primitive min-heap, so that
+ * ranking {@code n} candidates costs O(n log k) and allocates nothing per candidate.
+ *
+ * <p>A pair is better than another one if its score is higher or, for equal scores, if its index
+ * is lower. This is the order of a stable sort by descending score over the candidates.</p>
+ */
+public class TopKSelector {
+
+  private final double[] scores;
+  private final int[] indices;
+  private int size;
+
+  /**
+   * Creates a {@code TopKSelector} that keeps at most {@code capacity} pairs.
+   *
+   * @param capacity the maximum number of pairs to keep
+   */
+  public TopKSelector(int capacity) {
+    this.scores = new double[capacity];
+    this.indices = new int[capacity];
+  }
+
+  private static boolean isBetter(double score, int index, double otherScore, int otherIndex) {
+    int comparison = Double.compare(score, otherScore);
+    return comparison > 0 || (comparison == 0 && index < otherIndex);
+  }
+
+  /**
+   * Offers a pair to this selector.
+   *
+   * @param score the score of the candidate
+   * @param index the index of the candidate
+   * @return true if the pair is kept, false otherwise
+   */
+  public boolean offer(double score, int index) {
+    if (size < scores.length) {
+      scores[size] = score;
+      indices[size] = index;
+      siftUp(size++);
+      return true;
+    }
+    if (size == 0 || !isBetter(score, index, scores[0], indices[0])) {
+      return false;
+    }
+    scores[0] = score;
+    indices[0] = index;
+    siftDown(0);
+    return true;
+  }
+
+  /**
+   * Offers all the pairs kept by another selector to this selector. The other selector is left
+   * unchanged.
+   *
+   * @param other the selector whose pairs are offered
+   */
+  public void offerAll(TopKSelector other) {
+    offerAll(other, 0);
+  }
+
+  /**
+   * Offers all the pairs kept by another selector to this selector, shifting their indices by
+   * {@code indexOffset}, e.g. to merge the selections of consecutive shards of candidates. The
+   * other selector is left unchanged.
+   *
+   * @param other       the selector whose pairs are offered
+   * @param indexOffset the offset added to the indices of the other selector
+   */
+  public void offerAll(TopKSelector other, int indexOffset) {
+    for (int i = 0; i < other.size; i++) {
+      offer(other.scores[i], other.indices[i] + indexOffset);
+    }
+  }
+
+  /**
+   * Returns the score a candidate has to beat to be kept: the lowest kept score once this selector
+   * is full, {@code Double.NEGATIVE_INFINITY} before.
+   *
+   * @return the score a candidate has to beat to be kept
+   */
+  public double threshold() {
+    if (size < scores.length) {
+      return Double.NEGATIVE_INFINITY;
+    }
+    return size == 0 ? Double.POSITIVE_INFINITY : scores[0];
+  }
+
+  /**
+   * Returns the number of pairs kept.
+   *
+   * @return the number of pairs kept
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Empties this selector and returns the kept indices ordered from the best pair to the worst.
+   * Scores are written to {@code scoresOut}, which must hold at least {@link #size()} values.
+   *
+   * @param scoresOut the array receiving the scores of the returned indices
+   * @return the kept indices ordered from the best pair to the worst
+   */
+  public int[] drainInto(double[] scoresOut) {
+    int[] toReturn = new int[size];
+    while (size > 0) {
+      int last = size - 1;
+      toReturn[last] = indices[0];
+      scoresOut[last] = scores[0];
+      scores[0] = scores[last];
+      indices[0] = indices[last];
+      size = last;
+      siftDown(0);
+    }
+    return toReturn;
+  }
+
+  private void siftUp(int position) {
+    double score = scores[position];
+    int index = indices[position];
+    while (position > 0) {
+      int parent = (position - 1) >>> 1;
+      if (!isBetter(scores[parent], indices[parent], score, index)) {
+        break;
+      }
+      scores[position] = scores[parent];
+      indices[position] = indices[parent];
+      position = parent;
+    }
+    scores[position] = score;
+    indices[position] = index;
+  }
+
+  private void siftDown(int position) {
+    double score = scores[position];
+    int index = indices[position];
+    int half = size >>> 1;
+    while (position < half) {
+      int child = 2 * position + 1;
+      int right = child + 1;
+      if (right < size && isBetter(scores[child], indices[child], scores[right], indices[right])) {
+        child = right;
+      }
+      if (!isBetter(score, index, scores[child], indices[child])) {
+        break;
+      }
+      scores[position] = scores[child];
+      indices[position] = indices[child];
+      position = child;
+    }
+    scores[position] = score;
+    indices[position] = index;
+  }
+}
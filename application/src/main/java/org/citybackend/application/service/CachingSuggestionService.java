@@ -0,0 +1,241 @@
+package org.citybackend.application.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReference;
+import org.citybackend.index.NameNormalizer;
+import org.citybackend.repo.CityRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Primary;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+/**
+ * {@code SuggestionService} that caches the rankings of another {@code SuggestionService}.
+ *
+ * <p>Rankings are cached by normalized query, country codes, location rounded to a grid, maximum
+ * distance, distance weight and page. The cached ranking is the one of the normalized query at the
+ * center of the grid cell, so that every request sharing a key gets the same answer. The cache is
+ * bounded by an estimation of the size of the cached rankings in bytes, entries expire after a
+ * time to live and the least recently used entries are evicted first.</p>
+ *
+ * <p>Entries are bound to the {@code CityRepository} they were computed from: the cache is dropped
+ * when a ranking is requested against another repository, or when it is invalidated once data has
+ * been reloaded, see {@link #invalidate()}.</p>
+ *
+ * <p>The hit and miss statistics of the cache are logged periodically, see {@link
+ * #logStats()}.</p>
+ */
+@Service
+@Primary
+public class CachingSuggestionService implements SuggestionService {
+
+  private static final int BASE_ENTRY_BYTES = 256;
+  private static final int SUGGESTION_BYTES = 160;
+  private static final Logger LOGGER = LoggerFactory.getLogger(CachingSuggestionService.class);
+
+  private final SuggestionService suggestionService;
+  private final long maxBytes;
+  private final Duration timeToLive;
+  private final double locationGridDegrees;
+  private final AtomicReference<RepositoryCache> repositoryCache = new AtomicReference<>();
+
+  /**
+   * Creates a {@code CachingSuggestionService}.
+   *
+   * @param suggestionService   the {@code SuggestionService} whose rankings are cached
+   * @param maxBytes            the maximum estimated size of the cached rankings, in bytes
+   * @param timeToLiveSeconds   the time after which a cached ranking expires, in seconds
+   * @param locationGridDegrees the size of the grid cells user locations are rounded to, in
+   *                            degrees, or 0 to use exact locations
+   */
+  @Autowired
+  public CachingSuggestionService(SimpleSuggestionService suggestionService,
+      @Value("${suggestions.cache.max-bytes:67108864}") long maxBytes,
+      @Value("${suggestions.cache.ttl-seconds:300}") long timeToLiveSeconds,
+      @Value("${suggestions.cache.location-grid-degrees:0.01}") double locationGridDegrees) {
+    this.suggestionService = suggestionService;
+    this.maxBytes = maxBytes;
+    this.timeToLive = Duration.ofSeconds(timeToLiveSeconds);
+    this.locationGridDegrees = locationGridDegrees;
+  }
+
+  private static int estimateBytes(SuggestionPage ranking) {
+    if (ranking.getSuggestions() == null) {
+      return BASE_ENTRY_BYTES;
+    }
+    int bytes = BASE_ENTRY_BYTES;
+    for (Suggestion suggestion : ranking.getSuggestions()) {
+      String name = suggestion.getCityName();
+      bytes += SUGGESTION_BYTES + (name == null ? 0 : 2 * name.length());
+    }
+    return bytes;
+  }
+
+  private Double roundToGrid(Double coordinate) {
+    // A coordinate that is not finite is left as it is, so that it is rejected like without cache.
+    if (coordinate == null || locationGridDegrees <= 0 || !Double.isFinite(coordinate)) {
+      return coordinate;
+    }
+    return Math.round(coordinate / locationGridDegrees) * locationGridDegrees;
+  }
+
+  @Override
+  public SuggestionPage rankCities(CityRepository cities, String q, Double latitude,
+      Double longitude, int page, int perPage, String... countryCodes) {
+    return rankCities(cities, q, latitude, longitude,
+        SimpleSuggestionService.DEFAULT_MAX_DISTANCE_KM, 0, page, perPage, countryCodes);
+  }
+
+  /**
+   * Returns the cached ranking for the request, computing it with the wrapped {@code
+   * SuggestionService} when it is not cached.
+   *
+   * @param cities         the {@code CityRepository} to extract data from
+   * @param q              the query parameter
+   * @param latitude       the user's latitude
+   * @param longitude      the user's latitude
+   * @param maxDistanceKm  the maximum distance between the user and a city, in kilometers
+   * @param distanceWeight the weight of the distance in the score, between 0 and 1
+   * @param page           the page
+   * @param perPage        the number of items per page
+   * @param countryCodes   the country codes of the desired cities
+   * @return a {@code SuggestionPage} that holds the {@code Suggestion}s of the page ranked by
+   * similarity of there name.
+   */
+  @Override
+  public SuggestionPage rankCities(CityRepository cities, String q, Double latitude,
+      Double longitude, double maxDistanceKm, double distanceWeight, int page, int perPage,
+      String... countryCodes) {
+    String normalizedQuery = NameNormalizer.normalize(q);
+    Double roundedLatitude = roundToGrid(latitude);
+    Double roundedLongitude = roundToGrid(longitude);
+    Key key = new Key(normalizedQuery, Arrays.asList(countryCodes), roundedLatitude,
+        roundedLongitude, maxDistanceKm, distanceWeight, page, perPage);
+    Cache<Key, SuggestionPage> cache = cacheFor(cities);
+    SuggestionPage ranking = cache.getIfPresent(key);
+    if (ranking == null) {
+      ranking = suggestionService.rankCities(cities, normalizedQuery, roundedLatitude,
+          roundedLongitude, maxDistanceKm, distanceWeight, page, perPage, countryCodes);
+      if (ranking != null) {
+        cache.put(key, ranking);
+      }
+    }
+    return ranking;
+  }
+
+  private Cache<Key, SuggestionPage> cacheFor(CityRepository cities) {
+    RepositoryCache current = repositoryCache.get();
+    while (current == null || current.repository != cities) {
+      RepositoryCache created = new RepositoryCache(cities, CacheBuilder.newBuilder()
+          .maximumWeight(maxBytes)
+          .weigher((Key key, SuggestionPage ranking) -> estimateBytes(ranking))
+          .expireAfterWrite(timeToLive)
+          .recordStats()
+          .build());
+      if (repositoryCache.compareAndSet(current, created)) {
+        return created.cache;
+      }
+      current = repositoryCache.get();
+    }
+    return current.cache;
+  }
+
+  /**
+   * Drops every cached ranking, and the rankings stored by the wrapped {@code SuggestionService}.
+   */
+  @Override
+  public void invalidate() {
+    repositoryCache.set(null);
+    suggestionService.invalidate();
+  }
+
+  /**
+   * Returns the hit and miss statistics of the cache since it was last dropped.
+   *
+   * @return the hit and miss statistics of the cache
+   */
+  public CacheStats getStats() {
+    RepositoryCache current = repositoryCache.get();
+    return current == null ? new CacheStats(0, 0, 0, 0, 0, 0) : current.cache.stats();
+  }
+
+  /**
+   * Logs the hit and miss statistics of the cache, see {@link #getStats()}.
+   */
+  @Scheduled(initialDelayString = "${suggestions.cache.stats-interval-ms:3600000}",
+      fixedDelayString = "${suggestions.cache.stats-interval-ms:3600000}")
+  public void logStats() {
+    CacheStats stats = getStats();
+    LOGGER.info("Suggestion cache: {} requests, hit rate {}, {} evictions", stats.requestCount(),
+        String.format("%.3f", stats.hitRate()), stats.evictionCount());
+  }
+
+  private static class RepositoryCache {
+
+    private final CityRepository repository;
+    private final Cache<Key, SuggestionPage> cache;
+
+    RepositoryCache(CityRepository repository, Cache<Key, SuggestionPage> cache) {
+      this.repository = repository;
+      this.cache = cache;
+    }
+  }
+
+  private static class Key {
+
+    private final String q;
+    private final List<String> countryCodes;
+    private final Double latitude;
+    private final Double longitude;
+    private final double maxDistanceKm;
+    private final double distanceWeight;
+    private final int page;
+    private final int perPage;
+
+    Key(String q, List<String> countryCodes, Double latitude, Double longitude,
+        double maxDistanceKm, double distanceWeight, int page, int perPage) {
+      this.q = q;
+      this.countryCodes = countryCodes;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.maxDistanceKm = maxDistanceKm;
+      this.distanceWeight = distanceWeight;
+      this.page = page;
+      this.perPage = perPage;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof Key)) {
+        return false;
+      }
+      Key otherKey = (Key) other;
+      return q.equals(otherKey.q)
+          && countryCodes.equals(otherKey.countryCodes)
+          && Objects.equals(latitude, otherKey.latitude)
+          && Objects.equals(longitude, otherKey.longitude)
+          && Double.compare(maxDistanceKm, otherKey.maxDistanceKm) == 0
+          && Double.compare(distanceWeight, otherKey.distanceWeight) == 0
+          && page == otherKey.page
+          && perPage == otherKey.perPage;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(q, countryCodes, latitude, longitude, maxDistanceKm, distanceWeight, page,
+          perPage);
+    }
+  }
+}
@@ -0,0 +1,123 @@
+package org.citybackend.application.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.citybackend.city.City;
+
+/**
+ * The best {@code City}s among a list of candidates, ordered by descending score. Pages are sliced
+ * from the ranking as long as it is deep enough, see {@link #isRankedUpTo(long)}.
+ */
+class RankedCities {
+
+  private final List<City> candidates;
+  private final int prefixMatchCount;
+  private final int similarNameCount;
+  private final CandidateSet candidateSet;
+  private final int[] indices;
+  private final double[] scores;
+
+  /**
+   * Creates a {@code RankedCities}.
+   *
+   * @param candidates       the {@code City}s that were ranked
+   * @param prefixMatchCount the number of {@code City}s whose name starts with the query
+   * @param similarNameCount the number of {@code City}s whose name is similar to the query, or -1
+   *                         if they were not looked up
+   * @param candidateSet     the set of {@code City}s the candidates are
+   * @param indices          the indices in {@code candidates} of the best {@code City}s, best
+   *                         first
+   * @param scores           the scores of the best {@code City}s, best first
+   */
+  RankedCities(List<City> candidates, int prefixMatchCount, int similarNameCount,
+      CandidateSet candidateSet, int[] indices, double[] scores) {
+    this.candidates = candidates;
+    this.prefixMatchCount = prefixMatchCount;
+    this.similarNameCount = similarNameCount;
+    this.candidateSet = candidateSet;
+    this.indices = indices;
+    this.scores = scores;
+  }
+
+  int getCandidateCount() {
+    return candidates.size();
+  }
+
+  int getPrefixMatchCount() {
+    return prefixMatchCount;
+  }
+
+  int getSimilarNameCount() {
+    return similarNameCount;
+  }
+
+  CandidateSet getCandidateSet() {
+    return candidateSet;
+  }
+
+  /**
+   * Returns whether the ranking holds every {@code City} up to the given position, i.e. whether the
+   * pages ending before it can be sliced from this ranking.
+   *
+   * @param end the position (exclusive)
+   * @return whether the ranking holds every {@code City} up to {@code end}
+   */
+  boolean isRankedUpTo(long end) {
+    return end <= indices.length || indices.length == candidates.size();
+  }
+
+  /**
+   * Returns the {@code Suggestion}s of the requested page, ordered by descending score.
+   *
+   * @param page    the page
+   * @param perPage the number of items per page
+   * @return the {@code Suggestion}s of the requested page, ordered by descending score
+   */
+  List<Suggestion> page(int page, int perPage) {
+    int pageStart = (int) Math.min((long) page * perPage, indices.length);
+    int pageEnd = (int) Math.min((long) (page + 1) * perPage, indices.length);
+    List<Suggestion> suggestions = new ArrayList<>(pageEnd - pageStart);
+    for (int i = pageStart; i < pageEnd; i++) {
+      City city = candidates.get(indices[i]);
+      suggestions.add(
+          new Suggestion(city.getName(), city.getLatitude(), city.getLongitude(), scores[i]));
+    }
+    return suggestions;
+  }
+
+  /**
+   * The sets of {@code City}s a ranking can be run on, from the smallest to the largest.
+   */
+  enum CandidateSet {
+    /**
+     * The {@code City}s whose name starts with the query.
+     */
+    PREFIX_MATCHES,
+    /**
+     * The {@code City}s whose name shares the most trigrams with the query.
+     */
+    SIMILAR_NAMES,
+    /**
+     * Every {@code City} of the requested country codes and area.
+     */
+    ALL;
+
+    /**
+     * Returns the smallest set of {@code City}s that fills the first page. The set does not depend
+     * on the requested page, so that every page of a query is sliced from the ranking of the same
+     * candidates.
+     *
+     * @param prefixMatchCount the number of {@code City}s whose name starts with the query
+     * @param similarNameCount the number of {@code City}s whose name is similar to the query, or
+     *                         -1 if they cannot be looked up
+     * @param perPage          the number of items per page
+     * @return the smallest set of {@code City}s that fills the first page
+     */
+    static CandidateSet forFirstPage(int prefixMatchCount, int similarNameCount, int perPage) {
+      if (prefixMatchCount >= perPage) {
+        return PREFIX_MATCHES;
+      }
+      return similarNameCount >= perPage ? SIMILAR_NAMES : ALL;
+    }
+  }
+}
@@ -1,20 +1,36 @@
 package org.citybackend.application.service;
 
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 import java.util.function.Predicate;
-import java.util.stream.Collectors;
 import org.apache.commons.text.similarity.JaroWinklerSimilarity;
 import org.apache.commons.text.similarity.SimilarityScore;
+import org.citybackend.application.ranking.JaroWinklerScorer;
+import org.citybackend.application.ranking.ParallelRanker;
+import org.citybackend.application.ranking.TopKSelector;
+import org.citybackend.application.service.RankedCities.CandidateSet;
 import org.citybackend.city.City;
+import org.citybackend.index.GreatCircle;
+import org.citybackend.index.NameNormalizer;
+import org.citybackend.index.StaticRanks;
+import org.citybackend.index.TrigramIndex;
+import org.citybackend.repo.CityColumns;
 import org.citybackend.repo.CityRepository;
+import org.citybackend.repo.ConcatenatedCityList;
+import org.citybackend.repo.MatchedCities;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 @Service
-public class SimpleSuggestionService implements SuggestionService {
+public class SimpleSuggestionService implements SuggestionService, DisposableBean {
 
   /**
    * A similarity algorithm indicating the percentage of matched characters between two character
@@ -24,14 +40,90 @@ public class SimpleSuggestionService implements SuggestionService {
    * href="http://en.wikipedia.org/wiki/Jaro%E2%80%93Winkler_distance">
    * http://en.wikipedia.org/wiki/Jaro%E2%80%93Winkler_distance</a>.
    * </p>
+   * <p>
+   * Suggestions are scored by {@code JaroWinklerScorer}, which returns the same scores without
+   * allocating; this instance is kept as the reference implementation.
+   * </p>
    */
   private static final JaroWinklerSimilarity similarityCalculator = new JaroWinklerSimilarity();
-  private static final int perPage = 10;
-  private static final int MAX_LAT = 10;
-  private static final int MAX_LON = 10;
+  /**
+   * Default maximum distance between the user and suggested cities, in kilometers.
+   */
+  public static final double DEFAULT_MAX_DISTANCE_KM = 1111;
+  /**
+   * Default number of candidates from which a ranking is run in parallel.
+   */
+  public static final int DEFAULT_PARALLEL_THRESHOLD = 50000;
+  /**
+   * Default minimum number of {@code City}s kept by a ranking, so that the next pages can be
+   * sliced from it.
+   */
+  public static final int DEFAULT_RANKING_DEPTH = 100;
+  /**
+   * Maximum number of {@code City}s per country code whose name is similar to the query that are
+   * scored when there are not enough prefix matches.
+   */
+  public static final int SIMILAR_NAME_CANDIDATES = 1000;
+  /**
+   * Default weight of the static rank of a {@code City} in its score, see {@code StaticRanks}.
+   */
+  public static final double DEFAULT_POPULATION_WEIGHT = 0;
+
+  private final ParallelRanker parallelRanker;
+  private final int rankingDepth;
+  private final double populationWeight;
+  private final Cache<RankingKey, RankedCities> rankings;
+
+  public SimpleSuggestionService() {
+    this(DEFAULT_PARALLEL_THRESHOLD, 0, DEFAULT_RANKING_DEPTH, 4000000, 60);
+  }
+
+  /**
+   * Creates a {@code SimpleSuggestionService} whose scores do not depend on the population, see
+   * {@link #SimpleSuggestionService(int, int, int, long, long, double)}.
+   */
+  public SimpleSuggestionService(int parallelThreshold, int parallelism, int rankingDepth,
+      long maxStoredCities, long storeTtlSeconds) {
+    this(parallelThreshold, parallelism, rankingDepth, maxStoredCities, storeTtlSeconds,
+        DEFAULT_POPULATION_WEIGHT);
+  }
+
+  /**
+   * Creates a {@code SimpleSuggestionService}.
+   *
+   * @param parallelThreshold the number of candidates from which a ranking is run in parallel
+   * @param parallelism       the number of threads dedicated to parallel rankings, or 0 to use
+   *                          one per available processor
+   * @param rankingDepth      the minimum number of {@code City}s kept by a ranking
+   * @param maxStoredCities   the maximum number of candidates and ranked {@code City}s held by the
+   *                          stored rankings
+   * @param storeTtlSeconds   the time after which a stored ranking that is not used expires, in
+   *                          seconds
+   * @param populationWeight  the weight of the static rank of a {@code City} in its score, between
+   *                          0 and 1
+   */
+  @Autowired
+  public SimpleSuggestionService(
+      @Value("${suggestions.parallel.threshold:" + DEFAULT_PARALLEL_THRESHOLD + "}")
+          int parallelThreshold,
+      @Value("${suggestions.parallel.parallelism:0}") int parallelism,
+      @Value("${suggestions.ranking.depth:" + DEFAULT_RANKING_DEPTH + "}") int rankingDepth,
+      @Value("${suggestions.ranking.store-max-cities:4000000}") long maxStoredCities,
+      @Value("${suggestions.ranking.store-ttl-seconds:60}") long storeTtlSeconds,
+      @Value("${suggestions.ranking.population-weight:" + DEFAULT_POPULATION_WEIGHT + "}")
+          double populationWeight) {
+    this.parallelRanker = new ParallelRanker(parallelThreshold, parallelism);
+    this.rankingDepth = rankingDepth;
+    this.populationWeight = Math.max(0, Math.min(populationWeight, 1));
+    this.rankings = CacheBuilder.newBuilder()
+        .maximumWeight(maxStoredCities)
+        .weigher((RankingKey key, RankedCities ranked) -> ranked.getCandidateCount())
+        .expireAfterAccess(Duration.ofSeconds(storeTtlSeconds))
+        .build();
+  }
 
   static double jaroWinklerSimilarity(String cityName, String q) {
-    return similarityCalculator.apply(cityName, q);
+    return JaroWinklerScorer.forQuery(q).score(cityName);
   }
 
   public static SimilarityScore<Double> getSimilarityCalculator() {
@@ -39,35 +131,53 @@ public class SimpleSuggestionService implements SuggestionService {
   }
 
   /**
-   * Return {@code Predicate<City>} to filter cities based on their location.
+   * Drops the stored rankings, and the {@code City}s of the repositories they were run on.
+   */
+  @Override
+  public void invalidate() {
+    rankings.invalidateAll();
+  }
+
+  /**
+   * Shuts down the threads dedicated to parallel rankings.
+   */
+  @Override
+  public void destroy() {
+    parallelRanker.close();
+  }
+
+  /**
+   * Return {@code Predicate<City>} to filter cities based on their location: cities that are more
+   * than {@link #DEFAULT_MAX_DISTANCE_KM} away from the user are filtered out.
    *
    * @param latitude  the user's latitude
    * @param longitude the user's longitude
    * @return {@code Predicate<City>} to filter cities based on their location.
    */
   public static Predicate<City> isClose(Double latitude, Double longitude) {
+    return isClose(latitude, longitude, DEFAULT_MAX_DISTANCE_KM);
+  }
+
+  /**
+   * Return {@code Predicate<City>} to filter cities based on their great-circle distance with the
+   * user.
+   *
+   * @param latitude      the user's latitude
+   * @param longitude     the user's longitude
+   * @param maxDistanceKm the maximum distance between the user and a city, in kilometers
+   * @return {@code Predicate<City>} to filter cities based on their location.
+   */
+  public static Predicate<City> isClose(Double latitude, Double longitude, double maxDistanceKm) {
     return city -> (latitude == null || longitude == null) || (city.hasLatitude() && city
         .hasLongitude()
-        && Math.abs(city.getLatitude() - latitude) < MAX_LAT
-        && Math.abs(city.getLongitude() - longitude) < MAX_LON);
-  }
-
-  private static ArrayList<Suggestion> paginate(ArrayList<Suggestion> suggestions, int page) {
-    int totalPages =
-        suggestions.size() % perPage == 0 ? suggestions.size() / perPage
-            : (suggestions.size() / perPage) + 1;
-    ArrayList<Suggestion> toReturn = new ArrayList<>();
-    if (page < totalPages) {
-      toReturn.addAll(suggestions.subList((page * perPage),
-          Math.min((page * perPage + perPage), suggestions.size())));
-    }
-    return toReturn;
+        && GreatCircle.distanceKm(latitude, longitude, city.getLatitude(), city.getLongitude())
+        <= maxDistanceKm);
   }
 
   /**
    * Ranks cities based on the percentage of similarity of their name with the query parameter.
-   * {@code City}s that are "too far" from the user are not taken into account. Also, only cities
-   * that match a certain country code will be considered.
+   * {@code City}s that are more than {@link #DEFAULT_MAX_DISTANCE_KM} away from the user are not
+   * taken into account.
    *
    * @param cities       the {@code CityRepository} to extract data from
    * @param q            the query parameter
@@ -76,33 +186,330 @@ public class SimpleSuggestionService implements SuggestionService {
    * @param page         the page
    * @param perPage      the number of items per page
    * @param countryCodes the country codes of the desired cities
-   * @return a {@code JsonObject} that represents a list of {code Suggestion}s ranked by similarity
-   * of there name.
+   * @return a {@code SuggestionPage} that holds the {@code Suggestion}s of the page ranked by
+   * similarity of there name.
+   */
+  @Override
+  public SuggestionPage rankCities(CityRepository cities, String q, Double latitude,
+      Double longitude, int page, int perPage, String... countryCodes) {
+    return rankCities(cities, q, latitude, longitude, DEFAULT_MAX_DISTANCE_KM, 0, page, perPage,
+        countryCodes);
+  }
+
+  /**
+   * Ranks cities based on the percentage of similarity of their name with the query parameter.
+   * {@code City}s that are "too far" from the user are not taken into account: they are discarded
+   * by the spatial index of the repository, with the same rule as {@link #isClose(Double, Double,
+   * double)}. Also, only cities that match a certain country code will be considered.
+   * <p>
+   * Only the {@code City}s with a name, ascii name or alternate name starting with the query
+   * parameter are scored, unless there are not enough of them to fill the first page: in that case
+   * the {@code City}s with a name similar to the query are scored so that fuzzy matches are still
+   * suggested, or every {@code City} if there are not enough of them either. The candidates are
+   * the same for every page of a query, and so is the number of pages. A {@code City} is
+   * suggested once, under its name, with the score of the best of its names that matched the
+   * query; when every {@code City} is scored, only their name is.
+   * </p>
+   * <p>
+   * Names are compared with the query once both are normalized, see {@link
+   * NameNormalizer#normalize(String)}: the query is normalized once per request, and the names
+   * when they are indexed.
+   * </p>
+   * <p>
+   * When the user's location is known, the distance can be blended into the score: the score of a
+   * {@code City} becomes {@code (1 - distanceWeight) * similarity + distanceWeight * (1 - distance
+   * / maxDistanceKm)}.
+   * </p>
+   * <p>
+   * The static rank of a {@code City}, which grows with its population, see {@code StaticRanks},
+   * is then blended into the score with the population weight of this service: the score becomes
+   * {@code (1 - populationWeight) * score + populationWeight * staticRank}. The candidates of a
+   * country code are listed by descending static rank, so that the largest {@code City}s win
+   * ties, and so that a ranking stops scanning the candidates once the remaining ones cannot beat
+   * the {@code City}s it kept even with a perfect similarity.
+   * </p>
+   * <p>
+   * Rankings are stored for a short time, and are deeper than the requested page: the next pages
+   * of a recent request are sliced from its ranking instead of scoring every candidate again.
+   * </p>
+   *
+   * @param cities         the {@code CityRepository} to extract data from
+   * @param q              the query parameter
+   * @param latitude       the user's latitude
+   * @param longitude      the user's latitude
+   * @param maxDistanceKm  the maximum distance between the user and a city, in kilometers
+   * @param distanceWeight the weight of the distance in the score, between 0 and 1
+   * @param page           the page
+   * @param perPage        the number of items per page
+   * @param countryCodes   the country codes of the desired cities
+   * @return a {@code SuggestionPage} that holds the {@code Suggestion}s of the page ranked by
+   * similarity of there name.
+   * @throws IllegalArgumentException if the latitude or the longitude is out of range, if {@code
+   *                                  maxDistanceKm} is not positive, or if {@code distanceWeight}
+   *                                  is not between 0 and 1
    */
   @Override
-  public JsonObject rankCities(CityRepository cities, String q, Double latitude, Double longitude,
-      int page, int perPage, String... countryCodes) {
-    List<City> closeCities = cities.forCountryCodes(countryCodes).stream()
-        .filter(isClose(latitude, longitude))
-        .collect(Collectors.toUnmodifiableList());
-    ArrayList<Suggestion> suggestions = sortCitiesByNameSimilarity(closeCities, q);
-
-    JsonObject root = new JsonObject();
-    JsonArray jsonSuggestions = new JsonArray();
-    root.add("suggestions", jsonSuggestions);
-    for (Suggestion suggestion : paginate(suggestions, page)) {
-      JsonObject suggestionElement = new JsonObject();
-      jsonSuggestions.add(suggestionElement);
-      suggestionElement.addProperty("name", suggestion.getCityName());
-      suggestionElement.addProperty("latitude", suggestion.getLatitude());
-      suggestionElement.addProperty("longitude", suggestion.getLongitude());
-      suggestionElement.addProperty("score", suggestion.getScore());
+  public SuggestionPage rankCities(CityRepository cities, String q, Double latitude,
+      Double longitude, double maxDistanceKm, double distanceWeight, int page, int perPage,
+      String... countryCodes) {
+    if (latitude != null && !(latitude >= -90 && latitude <= 90)) {
+      throw new IllegalArgumentException("The latitude must be between -90 and 90: " + latitude);
+    }
+    if (longitude != null && !(longitude >= -180 && longitude <= 180)) {
+      throw new IllegalArgumentException("The longitude must be between -180 and 180: "
+          + longitude);
+    }
+    if (!(maxDistanceKm > 0)) {
+      throw new IllegalArgumentException("The maximum distance must be positive: "
+          + maxDistanceKm);
+    }
+    if (!(distanceWeight >= 0 && distanceWeight <= 1)) {
+      throw new IllegalArgumentException("The distance weight must be between 0 and 1: "
+          + distanceWeight);
     }
-    root.addProperty("page", page);
-    root.addProperty("per_page", perPage);
-    root.addProperty("total_pages", suggestions.size() % perPage == 0 ? suggestions.size() / perPage
-        : (suggestions.size() / perPage) + 1);
-    return root;
+    long pageEnd = (long) (page + 1) * perPage;
+    String normalizedQuery = NameNormalizer.normalize(q);
+    RankingKey key = new RankingKey(cities, normalizedQuery, Arrays.asList(countryCodes),
+        latitude, longitude, maxDistanceKm, distanceWeight);
+    RankedCities ranked = rankings.getIfPresent(key);
+    if (ranked == null || !canServe(ranked, pageEnd, perPage)) {
+      ranked = rank(cities, normalizedQuery, latitude, longitude, maxDistanceKm, distanceWeight,
+          pageEnd, perPage, countryCodes);
+      rankings.put(key, ranked);
+    }
+    List<Suggestion> suggestions = ranked.page(page, perPage);
+    int candidateCount = ranked.getCandidateCount();
+
+    return new SuggestionPage(suggestions, page, perPage,
+        candidateCount % perPage == 0 ? candidateCount / perPage
+            : (candidateCount / perPage) + 1);
+  }
+
+  /**
+   * Returns whether the page ending at {@code pageEnd} can be sliced from a stored ranking: the
+   * ranking must be deep enough, and must have been run on the same candidates as a new ranking
+   * would be.
+   */
+  private static boolean canServe(RankedCities ranked, long pageEnd, int perPage) {
+    return ranked.isRankedUpTo(pageEnd) && ranked.getCandidateSet() == CandidateSet.forFirstPage(
+        ranked.getPrefixMatchCount(), ranked.getSimilarNameCount(), perPage);
+  }
+
+  /**
+   * Ranks the candidates of a request for a normalized query. At least {@link #rankingDepth}
+   * {@code City}s are kept, so that the next pages can be sliced from the ranking.
+   * <p>
+   * The candidates are the {@code City}s with a search key starting with the query if there are
+   * enough of them to fill the first page, otherwise the {@code City}s with a search key
+   * sharing the most trigrams with the query, up to {@link #SIMILAR_NAME_CANDIDATES} keys per
+   * country code, so that
+   * names with typos are suggested without scoring every {@code City}. Every {@code City} is only
+   * scored when neither set fills the first page. The candidates do not depend on the
+   * requested page, so that every page of a query ranks the same ones, and reports the same number
+   * of pages.
+   * </p>
+   * <p>
+   * The candidates of each country code are a shard: each shard is ranked by its own task, which
+   * keeps its own best {@code City}s, and the shards are merged into one ranking, see {@link
+   * ParallelRanker#rankShards(int[], int, ParallelRanker.ShardRanker)}. The ranking is the same as
+   * the one of the candidates of every country code concatenated in order.
+   * </p>
+   */
+  private RankedCities rank(CityRepository cities, String q, Double latitude, Double longitude,
+      double maxDistanceKm, double distanceWeight, long pageEnd, int perPage,
+      String... countryCodes) {
+    boolean isLocated = latitude != null && longitude != null;
+    List<List<City>> shards = new ArrayList<>(countryCodes.length);
+    int prefixMatchCount = 0;
+    for (String countryCode : countryCodes) {
+      List<City> prefixMatches = isLocated
+          ? cities.forPrefixNear(q, latitude, longitude, maxDistanceKm, countryCode)
+          : cities.forPrefix(q, countryCode);
+      shards.add(prefixMatches);
+      prefixMatchCount += prefixMatches.size();
+    }
+    int similarNameCount = -1;
+    if (prefixMatchCount < perPage && TrigramIndex.canLookup(q)) {
+      similarNameCount = 0;
+      for (int i = 0; i < countryCodes.length; i++) {
+        shards.set(i, isLocated
+            ? cities.forSimilarNameNear(q, SIMILAR_NAME_CANDIDATES, latitude, longitude,
+            maxDistanceKm, countryCodes[i])
+            : cities.forSimilarName(q, SIMILAR_NAME_CANDIDATES, countryCodes[i]));
+        similarNameCount += shards.get(i).size();
+      }
+    }
+    CandidateSet candidateSet = CandidateSet.forFirstPage(prefixMatchCount, similarNameCount,
+        perPage);
+    if (candidateSet == CandidateSet.ALL) {
+      for (int i = 0; i < countryCodes.length; i++) {
+        shards.set(i, isLocated
+            ? cities.near(latitude, longitude, maxDistanceKm, countryCodes[i])
+            : cities.forCountryCodes(countryCodes[i]));
+      }
+    }
+    List<City> closeCities = shards.size() == 1 ? shards.get(0)
+        : new ConcatenatedCityList(shards);
+    int depth = (int) Math.min(Math.max(pageEnd, rankingDepth), closeCities.size());
+    TopKSelector topK = parallelRanker.rankShards(
+        shards.stream().mapToInt(List::size).toArray(), depth,
+        (shard, k) -> selectBest(shards.get(shard), q, latitude, longitude, maxDistanceKm,
+            distanceWeight, Math.min(k, shards.get(shard).size())));
+    double[] scores = new double[topK.size()];
+    int[] indices = topK.drainInto(scores);
+    return new RankedCities(closeCities, prefixMatchCount, similarNameCount, candidateSet,
+        indices, scores);
+  }
+
+  /**
+   * Returns the {@code Suggestion}s of the requested page, ordered by descending matching score.
+   * Only the {@code (page + 1) * perPage} best {@code City}s are kept while scoring, and only the
+   * ones of the requested page are turned into {@code Suggestion}s. Once enough {@code City}s are
+   * kept, names whose length alone cannot beat the lowest kept score are not scored.
+   *
+   * @param cities  the list of {@code City}s to rank
+   * @param q       the query parameter
+   * @param page    the page
+   * @param perPage the number of items per page
+   * @return the {@code Suggestion}s of the requested page, ordered by descending matching score
+   */
+  List<Suggestion> rankPage(List<City> cities, String q, int page, int perPage) {
+    return rankPage(cities, q, null, null, DEFAULT_MAX_DISTANCE_KM, 0, page, perPage);
+  }
+
+  /**
+   * Returns the {@code Suggestion}s of the requested page, ordered by descending score. The score
+   * blends the distance with the user when a location and a positive weight are given, see {@link
+   * #rankCities(CityRepository, String, Double, Double, double, double, int, int, String...)}.
+   * Large lists of {@code City}s are scored in parallel by chunks, see {@code ParallelRanker}.
+   *
+   * @param cities         the list of {@code City}s to rank
+   * @param q              the query parameter
+   * @param latitude       the user's latitude
+   * @param longitude      the user's latitude
+   * @param maxDistanceKm  the maximum distance between the user and a city, in kilometers
+   * @param distanceWeight the weight of the distance in the score, between 0 and 1
+   * @param page           the page
+   * @param perPage        the number of items per page
+   * @return the {@code Suggestion}s of the requested page, ordered by descending score
+   */
+  List<Suggestion> rankPage(List<City> cities, String q, Double latitude, Double longitude,
+      double maxDistanceKm, double distanceWeight, int page, int perPage) {
+    int pageEnd = (int) Math.min((long) (page + 1) * perPage, cities.size());
+    TopKSelector topK = selectBest(cities, NameNormalizer.normalize(q), latitude, longitude,
+        maxDistanceKm, distanceWeight, pageEnd);
+    double[] scores = new double[topK.size()];
+    int[] indices = topK.drainInto(scores);
+    return new RankedCities(cities, 0, -1, CandidateSet.ALL, indices, scores)
+        .page(page, perPage);
+  }
+
+  /**
+   * Keeps the {@code k} best {@code City}s of the list for a normalized query. Once {@code k}
+   * {@code City}s are kept, names whose length alone cannot beat the lowest kept score are not
+   * scored. The columns of {@code CityColumns} are scanned directly, without creating {@code
+   * City}s.
+   * <p>
+   * A {@code City} found by its search keys, see {@code MatchedCities}, is scored under the best of
+   * the normalized keys it was found by, e.g. one of its alternate names, and its other keys are
+   * not scored. The names of the {@code City}s of other lists are normalized while being scored.
+   * </p>
+   * <p>
+   * The scan of {@code MatchedCities} and {@code CityColumns} stops as soon as the highest static
+   * rank left, blended with a perfect similarity, cannot beat the lowest kept score. The static
+   * ranks of the {@code City}s of other lists are computed while being scored, and these lists
+   * are scanned to the end.
+   * </p>
+   */
+  private TopKSelector selectBest(List<City> cities, String q, Double latitude, Double longitude,
+      double maxDistanceKm, double distanceWeight, int k) {
+    double weight = Math.max(0, Math.min(distanceWeight, 1));
+    boolean isBlended = latitude != null && longitude != null && weight > 0;
+    if (cities instanceof CityColumns) {
+      return selectBest((CityColumns) cities, q, latitude, longitude, maxDistanceKm, weight,
+          isBlended, k);
+    }
+    MatchedCities matched = cities instanceof MatchedCities ? (MatchedCities) cities : null;
+    return parallelRanker.rank(cities.size(), k, (from, to, rangeTopK) -> {
+      JaroWinklerScorer scorer = JaroWinklerScorer.forQuery(q);
+      for (int i = from; i < to; i++) {
+        if (matched != null && maxScore(matched.getStaticRankBound(i)) < rangeTopK.threshold()) {
+          break;
+        }
+        City city = cities.get(i);
+        double proximity = isBlended && city.hasLatitude() && city.hasLongitude()
+            ? proximity(latitude, longitude, city.getLatitude(), city.getLongitude(), maxDistanceKm)
+            : 0;
+        double staticScore = populationWeight * (matched != null ? matched.getStaticRank(i)
+            : StaticRanks.of(city.getPopulation()));
+        double best = Double.NEGATIVE_INFINITY;
+        for (int key = 0; key < (matched != null ? matched.getMatchedKeyCount(i) : 1); key++) {
+          String name = matched != null ? matched.getMatchedKey(i, key)
+              : NameNormalizer.normalize(city.getName());
+          double bound = (1 - populationWeight) * (isBlended
+              ? (1 - weight) * scorer.upperBound(name.length()) + weight * proximity
+              : scorer.upperBound(name.length())) + staticScore;
+          if (bound < rangeTopK.threshold() || bound <= best) {
+            continue;
+          }
+          best = Math.max(best, (1 - populationWeight) * (isBlended
+              ? (1 - weight) * scorer.score(name) + weight * proximity : scorer.score(name))
+              + staticScore);
+        }
+        if (best > Double.NEGATIVE_INFINITY) {
+          rangeTopK.offer(best, i);
+        }
+      }
+    });
+  }
+
+  private TopKSelector selectBest(CityColumns cities, String q, Double latitude,
+      Double longitude, double maxDistanceKm, double weight, boolean isBlended, int k) {
+    char[] keys = cities.getKeyChars();
+    return parallelRanker.rank(cities.size(), k, (from, to, rangeTopK) -> {
+      JaroWinklerScorer scorer = JaroWinklerScorer.forQuery(q);
+      for (int i = from; i < to; i++) {
+        if (maxScore(cities.getStaticRankBound(i)) < rangeTopK.threshold()) {
+          break;
+        }
+        double proximity = isBlended && cities.hasCoordinates(i)
+            ? proximity(latitude, longitude, cities.getLatitude(i), cities.getLongitude(i),
+            maxDistanceKm)
+            : 0;
+        double staticScore = populationWeight * cities.getStaticRank(i);
+        double best = Double.NEGATIVE_INFINITY;
+        for (int key = 0; key < cities.getMatchedKeyCount(i); key++) {
+          int nameLength = cities.getMatchedKeyLength(i, key);
+          double bound = (1 - populationWeight) * (isBlended
+              ? (1 - weight) * scorer.upperBound(nameLength) + weight * proximity
+              : scorer.upperBound(nameLength)) + staticScore;
+          if (bound < rangeTopK.threshold() || bound <= best) {
+            continue;
+          }
+          double similarity = scorer.score(keys, cities.getMatchedKeyOffset(i, key), nameLength);
+          best = Math.max(best, (1 - populationWeight)
+              * (isBlended ? (1 - weight) * similarity + weight * proximity : similarity)
+              + staticScore);
+        }
+        if (best > Double.NEGATIVE_INFINITY) {
+          rangeTopK.offer(best, i);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns the highest score of a {@code City} whose static rank is at most {@code
+   * staticRankBound}, i.e. its score with a perfect similarity and proximity.
+   */
+  private double maxScore(double staticRankBound) {
+    return (1 - populationWeight) + populationWeight * staticRankBound;
+  }
+
+  private static double proximity(double latitude, double longitude, double cityLatitude,
+      double cityLongitude, double maxDistanceKm) {
+    return 1 - Math.min(GreatCircle.distanceKm(latitude, longitude, cityLatitude, cityLongitude)
+        / maxDistanceKm, 1);
   }
 
   /**
@@ -122,4 +529,50 @@ public class SimpleSuggestionService implements SuggestionService {
     suggestions.sort(Collections.reverseOrder());
     return suggestions;
   }
+
+  private static class RankingKey {
+
+    private final CityRepository repository;
+    private final String q;
+    private final List<String> countryCodes;
+    private final Double latitude;
+    private final Double longitude;
+    private final double maxDistanceKm;
+    private final double distanceWeight;
+
+    RankingKey(CityRepository repository, String q, List<String> countryCodes, Double latitude,
+        Double longitude, double maxDistanceKm, double distanceWeight) {
+      this.repository = repository;
+      this.q = q;
+      this.countryCodes = countryCodes;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.maxDistanceKm = maxDistanceKm;
+      this.distanceWeight = distanceWeight;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (this == other) {
+        return true;
+      }
+      if (!(other instanceof RankingKey)) {
+        return false;
+      }
+      RankingKey otherKey = (RankingKey) other;
+      return repository == otherKey.repository
+          && Objects.equals(q, otherKey.q)
+          && countryCodes.equals(otherKey.countryCodes)
+          && Objects.equals(latitude, otherKey.latitude)
+          && Objects.equals(longitude, otherKey.longitude)
+          && Double.compare(maxDistanceKm, otherKey.maxDistanceKm) == 0
+          && Double.compare(distanceWeight, otherKey.distanceWeight) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(repository), q, countryCodes, latitude,
+          longitude, maxDistanceKm, distanceWeight);
+    }
+  }
 }
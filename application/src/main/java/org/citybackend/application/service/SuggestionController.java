@@ -1,20 +1,27 @@
 package org.citybackend.application.service;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import com.google.gson.JsonObject;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.HashMap;
-import org.citybackend.parser.TsvRowParser;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.servlet.http.HttpServletResponse;
+import org.citybackend.parser.ByteTsvRowParser;
+import org.citybackend.parser.CityField;
+import org.citybackend.parser.IngestFilter;
 import org.citybackend.repo.CityRepository;
+import org.citybackend.repo.CityRepositorySnapshot;
 import org.citybackend.repo.InMemoryCityRepo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RequestParam;
-import org.springframework.web.bind.annotation.ResponseBody;
 import org.springframework.web.bind.annotation.RestController;
 
 /**
@@ -22,13 +29,28 @@ import org.springframework.web.bind.annotation.RestController;
  */
 @RestController
 public class SuggestionController {
-  private static final Gson DEFAULT_GSON =
-      new GsonBuilder().serializeNulls().serializeSpecialFloatingPointValues().setPrettyPrinting()
-          .create();
   private static final String[] countryCodes = {"CA"};
-  private final CityRepository cities =
-      InMemoryCityRepo.createFromUrls(
-          TsvRowParser.getParser(), getUrlMap());
+  /**
+   * Snapshot the repository is restored from at startup, see {@link CityRepositorySnapshot}.
+   * Geonames datasets are downloaded again once the snapshot is older than a day, as geonames dumps
+   * are updated daily.
+   */
+  private static final Path SNAPSHOT_PATH =
+      Paths.get(System.getProperty("java.io.tmpdir"), "city-backend", "CA.snapshot");
+  private static final Duration SNAPSHOT_MAX_AGE = Duration.ofDays(1);
+  /**
+   * Only populated places, i.e. rows of feature class P, are ingested: lakes, mountains and other
+   * features are never suggested.
+   */
+  private static final String[] INGESTED_FEATURE_CLASSES = {"P"};
+  private static final Logger LOGGER = LoggerFactory.getLogger(SuggestionController.class);
+  /**
+   * The repository being served. It is replaced as a whole by {@link #refreshCities()}: each
+   * request reads it once, so that it is answered from a single repository without locking.
+   */
+  private final AtomicReference<CityRepository> cities = new AtomicReference<>(
+      CityRepositorySnapshot.readOrLoad(SNAPSHOT_PATH, SNAPSHOT_MAX_AGE,
+          SuggestionController::loadCities));
   @Autowired
   private SuggestionService suggestionService;
 
@@ -40,6 +62,58 @@ public class SuggestionController {
     this.suggestionService = suggestionService;
   }
 
+  /**
+   * Downloads and parses the geonames datasets. Only the fields read by suggestions are parsed and
+   * stored. The number of rows kept and dropped by the ingest filter is logged.
+   *
+   * @return the repository of the downloaded cities
+   * @throws IOException        in case of error while reading/loading datasets
+   * @throws URISyntaxException if an {@code URL} is malformed.
+   */
+  private static InMemoryCityRepo loadCities() throws IOException, URISyntaxException {
+    IngestFilter filter = new IngestFilter.Builder().featureClasses(INGESTED_FEATURE_CLASSES)
+        .build();
+    InMemoryCityRepo loaded = InMemoryCityRepo.createFromUrls(
+        ByteTsvRowParser.withFields(CityField.SUGGESTION_FIELDS), filter, getUrlMap());
+    LOGGER.info("Cities loaded: {} rows kept, {} rows dropped", filter.getKeptCount(),
+        filter.getDroppedCount());
+    return loaded;
+  }
+
+  /**
+   * Replaces the repository being served with a new one, built from the geonames datasets on the
+   * scheduler thread, and saves it as the new snapshot. Requests keep being answered from the
+   * previous repository while the new one is built, and the requests in progress when it is
+   * replaced finish with the previous one. The rankings cached for the previous repository are
+   * then dropped, so that it can be garbage collected. If any dataset cannot be loaded, the
+   * previous repository is still served until the next refresh, rather than a repository missing
+   * the cities of some country codes.
+   */
+  @Scheduled(initialDelayString = "${suggestions.refresh.interval-ms:86400000}",
+      fixedDelayString = "${suggestions.refresh.interval-ms:86400000}")
+  public void refreshCities() {
+    InMemoryCityRepo refreshed;
+    try {
+      refreshed = loadCities();
+    } catch (IOException | URISyntaxException e) {
+      LOGGER.warn("Cities could not be refreshed, the previous ones are still served", e);
+      return;
+    }
+    if (!refreshed.getFailedCountryCodes().isEmpty()) {
+      LOGGER.warn("Cities could not be refreshed, the cities of {} could not be loaded: the "
+          + "previous ones are still served", refreshed.getFailedCountryCodes());
+      return;
+    }
+    try {
+      CityRepositorySnapshot.write(refreshed, SNAPSHOT_PATH);
+    } catch (IOException e) {
+      // The snapshot is only a cache: the next startup loads the datasets again.
+      LOGGER.warn("Snapshot could not be saved", e);
+    }
+    cities.set(refreshed);
+    suggestionService.invalidate();
+  }
+
   /**
    * Helper method that helps define URLs to be fetched and their associated country codes. Returns
    * {@code URL}s to be downloaded mapped on their country code.
@@ -55,25 +129,60 @@ public class SuggestionController {
 
   /**
    * Expose service on endpoint "/suggestions".
-   * <p> example of request: localhost:8080/suggestions/?q=tor&latitude=45.99&longitude=56.8&page=1&perPage=10</p>
-   * Returns the json string response.
+   * <p> example of request:
+   * localhost:8080/suggestions/?q=tor&latitude=45.99&longitude=56.8&maxDistanceKm=500
+   * &distanceWeight=0.2&page=1&perPage=10</p>
+   * Writes the json response directly to the response body: the output is compact, unless {@code
+   * pretty} is set. A latitude or a longitude out of range, a {@code maxDistanceKm} that is not
+   * positive, or a {@code distanceWeight} that is not between 0 and 1, is answered with a 400
+   * error.
    *
-   * @param q         the query parameter
-   * @param latitude  the latitude
-   * @param longitude the latitude
-   * @param page      the page number
-   * @param perPage   the number of items per page
-   * @return the json string response
+   * @param q              the query parameter
+   * @param latitude       the latitude
+   * @param longitude      the latitude
+   * @param maxDistanceKm  the maximum distance between the user and a city, in kilometers
+   * @param distanceWeight the weight of the distance in the score, between 0 and 1
+   * @param page           the page number
+   * @param perPage        the number of items per page
+   * @param pretty         whether the json response is indented
+   * @param response       the response to write to
+   * @throws IOException if the response cannot be written
    */
   @GetMapping(value = "/suggestions", produces = "application/json")
-  @ResponseBody
-  public String suggestions(
+  public void suggestions(
       @RequestParam String q,
       @RequestParam(required = false) Double latitude,
       @RequestParam(required = false) Double longitude,
+      @RequestParam(required = false, defaultValue = "1111") Double maxDistanceKm,
+      @RequestParam(required = false, defaultValue = "0") Double distanceWeight,
       @RequestParam(required = false, defaultValue = "0") Integer page,
-      @RequestParam(required = false, defaultValue = "10") Integer perPage) {
-    return DEFAULT_GSON.toJson(suggestionService
-        .rankCities(cities, q, latitude, longitude, page, perPage, countryCodes));
+      @RequestParam(required = false, defaultValue = "10") Integer perPage,
+      @RequestParam(required = false, defaultValue = "false") Boolean pretty,
+      HttpServletResponse response) throws IOException {
+    if (latitude != null && !(latitude >= -90 && latitude <= 90)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "latitude must be between -90 and 90");
+      return;
+    }
+    if (longitude != null && !(longitude >= -180 && longitude <= 180)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "longitude must be between -180 and 180");
+      return;
+    }
+    if (!(maxDistanceKm > 0)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST, "maxDistanceKm must be positive");
+      return;
+    }
+    if (!(distanceWeight >= 0 && distanceWeight <= 1)) {
+      response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+          "distanceWeight must be between 0 and 1");
+      return;
+    }
+    SuggestionPage suggestions = suggestionService
+        .rankCities(cities.get(), q, latitude, longitude, maxDistanceKm, distanceWeight, page,
+            perPage, countryCodes);
+    response.setContentType("application/json");
+    response.setCharacterEncoding("UTF-8");
+    suggestions.writeJson(response.getWriter(), pretty);
   }
 }
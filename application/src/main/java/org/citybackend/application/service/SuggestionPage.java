@@ -0,0 +1,93 @@
+package org.citybackend.application.service;
+
+import com.google.gson.stream.JsonWriter;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.List;
+
+/**
+ * A page of {@code Suggestion}s ordered by descending score, as returned by a {@code
+ * SuggestionService}.
+ */
+public class SuggestionPage {
+
+  private final List<Suggestion> suggestions;
+  private final int page;
+  private final int perPage;
+  private final int totalPages;
+
+  public SuggestionPage(List<Suggestion> suggestions, int page, int perPage, int totalPages) {
+    this.suggestions = suggestions;
+    this.page = page;
+    this.perPage = perPage;
+    this.totalPages = totalPages;
+  }
+
+  public List<Suggestion> getSuggestions() {
+    return suggestions;
+  }
+
+  public int getPage() {
+    return page;
+  }
+
+  public int getPerPage() {
+    return perPage;
+  }
+
+  public int getTotalPages() {
+    return totalPages;
+  }
+
+  /**
+   * Writes the page as JSON to {@code out}, element by element. The output is compact unless
+   * {@code pretty} is set, in which case it is indented with two spaces. The writer is flushed but
+   * not closed.
+   *
+   * @param out    the {@code Writer} to write to
+   * @param pretty whether the output is indented
+   * @throws IOException if {@code out} cannot be written to
+   */
+  public void writeJson(Writer out, boolean pretty) throws IOException {
+    JsonWriter writer = new JsonWriter(out);
+    // Scores and coordinates may be NaN or infinite.
+    writer.setLenient(true);
+    if (pretty) {
+      writer.setIndent("  ");
+    }
+    writer.beginObject();
+    writer.name("suggestions").beginArray();
+    for (Suggestion suggestion : suggestions) {
+      writer.beginObject();
+      writer.name("name").value(suggestion.getCityName());
+      writer.name("latitude").value(suggestion.getLatitude());
+      writer.name("longitude").value(suggestion.getLongitude());
+      writer.name("score").value(suggestion.getScore());
+      writer.endObject();
+    }
+    writer.endArray();
+    writer.name("page").value(page);
+    writer.name("per_page").value(perPage);
+    writer.name("total_pages").value(totalPages);
+    writer.endObject();
+    writer.flush();
+  }
+
+  /**
+   * Returns the page as a JSON string, see {@link #writeJson(Writer, boolean)}.
+   *
+   * @param pretty whether the output is indented
+   * @return the page as a JSON string
+   */
+  public String toJson(boolean pretty) {
+    StringWriter out = new StringWriter();
+    try {
+      writeJson(out, pretty);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return out.toString();
+  }
+}
@@ -1,6 +1,5 @@
 package org.citybackend.application.service;
 
-import com.google.gson.JsonObject;
 import org.citybackend.repo.CityRepository;
 
 /**
@@ -8,6 +7,15 @@ import org.citybackend.repo.CityRepository;
  */
 public interface SuggestionService {
 
-  JsonObject rankCities(CityRepository cities, String q, Double latitude, Double longitude,
+  SuggestionPage rankCities(CityRepository cities, String q, Double latitude, Double longitude,
       int page, int perPage, String... countryCodes);
+
+  SuggestionPage rankCities(CityRepository cities, String q, Double latitude, Double longitude,
+      double maxDistanceKm, double distanceWeight, int page, int perPage, String... countryCodes);
+
+  /**
+   * Drops the rankings kept from previous requests, e.g. once the {@code CityRepository} being
+   * served has been replaced, so that they no longer hold the previous one.
+   */
+  void invalidate();
 }
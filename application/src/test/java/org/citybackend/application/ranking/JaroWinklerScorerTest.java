@@ -0,0 +1,64 @@
+package org.citybackend.application.ranking;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+import org.apache.commons.text.similarity.JaroWinklerSimilarity;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class JaroWinklerScorerTest {
+
+  private static final JaroWinklerSimilarity REFERENCE = new JaroWinklerSimilarity();
+  private static final String[] NAMES = {"toronto", "montreal", "paris", "québec", "tor", "Torbay",
+      "", "t", "ot", "Saint-Jean-sur-Richelieu", "martha", "marhta", "dwayne", "duane", "Toronto"};
+
+  private static String randomString(Random random, int maxLength) {
+    StringBuilder builder = new StringBuilder();
+    int length = random.nextInt(maxLength + 1);
+    for (int i = 0; i < length; i++) {
+      builder.append("abrot".charAt(random.nextInt(5)));
+    }
+    return builder.toString();
+  }
+
+  @Test
+  public void score_isIdenticalToCommonsText() {
+    for (String q : NAMES) {
+      JaroWinklerScorer scorer = JaroWinklerScorer.forQuery(q);
+      for (String name : NAMES) {
+        assertThat(scorer.score(name)).isEqualTo(REFERENCE.apply(name, q));
+      }
+    }
+  }
+
+  @Test
+  public void score_randomStrings_isIdenticalToCommonsText() {
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      String q = randomString(random, 8);
+      String name = randomString(random, 16);
+      assertThat(JaroWinklerScorer.forQuery(q).score(name)).isEqualTo(REFERENCE.apply(name, q));
+    }
+  }
+
+  @Test
+  public void score_charArrayWindow() {
+    char[] arena = "xxtorontoyy".toCharArray();
+    assertThat(JaroWinklerScorer.forQuery("tor").score(arena, 2, 7))
+        .isEqualTo(REFERENCE.apply("toronto", "tor"));
+  }
+
+  @Test
+  public void upperBound_isNeverExceeded() {
+    Random random = new Random(7);
+    for (int i = 0; i < 2000; i++) {
+      String q = randomString(random, 8);
+      String name = randomString(random, 16);
+      JaroWinklerScorer scorer = JaroWinklerScorer.forQuery(q);
+      assertThat(scorer.score(name)).isAtMost(scorer.upperBound(name.length()));
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package org.citybackend.application.ranking;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.Random;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ParallelRankerTest {
+
+  private static final int CANDIDATE_COUNT = 50000;
+  private static final double[] SCORES = new double[CANDIDATE_COUNT];
+
+  static {
+    Random random = new Random(42);
+    for (int i = 0; i < CANDIDATE_COUNT; i++) {
+      // Few distinct values, so that ties between chunks are frequent.
+      SCORES[i] = random.nextInt(100) / 100.0;
+    }
+  }
+
+  private static int[] select(ParallelRanker ranker, int k, double[] scoresOut) {
+    TopKSelector topK = ranker.rank(CANDIDATE_COUNT, k, (from, to, rangeTopK) -> {
+      for (int i = from; i < to; i++) {
+        rangeTopK.offer(SCORES[i], i);
+      }
+    });
+    return topK.drainInto(scoresOut);
+  }
+
+  @Test
+  public void parallelRanking_isIdenticalToSequentialRanking() {
+    try (ParallelRanker sequential = new ParallelRanker(Integer.MAX_VALUE, 1);
+        ParallelRanker parallel = new ParallelRanker(1, 4)) {
+      for (int k : new int[]{1, 10, 250}) {
+        double[] sequentialScores = new double[k];
+        double[] parallelScores = new double[k];
+
+        assertThat(select(parallel, k, parallelScores))
+            .isEqualTo(select(sequential, k, sequentialScores));
+        assertThat(parallelScores).isEqualTo(sequentialScores);
+      }
+    }
+  }
+
+  @Test
+  public void belowThreshold_ranksOnCallingThread() {
+    try (ParallelRanker ranker = new ParallelRanker(10, 2)) {
+      Thread caller = Thread.currentThread();
+      ranker.rank(5, 5, (from, to, topK) -> assertThat(Thread.currentThread()).isEqualTo(caller));
+    }
+  }
+
+  @Test
+  public void shardRanking_isIdenticalToSequentialRanking() {
+    int[] shardSizes = {20000, 0, 5000, 25000};
+    try (ParallelRanker sequential = new ParallelRanker(Integer.MAX_VALUE, 1);
+        ParallelRanker parallel = new ParallelRanker(10000, 4)) {
+      for (int k : new int[]{1, 10, 250}) {
+        double[] sequentialScores = new double[k];
+        double[] shardScores = new double[k];
+        TopKSelector topK = parallel.rankShards(shardSizes, k, (shard, shardK) -> {
+          int offset = 0;
+          for (int i = 0; i < shard; i++) {
+            offset += shardSizes[i];
+          }
+          int shardOffset = offset;
+          return parallel.rank(shardSizes[shard], shardK, (from, to, rangeTopK) -> {
+            for (int i = from; i < to; i++) {
+              rangeTopK.offer(SCORES[shardOffset + i], i);
+            }
+          });
+        });
+
+        assertThat(topK.drainInto(shardScores))
+            .isEqualTo(select(sequential, k, sequentialScores));
+        assertThat(shardScores).isEqualTo(sequentialScores);
+      }
+    }
+  }
+}
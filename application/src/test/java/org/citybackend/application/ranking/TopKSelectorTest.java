@@ -0,0 +1,59 @@
+package org.citybackend.application.ranking;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TopKSelectorTest {
+
+  @Test
+  public void keepsBestScores_inDescendingOrder() {
+    TopKSelector topK = new TopKSelector(3);
+    double[] offered = {0.2, 0.9, 0.5, 0.1, 0.7, 0.3};
+    for (int i = 0; i < offered.length; i++) {
+      topK.offer(offered[i], i);
+    }
+    double[] scores = new double[topK.size()];
+
+    assertThat(topK.drainInto(scores)).isEqualTo(new int[]{1, 4, 2});
+    assertThat(scores).isEqualTo(new double[]{0.9, 0.7, 0.5});
+    assertThat(topK.size()).isEqualTo(0);
+  }
+
+  @Test
+  public void equalScores_lowestIndexWins() {
+    TopKSelector topK = new TopKSelector(2);
+    topK.offer(0.5, 0);
+    topK.offer(0.5, 1);
+    topK.offer(0.5, 2);
+    topK.offer(0.5, 3);
+    double[] scores = new double[topK.size()];
+
+    assertThat(topK.drainInto(scores)).isEqualTo(new int[]{0, 1});
+  }
+
+  @Test
+  public void threshold_isLowestKeptScoreOnceFull() {
+    TopKSelector topK = new TopKSelector(2);
+    assertThat(topK.threshold()).isEqualTo(Double.NEGATIVE_INFINITY);
+    topK.offer(0.4, 0);
+    topK.offer(0.8, 1);
+    assertThat(topK.threshold()).isEqualTo(0.4);
+    assertThat(topK.offer(0.3, 2)).isFalse();
+    assertThat(topK.offer(0.6, 3)).isTrue();
+    assertThat(topK.threshold()).isEqualTo(0.6);
+  }
+
+  @Test
+  public void fewerCandidatesThanCapacity_keepsAll() {
+    TopKSelector topK = new TopKSelector(10);
+    topK.offer(0.1, 0);
+    topK.offer(0.3, 1);
+    double[] scores = new double[topK.size()];
+
+    assertThat(topK.drainInto(scores)).isEqualTo(new int[]{1, 0});
+  }
+}
@@ -0,0 +1,104 @@
+package org.citybackend.application.service;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import org.citybackend.city.City;
+import org.citybackend.repo.CityRepository;
+import org.citybackend.repo.InMemoryCityRepo;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CachingSuggestionServiceTest {
+
+  private static final ImmutableList<City> CITIES = ImmutableList.of(
+      new City.Builder().geonameId("1").name("toronto").countryCode("CA")
+          .latitude("43.70").longitude("-79.42").build(),
+      new City.Builder().geonameId("2").name("montreal").countryCode("CA")
+          .latitude("45.51").longitude("-73.59").build());
+
+  private final CountingSuggestionService countingService = new CountingSuggestionService();
+  private final CachingSuggestionService cachingService =
+      new CachingSuggestionService(countingService, 1 << 20, 60, 0.01);
+  private final InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(CITIES);
+
+  @Test
+  public void sameNormalizedQuery_isRankedOnce() {
+    SuggestionPage first = cachingService.rankCities(cityRepo, "tor", null, null, 0, 10, "CA");
+    SuggestionPage second = cachingService.rankCities(cityRepo, " TOR ", null, null, 0, 10, "CA");
+
+    assertThat(second).isEqualTo(first);
+    assertThat(countingService.calls).isEqualTo(1);
+    assertThat(cachingService.getStats().hitCount()).isEqualTo(1);
+    assertThat(cachingService.getStats().missCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void locationsInSameGridCell_shareRanking() {
+    cachingService.rankCities(cityRepo, "tor", 45.001, -75.001, 0, 10, "CA");
+    cachingService.rankCities(cityRepo, "tor", 45.002, -75.002, 0, 10, "CA");
+    assertThat(countingService.calls).isEqualTo(1);
+
+    cachingService.rankCities(cityRepo, "tor", 45.1, -75.0, 0, 10, "CA");
+    assertThat(countingService.calls).isEqualTo(2);
+  }
+
+  @Test
+  public void nonFiniteLocation_isNotRounded() {
+    assertThrows(IllegalArgumentException.class,
+        () -> cachingService.rankCities(cityRepo, "tor", Double.NaN, -75.0, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class, () -> cachingService
+        .rankCities(cityRepo, "tor", 45.0, Double.NEGATIVE_INFINITY, 0, 10, "CA"));
+  }
+
+  @Test
+  public void otherPageOrCountry_isRankedAgain() {
+    cachingService.rankCities(cityRepo, "tor", null, null, 0, 10, "CA");
+    cachingService.rankCities(cityRepo, "tor", null, null, 1, 10, "CA");
+    cachingService.rankCities(cityRepo, "tor", null, null, 0, 10, "CA", "US");
+    assertThat(countingService.calls).isEqualTo(3);
+  }
+
+  @Test
+  public void reloadedRepository_invalidatesCache() {
+    cachingService.rankCities(cityRepo, "tor", null, null, 0, 10, "CA");
+    InMemoryCityRepo reloadedRepo = InMemoryCityRepo.createFromCities(CITIES);
+    cachingService.rankCities(reloadedRepo, "tor", null, null, 0, 10, "CA");
+    assertThat(countingService.calls).isEqualTo(2);
+
+    cachingService.invalidate();
+    cachingService.rankCities(reloadedRepo, "tor", null, null, 0, 10, "CA");
+    assertThat(countingService.calls).isEqualTo(3);
+  }
+
+  @Test
+  public void invalidate_dropsRankingsOfWrappedService() {
+    cachingService.rankCities(cityRepo, "tor", null, null, 0, 10, "CA");
+    cachingService.invalidate();
+    assertThat(countingService.invalidations).isEqualTo(1);
+  }
+
+  private static class CountingSuggestionService extends SimpleSuggestionService {
+
+    private int calls;
+    private int invalidations;
+
+    @Override
+    public void invalidate() {
+      invalidations++;
+      super.invalidate();
+    }
+
+    @Override
+    public SuggestionPage rankCities(CityRepository cities, String q, Double latitude,
+        Double longitude, double maxDistanceKm, double distanceWeight, int page, int perPage,
+        String... countryCodes) {
+      calls++;
+      return super.rankCities(cities, q, latitude, longitude, maxDistanceKm, distanceWeight, page,
+          perPage, countryCodes);
+    }
+  }
+}
@@ -1,16 +1,18 @@
 package org.citybackend.application.service;
 
 import static com.google.common.truth.Truth.assertThat;
-import static org.mockito.Mockito.mock;
-import static org.mockito.Mockito.when;
+import static org.junit.Assert.assertThrows;
 
 import com.google.common.collect.ImmutableList;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import com.google.common.collect.Iterables;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Random;
 import java.util.function.Predicate;
 import org.citybackend.city.City;
+import org.citybackend.index.GreatCircle;
+import org.citybackend.repo.CityRepository;
+import org.citybackend.repo.ColumnarCityRepo;
 import org.citybackend.repo.InMemoryCityRepo;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -19,9 +21,6 @@ import org.junit.runners.JUnit4;
 @RunWith(JUnit4.class)
 public class SimpleSuggestionServiceTest {
 
-  private static final Gson DEFAULT_GSON =
-      new GsonBuilder().serializeNulls().serializeSpecialFloatingPointValues().setPrettyPrinting()
-          .create();
   private final static double LATITUDE = 50.0;
   private final static double LONGITUDE = 55.4;
   private final static Predicate<City> predicate = SimpleSuggestionService
@@ -108,18 +107,319 @@ public class SimpleSuggestionServiceTest {
     );
   }
 
+  @Test
+  public void rankPage_matchesSortedSuggestionsSlice() {
+    SimpleSuggestionService service = new SimpleSuggestionService();
+    String queryParameter = "r";
+    ArrayList<Suggestion> sortedSuggestions = service
+        .sortCitiesByNameSimilarity(cities, queryParameter);
+
+    assertThat(service.rankPage(cities, queryParameter, 0, 3))
+        .containsExactlyElementsIn(sortedSuggestions.subList(0, 3)).inOrder();
+    assertThat(service.rankPage(cities, queryParameter, 1, 3))
+        .containsExactlyElementsIn(sortedSuggestions.subList(3, 4)).inOrder();
+    assertThat(service.rankPage(cities, queryParameter, 2, 3)).isEmpty();
+  }
+
+  @Test
+  public void rankPage_blendsDistanceIntoScore() {
+    SimpleSuggestionService service = new SimpleSuggestionService();
+    ImmutableList<City> closeCities = ImmutableList.of(TORONTO, MONTREAL);
+
+    assertThat(service.rankPage(closeCities, "tor", LATITUDE, LONGITUDE, 1111, 0, 0, 10).get(0)
+        .getCityName()).isEqualTo(TORONTO.getName());
+    // Montreal is closer to the user than Toronto.
+    List<Suggestion> byDistance = service
+        .rankPage(closeCities, "tor", LATITUDE, LONGITUDE, 1111, 1, 0, 10);
+    assertThat(byDistance.get(0).getCityName()).isEqualTo(MONTREAL.getName());
+    assertThat(byDistance.get(0).getScore()).isWithin(1e-9).of(1 - GreatCircle
+        .distanceKm(LATITUDE, LONGITUDE, MONTREAL.getLatitude(), MONTREAL.getLongitude()) / 1111);
+  }
+
+  @Test
+  public void rankCities_maxDistanceKm_filtersFarCities() {
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(ImmutableList.of(TORONTO,
+        MONTREAL));
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    // Toronto is about 890 km away from the user, Montreal about 665 km.
+    assertThat(service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 700, 0, 0, 10, "CA")
+        .getSuggestions().size()).isEqualTo(1);
+    assertThat(service.rankCities(cityRepo, "tor", null, null, 700, 0, 0, 10, "CA")
+        .getSuggestions().size()).isEqualTo(2);
+  }
+
+  @Test
+  public void rankCities_invalidDistanceParameters_throws() {
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(cities);
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 0, 0.5, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, -100, 0, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 700, 1.5, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 700, -0.5, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", Double.NaN, LONGITUDE, 700, 0, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class,
+        () -> service.rankCities(cityRepo, "tor", 91.0, LONGITUDE, 700, 0, 0, 10, "CA"));
+    assertThrows(IllegalArgumentException.class, () -> service.rankCities(cityRepo, "tor",
+        LATITUDE, Double.POSITIVE_INFINITY, 700, 0, 0, 10, "CA"));
+  }
+
+  @Test
+  public void rankCities_nextPages_matchFreshRankings() {
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(cities);
+    // Rankings keep 2 cities at least: page 2 and 3 need deeper rankings than page 0 and 1.
+    SimpleSuggestionService service = new SimpleSuggestionService(
+        SimpleSuggestionService.DEFAULT_PARALLEL_THRESHOLD, 1, 2, 1000, 60);
+
+    for (int page : new int[]{0, 1, 2, 3, 0, 4}) {
+      assertThat(service.rankCities(cityRepo, "r", null, null, page, 1, "CA", "FR").toJson(false))
+          .isEqualTo(new SimpleSuggestionService()
+              .rankCities(cityRepo, "r", null, null, page, 1, "CA", "FR").toJson(false));
+    }
+  }
+
+  @Test
+  public void rankCities_pages_rankSameCandidates() {
+    List<City> numberedCities = new ArrayList<>();
+    for (int i = 0; i < 15; i++) {
+      numberedCities.add(new City.Builder().geonameId(String.valueOf(numberedCities.size()))
+          .name("abc" + i).countryCode("CA").build());
+    }
+    for (int i = 0; i < 15; i++) {
+      numberedCities.add(new City.Builder().geonameId(String.valueOf(numberedCities.size()))
+          .name("xabc" + i).countryCode("CA").build());
+    }
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(numberedCities);
+    SimpleSuggestionService service = new SimpleSuggestionService(
+        SimpleSuggestionService.DEFAULT_PARALLEL_THRESHOLD, 1, 10, 1000, 60);
+
+    // The 15 prefix matches fill the first page: the second page ranks them as well.
+    SuggestionPage firstPage = service.rankCities(cityRepo, "abc", null, null, 0, 10, "CA");
+    SuggestionPage secondPage = new SimpleSuggestionService(
+        SimpleSuggestionService.DEFAULT_PARALLEL_THRESHOLD, 1, 10, 1000, 60)
+        .rankCities(cityRepo, "abc", null, null, 1, 10, "CA");
+    assertThat(firstPage.getTotalPages()).isEqualTo(2);
+    assertThat(secondPage.getTotalPages()).isEqualTo(2);
+    assertThat(secondPage.getSuggestions()).hasSize(5);
+    assertThat(service.rankCities(cityRepo, "abc", null, null, 1, 10, "CA").toJson(false))
+        .isEqualTo(secondPage.toJson(false));
+    List<String> names = new ArrayList<>();
+    for (Suggestion suggestion : Iterables.concat(firstPage.getSuggestions(),
+        secondPage.getSuggestions())) {
+      assertThat(suggestion.getCityName()).startsWith("abc");
+      names.add(suggestion.getCityName());
+    }
+    assertThat(names).containsNoDuplicates();
+    service.destroy();
+  }
+
+  @Test
+  public void rankCities_typo_ranksSimilarNames() {
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(cities);
+
+    SuggestionPage suggestions = new SimpleSuggestionService()
+        .rankCities(cityRepo, "torotno", null, null, 0, 1, "CA", "FR");
+    assertThat(suggestions.getSuggestions()).hasSize(1);
+    assertThat(suggestions.getSuggestions().get(0).getCityName()).isEqualTo("toronto");
+  }
+
+  @Test
+  public void rankCities_alternateName_ranksCityOnceUnderBestMatchingKey() {
+    City montreal = new City.Builder().geonameId("1").name("Montréal").asciiName("Montreal")
+        .alternateNames("Montreal,Montréal,Montreal-Ville,Monreale").countryCode("CA").build();
+    City monreale = new City.Builder().geonameId("2").name("Monrealia").countryCode("CA")
+        .build();
+    List<City> alternateCities = ImmutableList.of(montreal, monreale);
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    for (CityRepository cityRepo : ImmutableList.of(
+        InMemoryCityRepo.createFromCities(alternateCities),
+        ColumnarCityRepo.createFromCities(alternateCities))) {
+      List<Suggestion> suggestions = service
+          .rankCities(cityRepo, "Montreal", null, null, 0, 1, "CA").getSuggestions();
+      assertThat(suggestions).hasSize(1);
+      assertThat(suggestions.get(0).getCityName()).isEqualTo("Montréal");
+      assertThat(suggestions.get(0).getScore()).isEqualTo(1.0);
+
+      suggestions = service
+          .rankCities(cityRepo, "Monreale", null, null, 0, 2, "CA").getSuggestions();
+      assertThat(suggestions.get(0).getCityName()).isEqualTo("Montréal");
+      assertThat(suggestions.get(0).getScore()).isEqualTo(1.0);
+      assertThat(suggestions.get(1).getCityName()).isEqualTo("Monrealia");
+    }
+  }
+
+  @Test
+  public void rankCities_accentsAndCase_areFolded() {
+    City montreal = new City.Builder().geonameId("1").name("Montréal").countryCode("CA").build();
+    City stJohns = new City.Builder().geonameId("2").name("St. John's").countryCode("CA").build();
+    List<City> accentedCities = ImmutableList.of(montreal, stJohns);
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    for (CityRepository cityRepo : ImmutableList.of(
+        InMemoryCityRepo.createFromCities(accentedCities),
+        ColumnarCityRepo.createFromCities(accentedCities))) {
+      List<Suggestion> suggestions = service
+          .rankCities(cityRepo, "MONTREAL", null, null, 0, 1, "CA").getSuggestions();
+      assertThat(suggestions).hasSize(1);
+      assertThat(suggestions.get(0).getCityName()).isEqualTo("Montréal");
+      assertThat(suggestions.get(0).getScore()).isEqualTo(1.0);
+
+      suggestions = service
+          .rankCities(cityRepo, "saint johns", null, null, 0, 1, "CA").getSuggestions();
+      assertThat(suggestions.get(0).getCityName()).isEqualTo("St. John's");
+      assertThat(suggestions.get(0).getScore()).isEqualTo(1.0);
+    }
+  }
+
+  @Test
+  public void rankCities_abbreviationPrefix_findsExpandedNames() {
+    City stJohns = new City.Builder().geonameId("1").name("St. John's").countryCode("CA").build();
+    City montreal = new City.Builder().geonameId("2").name("Montréal").countryCode("CA").build();
+    List<City> saintCities = ImmutableList.of(stJohns, montreal);
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    for (CityRepository cityRepo : ImmutableList.of(
+        InMemoryCityRepo.createFromCities(saintCities),
+        ColumnarCityRepo.createFromCities(saintCities))) {
+      assertThat(cityRepo.forPrefix("st", "CA")).containsExactly(stJohns);
+      List<Suggestion> suggestions = service
+          .rankCities(cityRepo, "st", null, null, 0, 1, "CA").getSuggestions();
+      assertThat(suggestions).hasSize(1);
+      assertThat(suggestions.get(0).getCityName()).isEqualTo("St. John's");
+    }
+  }
+
+  @Test
+  public void rankCities_columnarCityRepo_matchesInMemoryCityRepo() {
+    List<City> numberedCities = new ArrayList<>();
+    for (City city : cities) {
+      numberedCities.add(new City.Builder().geonameId(String.valueOf(numberedCities.size()))
+          .name(city.getName()).countryCode(city.getCountryCode())
+          .latitude(city.getLatitude()).longitude(city.getLongitude()).build());
+    }
+    InMemoryCityRepo inMemoryCityRepo = InMemoryCityRepo.createFromCities(numberedCities);
+    // Same order of cities by country code, so that ties are broken the same way.
+    ColumnarCityRepo columnarCityRepo = ColumnarCityRepo
+        .createFromCities(inMemoryCityRepo.byCountryCodeMap().values());
+    SimpleSuggestionService service = new SimpleSuggestionService();
+
+    for (String q : new String[]{"r", "tor", "québec", "monteral", "xyz"}) {
+      for (double distanceWeight : new double[]{0, 0.5}) {
+        assertThat(service.rankCities(columnarCityRepo, q, LATITUDE, LONGITUDE, 5000,
+            distanceWeight, 0, 3, "CA", "FR").toJson(false))
+            .isEqualTo(service.rankCities(inMemoryCityRepo, q, LATITUDE, LONGITUDE, 5000,
+                distanceWeight, 0, 3, "CA", "FR").toJson(false));
+      }
+    }
+  }
+
+  @Test
+  public void rankCities_severalCountryCodes_matchesRankingOfConcatenatedCountries() {
+    List<City> numberedCities = new ArrayList<>();
+    Random random = new Random(42);
+    for (String countryCode : new String[]{"CA", "FR", "US"}) {
+      for (int i = 0; i < 3000; i++) {
+        StringBuilder name = new StringBuilder();
+        for (int j = 0; j < 3 + random.nextInt(6); j++) {
+          name.append((char) ('a' + random.nextInt(6)));
+        }
+        numberedCities.add(new City.Builder().geonameId(String.valueOf(numberedCities.size()))
+            .name(name.toString()).countryCode(countryCode)
+            .latitude(String.valueOf(40 + random.nextInt(20)))
+            .longitude(String.valueOf(50 + random.nextInt(20))).build());
+      }
+    }
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(numberedCities);
+    SimpleSuggestionService service = new SimpleSuggestionService(1000, 4, 10, 100000, 60);
+
+    // No name starts with "g": "gg" is too short to be looked up by trigrams, so every city is
+    // ranked, while "gabc" ranks the cities whose name is similar.
+    for (String q : new String[]{"gg", "gabc"}) {
+      List<City> concatenated = q.length() < 3
+          ? cityRepo.near(LATITUDE, LONGITUDE, 5000, "US", "CA", "FR")
+          : cityRepo.forSimilarNameNear(q, SimpleSuggestionService.SIMILAR_NAME_CANDIDATES,
+              LATITUDE, LONGITUDE, 5000, "US", "CA", "FR");
+      for (double distanceWeight : new double[]{0, 0.5}) {
+        assertThat(service.rankCities(cityRepo, q, LATITUDE, LONGITUDE, 5000,
+            distanceWeight, 1, 10, "US", "CA", "FR").getSuggestions())
+            .isEqualTo(service.rankPage(concatenated, q, LATITUDE, LONGITUDE, 5000,
+                distanceWeight, 1, 10));
+      }
+    }
+    service.destroy();
+  }
+
+  @Test
+  public void rankCities_sameName_largestCityFirst() {
+    City smallLondon = new City.Builder().geonameId("1").name("London").countryCode("CA")
+        .population(400L).build();
+    City london = new City.Builder().geonameId("2").name("London").countryCode("CA")
+        .latitude("42.98").longitude("-81.23").population(383822L).build();
+    List<City> londons = ImmutableList.of(smallLondon, london);
+
+    for (CityRepository cityRepo : ImmutableList.of(InMemoryCityRepo.createFromCities(londons),
+        ColumnarCityRepo.createFromCities(londons))) {
+      List<Suggestion> suggestions = new SimpleSuggestionService()
+          .rankCities(cityRepo, "london", null, null, 0, 2, "CA").getSuggestions();
+      assertThat(suggestions.get(0).getLatitude()).isEqualTo(42.98);
+      assertThat(suggestions.get(0).getScore()).isEqualTo(1.0);
+      assertThat(suggestions.get(1).getScore()).isEqualTo(1.0);
+    }
+  }
+
+  @Test
+  public void rankCities_populationWeight_matchesFullScanOfCandidates() {
+    List<City> numberedCities = new ArrayList<>();
+    Random random = new Random(42);
+    for (String countryCode : new String[]{"CA", "FR", "US"}) {
+      for (int i = 0; i < 3000; i++) {
+        StringBuilder name = new StringBuilder();
+        for (int j = 0; j < 3 + random.nextInt(6); j++) {
+          name.append((char) ('a' + random.nextInt(6)));
+        }
+        numberedCities.add(new City.Builder().geonameId(String.valueOf(numberedCities.size()))
+            .name(name.toString()).countryCode(countryCode)
+            .latitude(String.valueOf(40 + random.nextInt(20)))
+            .longitude(String.valueOf(50 + random.nextInt(20)))
+            .population((long) Math.pow(10, 7 * random.nextDouble())).build());
+      }
+    }
+    SimpleSuggestionService service = new SimpleSuggestionService(1000, 4, 10, 100000, 60, 0.5);
+
+    for (CityRepository cityRepo : ImmutableList.of(
+        InMemoryCityRepo.createFromCities(numberedCities),
+        ColumnarCityRepo.createFromCities(numberedCities))) {
+      // Scanning a copy of the candidates never stops early.
+      List<City> candidates = new ArrayList<>(
+          cityRepo.forPrefixNear("a", LATITUDE, LONGITUDE, 5000, "US", "CA", "FR"));
+      for (double distanceWeight : new double[]{0, 0.5}) {
+        List<Suggestion> suggestions = service.rankCities(cityRepo, "a", LATITUDE, LONGITUDE,
+            5000, distanceWeight, 1, 10, "US", "CA", "FR").getSuggestions();
+        assertThat(suggestions).isEqualTo(service.rankPage(candidates, "a", LATITUDE, LONGITUDE,
+            5000, distanceWeight, 1, 10));
+      }
+    }
+    service.destroy();
+  }
+
   @Test
   public void rankCities_generatesJsonString() {
     List<City> canadianCities = new ArrayList<>();
     canadianCities.add(MONTREAL);
     canadianCities.add(QUEBEC);
     canadianCities.add(TORONTO);
-    InMemoryCityRepo cityRepo = mock(InMemoryCityRepo.class);
-    when(cityRepo.forCountryCodes("CA")).thenReturn(canadianCities);
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(canadianCities);
 
     SimpleSuggestionService service = new SimpleSuggestionService();
     assertThat(
-        DEFAULT_GSON.toJson(service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 0, 10, "CA")))
+        service.rankCities(cityRepo, "tor", LATITUDE, LONGITUDE, 0, 10, "CA").toJson(true))
         .isEqualTo(
             "{\n"
                 + "  \"suggestions\": [\n"
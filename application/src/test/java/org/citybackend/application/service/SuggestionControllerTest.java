@@ -3,7 +3,7 @@ package org.citybackend.application.service;
 import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.when;
 
-import com.google.gson.JsonObject;
+import java.util.Collections;
 import org.citybackend.repo.InMemoryCityRepo;
 import org.junit.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -33,8 +33,9 @@ public class SuggestionControllerTest {
   @Test
   public void suggestions_200() throws Exception {
     when(mockService.rankCities(any(InMemoryCityRepo.class), any(String.class), any(Double.class),
-        any(Double.class),
-        any(Integer.class), any(Integer.class), any(String[].class))).thenReturn(new JsonObject());
+        any(Double.class), any(Double.class), any(Double.class),
+        any(Integer.class), any(Integer.class), any(String[].class))).thenReturn(
+        new SuggestionPage(Collections.emptyList(), 0, 10, 0));
 
     mockMvc.perform(MockMvcRequestBuilders.get("/suggestions/?q=mont&latitude=85&longitude=78"))
         .andExpect(MockMvcResultMatchers.status().isOk()).andReturn();
@@ -43,10 +44,41 @@ public class SuggestionControllerTest {
   @Test
   public void suggestions_400() throws Exception {
     when(mockService.rankCities(any(InMemoryCityRepo.class), any(String.class), any(Double.class),
-        any(Double.class),
-        any(Integer.class), any(Integer.class), any(String[].class))).thenReturn(new JsonObject());
+        any(Double.class), any(Double.class), any(Double.class),
+        any(Integer.class), any(Integer.class), any(String[].class))).thenReturn(
+        new SuggestionPage(Collections.emptyList(), 0, 10, 0));
 
     mockMvc.perform(MockMvcRequestBuilders.get("/badendpoint/?q=mont&latitude=85&longitude=78"))
         .andExpect(MockMvcResultMatchers.status().is4xxClientError()).andReturn();
   }
+
+  @Test
+  public void suggestions_invalidMaxDistanceKm_400() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=85&longitude=78&maxDistanceKm=0"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=85&longitude=78&maxDistanceKm=-10"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+  }
+
+  @Test
+  public void suggestions_invalidLocation_400() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=NaN&longitude=78"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=85&longitude=181"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+  }
+
+  @Test
+  public void suggestions_invalidDistanceWeight_400() throws Exception {
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=85&longitude=78&distanceWeight=1.5"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+    mockMvc.perform(MockMvcRequestBuilders
+        .get("/suggestions/?q=mont&latitude=85&longitude=78&distanceWeight=-0.5"))
+        .andExpect(MockMvcResultMatchers.status().isBadRequest()).andReturn();
+  }
 }
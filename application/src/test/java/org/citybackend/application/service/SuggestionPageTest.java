@@ -0,0 +1,35 @@
+package org.citybackend.application.service;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SuggestionPageTest {
+
+  private static final SuggestionPage PAGE = new SuggestionPage(ImmutableList.of(
+      new Suggestion("toronto", 43.7, -79.42, 0.8666666666666668),
+      new Suggestion("no location", null, null, 0.5)), 1, 2, 3);
+
+  @Test
+  public void toJson_isCompactByDefault() {
+    assertThat(PAGE.toJson(false)).isEqualTo(
+        "{\"suggestions\":["
+            + "{\"name\":\"toronto\",\"latitude\":43.7,\"longitude\":-79.42,"
+            + "\"score\":0.8666666666666668},"
+            + "{\"name\":\"no location\",\"latitude\":null,\"longitude\":null,\"score\":0.5}],"
+            + "\"page\":1,\"per_page\":2,\"total_pages\":3}");
+  }
+
+  @Test
+  public void toJson_pretty_matchesGsonPrettyPrinting() {
+    assertThat(PAGE.toJson(true)).isEqualTo(
+        new GsonBuilder().serializeNulls().setPrettyPrinting().create()
+            .toJson(JsonParser.parseString(PAGE.toJson(false))));
+  }
+}
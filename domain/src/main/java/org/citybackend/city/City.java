@@ -8,8 +8,10 @@ import java.time.format.DateTimeParseException;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Objects;
+import java.util.Optional;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Internal representation for a city following the specification available at:
@@ -41,12 +43,27 @@ import java.util.TimeZone;
  *    .build();
  *  </pre>
  * </p>
+ *
+ * <p>Low-cardinality fields, i.e. feature class and code, country codes and administrative codes,
+ * are stored as codes of dictionaries shared by all {@code City}s, so that each distinct value is
+ * held once in memory. Time zones are resolved once per zone id and shared as well: the {@code
+ * TimeZone} returned by {@link #getTimeZone()} must not be modified.</p>
  */
 public class City {
 
   private static final String YYYY_MM_DD = "yyyy-MM-dd";
   private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ofPattern(
       YYYY_MM_DD);
+  private static final FieldDictionary FEATURE_CLASSES = new FieldDictionary();
+  private static final FieldDictionary FEATURE_CODES = new FieldDictionary();
+  /**
+   * Shared by country codes and alternate country codes.
+   */
+  private static final FieldDictionary COUNTRY_CODES = new FieldDictionary();
+  /**
+   * Shared by the four levels of administrative codes.
+   */
+  private static final FieldDictionary ADMIN_CODES = new FieldDictionary();
   /**
    * Integer id of record in geonames database
    */
@@ -75,37 +92,37 @@ public class City {
   /**
    * see http://www.geonames.org/export/codes.html, char(1)
    */
-  private final String featureClass;
+  private final int featureClass;
   /**
    * see http://www.geonames.org/export/codes.html, varchar(10)
    */
-  private final String featureCode;
+  private final int featureCode;
   /**
    * ISO-3166 2-letter country code, 2 characters
    */
-  private final String countryCode;
+  private final int countryCode;
   /**
    * alternate country codes, comma separated, ISO-3166 2-letter country code, 200
    */
-  private final String alternateCountryCode;
+  private final int alternateCountryCode;
   /**
    * ipscode (subject to change to iso code), see exceptions below, see file admin1Codes.txt for
    * display names of this code; varchar(20)
    */
-  private final String admin1;
+  private final int admin1;
   /**
    * code for the second administrative division, a county in the US, see file admin2Codes.txt;
    * varchar(80)
    */
-  private final String admin2;
+  private final int admin2;
   /**
    * code for third level administrative division, varchar(20)
    */
-  private final String admin3;
+  private final int admin3;
   /**
    * code for fourth level administrative division, varchar(20)
    */
-  private final String admin4;
+  private final int admin4;
   /**
    * bigint (8 byte int)
    */
@@ -139,14 +156,14 @@ public class City {
     this.alternateNames = alternateNames;
     this.latitude = latitude;
     this.longitude = longitude;
-    this.featureClass = featureClass;
-    this.featureCode = featureCode;
-    this.countryCode = countryCode;
-    this.alternateCountryCode = alternateCountryCode;
-    this.admin1 = admin1;
-    this.admin2 = admin2;
-    this.admin3 = admin3;
-    this.admin4 = admin4;
+    this.featureClass = FEATURE_CLASSES.encode(featureClass);
+    this.featureCode = FEATURE_CODES.encode(featureCode);
+    this.countryCode = COUNTRY_CODES.encode(countryCode);
+    this.alternateCountryCode = COUNTRY_CODES.encode(alternateCountryCode);
+    this.admin1 = ADMIN_CODES.encode(admin1);
+    this.admin2 = ADMIN_CODES.encode(admin2);
+    this.admin3 = ADMIN_CODES.encode(admin3);
+    this.admin4 = ADMIN_CODES.encode(admin4);
     this.elevation = elevation;
     this.population = population;
     this.dem = dem;
@@ -183,35 +200,35 @@ public class City {
   }
 
   public String getFeatureClass() {
-    return featureClass;
+    return FEATURE_CLASSES.decode(featureClass);
   }
 
   public String getFeatureCode() {
-    return featureCode;
+    return FEATURE_CODES.decode(featureCode);
   }
 
   public String getCountryCode() {
-    return countryCode;
+    return COUNTRY_CODES.decode(countryCode);
   }
 
   public String getAlternateCountryCode() {
-    return alternateCountryCode;
+    return COUNTRY_CODES.decode(alternateCountryCode);
   }
 
   public String getAdmin1() {
-    return admin1;
+    return ADMIN_CODES.decode(admin1);
   }
 
   public String getAdmin2() {
-    return admin2;
+    return ADMIN_CODES.decode(admin2);
   }
 
   public String getAdmin3() {
-    return admin3;
+    return ADMIN_CODES.decode(admin3);
   }
 
   public String getAdmin4() {
-    return admin4;
+    return ADMIN_CODES.decode(admin4);
   }
 
   public Integer getElevation() {
@@ -262,14 +279,14 @@ public class City {
         alternateNames,
         latitude,
         longitude,
-        featureClass,
-        featureCode,
-        countryCode,
-        alternateCountryCode,
-        admin1,
-        admin2,
-        admin3,
-        admin4,
+        getFeatureClass(),
+        getFeatureCode(),
+        getCountryCode(),
+        getAlternateCountryCode(),
+        getAdmin1(),
+        getAdmin2(),
+        getAdmin3(),
+        getAdmin4(),
         population,
         elevation,
         dem,
@@ -284,6 +301,8 @@ public class City {
     private static final int LNG_MAX = 180;
     private static final int LAT_MAX = 90;
     private static final int LAT_MIN = -90;
+    private static final ConcurrentHashMap<String, Optional<TimeZone>> TIME_ZONES_BY_ID =
+        new ConcurrentHashMap<>();
 
     /**
      * Integer id of record in geonames database
@@ -390,13 +409,15 @@ public class City {
       return this;
     }
 
+    public Builder alternateNames(Set<String> alternateNames) {
+      this.alternateNames = alternateNames;
+      return this;
+    }
+
     public Builder latitude(String latitude) {
       if (!latitude.isEmpty()) {
         try {
-          Double lat = Double.valueOf(latitude);
-          if (LAT_MIN <= lat && lat <= LAT_MAX) {
-            this.latitude = lat;
-          }
+          return latitude(Double.valueOf(latitude));
         } catch (NumberFormatException e) {
           return this;
         }
@@ -404,13 +425,17 @@ public class City {
       return this;
     }
 
+    public Builder latitude(Double latitude) {
+      if (latitude != null && LAT_MIN <= latitude && latitude <= LAT_MAX) {
+        this.latitude = latitude;
+      }
+      return this;
+    }
+
     public Builder longitude(String longitude) {
       if (!longitude.isEmpty()) {
         try {
-          Double lng = Double.valueOf(longitude);
-          if (LNG_MIN <= lng && lng <= LNG_MAX) {
-            this.longitude = lng;
-          }
+          return longitude(Double.valueOf(longitude));
         } catch (NumberFormatException e) {
           return this;
         }
@@ -418,6 +443,13 @@ public class City {
       return this;
     }
 
+    public Builder longitude(Double longitude) {
+      if (longitude != null && LNG_MIN <= longitude && longitude <= LNG_MAX) {
+        this.longitude = longitude;
+      }
+      return this;
+    }
+
     public Builder featureClass(String featureClass) {
       this.featureClass = featureClass;
       return this;
@@ -469,6 +501,11 @@ public class City {
       return this;
     }
 
+    public Builder elevation(Integer elevation) {
+      this.elevation = elevation;
+      return this;
+    }
+
     public Builder dem(String dem) {
       if (!dem.isEmpty()) {
         try {
@@ -480,13 +517,23 @@ public class City {
       return this;
     }
 
+    public Builder dem(Integer dem) {
+      this.dem = dem;
+      return this;
+    }
+
     public Builder timeZone(String timezone) {
+      this.timeZone = TIME_ZONES_BY_ID.computeIfAbsent(timezone, Builder::resolveTimeZone)
+          .orElse(null);
+      return this;
+    }
+
+    private static Optional<TimeZone> resolveTimeZone(String timezone) {
       try {
-        this.timeZone = TimeZone.getTimeZone(ZoneId.of(timezone));
+        return Optional.of(TimeZone.getTimeZone(ZoneId.of(timezone)));
       } catch (DateTimeException e) {
-        this.timeZone = null;
+        return Optional.empty();
       }
-      return this;
     }
 
     public Builder modificationDate(String modificationDate) {
@@ -499,6 +546,11 @@ public class City {
       return this;
     }
 
+    public Builder modificationDate(LocalDate modificationDate) {
+      this.modificationDate = modificationDate;
+      return this;
+    }
+
     public Builder population(String population) {
       if (!population.isEmpty()) {
         try {
@@ -510,6 +562,11 @@ public class City {
       return this;
     }
 
+    public Builder population(Long population) {
+      this.population = population;
+      return this;
+    }
+
     public City build() {
       return new City(
           this.geonameId,
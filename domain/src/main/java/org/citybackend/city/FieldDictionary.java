@@ -0,0 +1,73 @@
+package org.citybackend.city;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dictionary of the values of a low-cardinality {@code City} field, e.g. feature codes.
+ *
+ * <p>Each distinct value is given a small integer code the first time it is encoded, so that
+ * {@code City}s store codes and all the {@code City}s with the same value share a single {@code
+ * String}. Codes are never removed. Values can be encoded by several parsing threads at once.</p>
+ */
+final class FieldDictionary {
+
+  /**
+   * Code of the {@code null} value.
+   */
+  static final int NULL_CODE = -1;
+  private static final int INITIAL_CAPACITY = 64;
+
+  private final ConcurrentHashMap<String, Integer> codes = new ConcurrentHashMap<>();
+  private volatile String[] values = new String[INITIAL_CAPACITY];
+  private int size;
+
+  /**
+   * Returns the code of a value, the value is added to the dictionary if needed.
+   *
+   * @param value the value to encode, may be {@code null}
+   * @return the code of the value
+   */
+  int encode(String value) {
+    if (value == null) {
+      return NULL_CODE;
+    }
+    Integer code = codes.get(value);
+    if (code != null) {
+      return code;
+    }
+    synchronized (this) {
+      code = codes.get(value);
+      if (code == null) {
+        if (size == values.length) {
+          values = Arrays.copyOf(values, 2 * size);
+        }
+        values[size] = value;
+        code = size++;
+        // The value is stored before its code is published, so that any thread that was given
+        // the code can decode it.
+        codes.put(value, code);
+      }
+      return code;
+    }
+  }
+
+  /**
+   * Returns the value of a code returned by {@link #encode(String)}.
+   *
+   * @param code the code to decode
+   * @return the value of the code, shared by all the {@code City}s that have it
+   */
+  String decode(int code) {
+    return code == NULL_CODE ? null : values[code];
+  }
+
+  /**
+   * Returns the number of distinct values in this dictionary.
+   *
+   * @return the number of distinct values in this dictionary
+   */
+  synchronized int size() {
+    return size;
+  }
+}
@@ -297,4 +297,26 @@ public class CityTest {
             .build()
     );
   }
+
+  @Test
+  public void lowCardinalityFields_areSharedBetweenCities() {
+    City montreal = new City.Builder().geonameId("1").name("Montréal")
+        .featureClass(new String("P")).countryCode(new String("CA"))
+        .admin1(new String("10")).admin2(null)
+        .timeZone(new String("America/Toronto")).build();
+    City toronto = new City.Builder().geonameId("2").name("Toronto")
+        .featureClass(new String("P")).countryCode(new String("CA"))
+        .admin1(new String("08")).admin2(new String("10"))
+        .timeZone(new String("America/Toronto")).build();
+
+    assertThat(toronto.getFeatureClass()).isEqualTo("P");
+    assertThat(toronto.getFeatureClass()).isSameInstanceAs(montreal.getFeatureClass());
+    assertThat(toronto.getCountryCode()).isSameInstanceAs(montreal.getCountryCode());
+    assertThat(toronto.getAdmin1()).isEqualTo("08");
+    assertThat(toronto.getAdmin2()).isSameInstanceAs(montreal.getAdmin1());
+    assertThat(montreal.getAdmin2()).isNull();
+    assertThat(montreal.getFeatureCode()).isNull();
+    assertThat(toronto.getTimeZone()).isSameInstanceAs(montreal.getTimeZone());
+    assertThat(toronto.getTimeZone().getID()).isEqualTo("America/Toronto");
+  }
 }
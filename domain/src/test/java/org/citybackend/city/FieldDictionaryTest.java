@@ -0,0 +1,59 @@
+package org.citybackend.city;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class FieldDictionaryTest {
+
+  @Test
+  public void encode_sameValue_sameCode() {
+    FieldDictionary dictionary = new FieldDictionary();
+
+    int ppl = dictionary.encode("PPL");
+    int ppla = dictionary.encode("PPLA");
+
+    assertThat(dictionary.encode(new String("PPL"))).isEqualTo(ppl);
+    assertThat(ppla).isNotEqualTo(ppl);
+    assertThat(dictionary.decode(ppla)).isEqualTo("PPLA");
+    assertThat(dictionary.encode(null)).isEqualTo(FieldDictionary.NULL_CODE);
+    assertThat(dictionary.decode(FieldDictionary.NULL_CODE)).isNull();
+    assertThat(dictionary.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void encode_concurrently_givesOneCodePerValue() throws Exception {
+    FieldDictionary dictionary = new FieldDictionary();
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<int[]>> results = new ArrayList<>();
+      for (int thread = 0; thread < 4; thread++) {
+        results.add(executor.submit(() -> {
+          int[] codes = new int[1000];
+          for (int i = 0; i < codes.length; i++) {
+            codes[i] = dictionary.encode("value " + i);
+          }
+          return codes;
+        }));
+      }
+      int[] expected = results.get(0).get();
+      for (Future<int[]> result : results) {
+        assertThat(result.get()).isEqualTo(expected);
+      }
+      for (int i = 0; i < expected.length; i++) {
+        assertThat(dictionary.decode(expected[i])).isEqualTo("value " + i);
+      }
+      assertThat(dictionary.size()).isEqualTo(1000);
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+}
@@ -0,0 +1,80 @@
+package org.citybackend.index;
+
+/**
+ * Great-circle distances on the earth, computed with the haversine formula.
+ */
+public final class GreatCircle {
+
+  /**
+   * Mean radius of the earth, in kilometers.
+   */
+  public static final double EARTH_RADIUS_KM = 6371.0088;
+
+  private GreatCircle() {
+  }
+
+  /**
+   * Returns the distance between two locations given in degrees.
+   *
+   * @param latitude       the latitude of the first location
+   * @param longitude      the longitude of the first location
+   * @param otherLatitude  the latitude of the second location
+   * @param otherLongitude the longitude of the second location
+   * @return the distance between both locations, in kilometers
+   */
+  public static double distanceKm(double latitude, double longitude, double otherLatitude,
+      double otherLongitude) {
+    double latitudeRadians = Math.toRadians(latitude);
+    double otherLatitudeRadians = Math.toRadians(otherLatitude);
+    return distanceKm(latitudeRadians, Math.toRadians(longitude), Math.cos(latitudeRadians),
+        otherLatitudeRadians, Math.toRadians(otherLongitude), Math.cos(otherLatitudeRadians));
+  }
+
+  /**
+   * Returns the distance between two locations given in radians, along with the cosine of their
+   * latitude so that it can be precomputed.
+   *
+   * @param latitude          the latitude of the first location, in radians
+   * @param longitude         the longitude of the first location, in radians
+   * @param cosLatitude       the cosine of the latitude of the first location
+   * @param otherLatitude     the latitude of the second location, in radians
+   * @param otherLongitude    the longitude of the second location, in radians
+   * @param otherCosLatitude  the cosine of the latitude of the second location
+   * @return the distance between both locations, in kilometers
+   */
+  public static double distanceKm(double latitude, double longitude, double cosLatitude,
+      double otherLatitude, double otherLongitude, double otherCosLatitude) {
+    double sinHalfLatitudeDelta = Math.sin((otherLatitude - latitude) / 2);
+    double sinHalfLongitudeDelta = Math.sin((otherLongitude - longitude) / 2);
+    double haversine = sinHalfLatitudeDelta * sinHalfLatitudeDelta
+        + cosLatitude * otherCosLatitude * sinHalfLongitudeDelta * sinHalfLongitudeDelta;
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(haversine)));
+  }
+
+  /**
+   * Returns the latitude delta, in degrees, of the box bounding the circle of the given radius.
+   *
+   * @param distanceKm the radius of the circle, in kilometers
+   * @return the latitude delta of the bounding box, in degrees
+   */
+  public static double latitudeDelta(double distanceKm) {
+    return Math.toDegrees(distanceKm / EARTH_RADIUS_KM);
+  }
+
+  /**
+   * Returns the longitude delta, in degrees, of the box bounding the circle of the given radius
+   * around a location. When the circle contains a pole, the box spans every longitude.
+   *
+   * @param latitude   the latitude of the center of the circle, in degrees
+   * @param distanceKm the radius of the circle, in kilometers
+   * @return the longitude delta of the bounding box, in degrees
+   */
+  public static double longitudeDelta(double latitude, double distanceKm) {
+    double angularDistance = distanceKm / EARTH_RADIUS_KM;
+    double latitudeRadians = Math.toRadians(latitude);
+    if (angularDistance >= Math.PI / 2 - Math.abs(latitudeRadians)) {
+      return 180;
+    }
+    return Math.toDegrees(Math.asin(Math.sin(angularDistance) / Math.cos(latitudeRadians)));
+  }
+}
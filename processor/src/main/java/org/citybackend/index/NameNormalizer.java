@@ -0,0 +1,164 @@
+package org.citybackend.index;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Normalizes city names and queries so that they can be compared as index keys.
+ *
+ * <p>Names are folded once, when they are indexed, see {@code SearchKeys}, and queries once per
+ * request, so that "Montréal", "MONTREAL" and "montreal" share the same key, as well as "St.
+ * John's", "Saint-Johns" and "saint johns".</p>
+ */
+public final class NameNormalizer {
+
+  private static final char MIN_COMBINING_DIACRITIC = '\u0300';
+  private static final char MAX_COMBINING_DIACRITIC = '\u036f';
+  private static final char SEPARATOR = ' ';
+  /**
+   * The abbreviations that are expanded when another word follows them, see {@link #EXPANSIONS}.
+   */
+  private static final String[] ABBREVIATIONS = {"st", "ste"};
+  private static final String[] EXPANSIONS = {"saint", "sainte"};
+
+  private NameNormalizer() {
+  }
+
+  /**
+   * Returns the normalized form of a name:
+   * <ul>
+   *   <li>characters are lower cased and stripped of their diacritics, e.g. "É" becomes "e", and
+   *   the letters that do not decompose are folded to their base letters, e.g. "ł" becomes
+   *   "l";</li>
+   *   <li>apostrophes are removed, and every other sequence of characters that are neither letters
+   *   nor digits becomes a single space, without leading or trailing space;</li>
+   *   <li>the words "st" and "ste" followed by another word become "saint" and "sainte".</li>
+   * </ul>
+   * Normalizing a normalized name returns it unchanged. A {@code null} name is normalized as the
+   * empty {@code String}.
+   *
+   * @param name the name to normalize
+   * @return the normalized name
+   */
+  public static String normalize(String name) {
+    if (name == null) {
+      return "";
+    }
+    String decomposed = isAscii(name) ? name : Normalizer.normalize(name, Normalizer.Form.NFD);
+    StringBuilder normalized = new StringBuilder(decomposed.length());
+    boolean isSeparated = false;
+    for (int i = 0; i < decomposed.length(); i++) {
+      char c = decomposed.charAt(i);
+      if ((c >= MIN_COMBINING_DIACRITIC && c <= MAX_COMBINING_DIACRITIC) || isApostrophe(c)) {
+        continue;
+      }
+      if (!Character.isLetterOrDigit(c)) {
+        isSeparated = true;
+        continue;
+      }
+      if (isSeparated && normalized.length() > 0) {
+        expandAbbreviation(normalized);
+        normalized.append(SEPARATOR);
+      }
+      isSeparated = false;
+      appendFolded(normalized, Character.toLowerCase(c));
+    }
+    return normalized.toString();
+  }
+
+  private static boolean isAscii(String name) {
+    for (int i = 0; i < name.length(); i++) {
+      if (name.charAt(i) > 0x7f) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isApostrophe(char c) {
+    return c == '\'' || c == '\u2019' || c == '`' || c == '\u02bc';
+  }
+
+  /**
+   * Replaces the last word of {@code normalized} by its expanded form, if it is an abbreviation.
+   */
+  private static void expandAbbreviation(StringBuilder normalized) {
+    int start = normalized.lastIndexOf(String.valueOf(SEPARATOR)) + 1;
+    for (int i = 0; i < ABBREVIATIONS.length; i++) {
+      if (isWord(normalized, start, ABBREVIATIONS[i])) {
+        normalized.replace(start, normalized.length(), EXPANSIONS[i]);
+        return;
+      }
+    }
+  }
+
+  private static boolean isWord(StringBuilder normalized, int start, String word) {
+    if (normalized.length() - start != word.length()) {
+      return false;
+    }
+    for (int i = 0; i < word.length(); i++) {
+      if (normalized.charAt(start + i) != word.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the prefixes of the normalized names that start with a normalized prefix once their
+   * abbreviations are expanded, besides the prefix itself: a prefix whose last word starts an
+   * abbreviation, but not its expanded form, also starts the names where the abbreviation is
+   * followed by another word. E.g. "st" gives "saint " and "sainte ", so that "st" still finds "St.
+   * John's", whose normalized name is "saint johns".
+   *
+   * @param normalizedPrefix the normalized prefix
+   * @return the other prefixes of the normalized names starting with the prefix, usually none
+   */
+  public static List<String> expandedPrefixes(String normalizedPrefix) {
+    int start = normalizedPrefix.lastIndexOf(SEPARATOR) + 1;
+    String lastWord = normalizedPrefix.substring(start);
+    List<String> expandedPrefixes = new ArrayList<>(0);
+    for (int i = 0; i < ABBREVIATIONS.length; i++) {
+      if (ABBREVIATIONS[i].startsWith(lastWord) && !EXPANSIONS[i].startsWith(lastWord)) {
+        expandedPrefixes.add(normalizedPrefix.substring(0, start) + EXPANSIONS[i] + SEPARATOR);
+      }
+    }
+    return expandedPrefixes;
+  }
+
+  /**
+   * Appends a lower case letter or digit, folding the letters that have no decomposition.
+   */
+  private static void appendFolded(StringBuilder normalized, char c) {
+    switch (c) {
+      case '\u00df': // ß
+        normalized.append("ss");
+        break;
+      case '\u00e6': // æ
+        normalized.append("ae");
+        break;
+      case '\u0153': // œ
+        normalized.append("oe");
+        break;
+      case '\u00f8': // ø
+        normalized.append('o');
+        break;
+      case '\u0142': // ł
+        normalized.append('l');
+        break;
+      case '\u0111': // đ
+      case '\u00f0': // ð
+        normalized.append('d');
+        break;
+      case '\u0131': // ı
+        normalized.append('i');
+        break;
+      case '\u00fe': // þ
+        normalized.append("th");
+        break;
+      default:
+        normalized.append(c);
+    }
+  }
+}
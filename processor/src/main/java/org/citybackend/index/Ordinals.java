@@ -0,0 +1,36 @@
+package org.citybackend.index;
+
+import java.util.Arrays;
+
+/**
+ * Utility methods over sorted arrays of ordinals, as returned by the indexes.
+ */
+public final class Ordinals {
+
+  private Ordinals() {
+  }
+
+  /**
+   * Returns the ordinals present in both arrays, in ascending order.
+   *
+   * @param first  ordinals in ascending order
+   * @param second ordinals in ascending order
+   * @return the ordinals present in both arrays, in ascending order
+   */
+  public static int[] intersect(int[] first, int[] second) {
+    int[] toReturn = new int[Math.min(first.length, second.length)];
+    int size = 0;
+    for (int i = 0, j = 0; i < first.length && j < second.length; ) {
+      if (first[i] < second[j]) {
+        i++;
+      } else if (first[i] > second[j]) {
+        j++;
+      } else {
+        toReturn[size++] = first[i];
+        i++;
+        j++;
+      }
+    }
+    return Arrays.copyOf(toReturn, size);
+  }
+}
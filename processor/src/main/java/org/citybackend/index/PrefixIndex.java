@@ -0,0 +1,191 @@
+package org.citybackend.index;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Prefix index over normalized city names.
+ *
+ * <p>Keys are kept in two parallel arrays sorted by key, which is the flattened form of a trie:
+ * all the keys that share a prefix are stored in a contiguous range that is located with a binary
+ * search. Each key is associated with the ordinal of the city it was built from, i.e. the position
+ * of the city in the list the index was created with.</p>
+ */
+public class PrefixIndex {
+
+  private static final int[] NO_ORDINALS = new int[0];
+
+  private final String[] keys;
+  private final int[] ordinals;
+
+  private PrefixIndex(String[] keys, int[] ordinals) {
+    this.keys = keys;
+    this.ordinals = ordinals;
+  }
+
+  /**
+   * Creates a {@code PrefixIndex} over the given names. The ordinal of each name is its position in
+   * the list.
+   *
+   * @param names the names to index, already normalized, see {@link
+   *              NameNormalizer#normalize(String)}: they are indexed as they are
+   * @return the {@code PrefixIndex} over the given names
+   */
+  public static PrefixIndex fromNames(List<String> names) {
+    int[] sortedOrdinals = IntStream.range(0, names.size()).boxed()
+        .sorted(Comparator.comparing(names::get))
+        .mapToInt(Integer::intValue)
+        .toArray();
+    String[] sortedKeys = new String[sortedOrdinals.length];
+    for (int i = 0; i < sortedOrdinals.length; i++) {
+      sortedKeys[i] = names.get(sortedOrdinals[i]);
+    }
+    return new PrefixIndex(sortedKeys, sortedOrdinals);
+  }
+
+  /**
+   * Creates a {@code PrefixIndex} over the given names from the ordinals of an index that was
+   * already built over them, see {@link #getSortedOrdinals()}. The names are not sorted again.
+   *
+   * @param names          the names to index, already normalized
+   * @param sortedOrdinals the ordinals of the names, sorted by name
+   * @return the {@code PrefixIndex} over the given names
+   * @throws IllegalArgumentException if there is not one ordinal per name
+   */
+  public static PrefixIndex fromSortedOrdinals(List<String> names, int[] sortedOrdinals) {
+    if (sortedOrdinals.length != names.size()) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d ordinals, got %d", names.size(), sortedOrdinals.length));
+    }
+    String[] sortedKeys = new String[sortedOrdinals.length];
+    for (int i = 0; i < sortedOrdinals.length; i++) {
+      sortedKeys[i] = names.get(sortedOrdinals[i]);
+    }
+    return new PrefixIndex(sortedKeys, sortedOrdinals.clone());
+  }
+
+  /**
+   * Returns a {@code PrefixIndex} over a changed list of names, derived from this index without
+   * sorting all the names again: the keys of this index are remapped to their new ordinal or
+   * removed, and only the names that were not remapped are sorted and merged in.
+   *
+   * @param names      the changed list of names, already normalized
+   * @param ordinalMap for each ordinal of this index, the ordinal of the same name in {@code
+   *                   names}, or -1 to remove it
+   * @return the {@code PrefixIndex} over the changed list of names
+   * @throws IllegalArgumentException if there is not one entry per key of this index in {@code
+   *                                  ordinalMap}
+   */
+  public PrefixIndex withChanges(List<String> names, int[] ordinalMap) {
+    if (ordinalMap.length != keys.length) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d ordinals, got %d", keys.length, ordinalMap.length));
+    }
+    boolean[] isRemapped = new boolean[names.size()];
+    String[] remappedKeys = new String[keys.length];
+    int[] remappedOrdinals = new int[keys.length];
+    int remappedCount = 0;
+    for (int i = 0; i < keys.length; i++) {
+      int ordinal = ordinalMap[ordinals[i]];
+      if (ordinal >= 0) {
+        remappedKeys[remappedCount] = keys[i];
+        remappedOrdinals[remappedCount++] = ordinal;
+        isRemapped[ordinal] = true;
+      }
+    }
+    String[] insertedKeys = new String[names.size()];
+    for (int ordinal = 0; ordinal < names.size(); ordinal++) {
+      if (!isRemapped[ordinal]) {
+        insertedKeys[ordinal] = names.get(ordinal);
+      }
+    }
+    int[] insertedOrdinals = IntStream.range(0, names.size())
+        .filter(ordinal -> !isRemapped[ordinal]).boxed()
+        .sorted(Comparator.comparing(ordinal -> insertedKeys[ordinal]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+    String[] mergedKeys = new String[remappedCount + insertedOrdinals.length];
+    int[] mergedOrdinals = new int[mergedKeys.length];
+    for (int i = 0, remapped = 0, inserted = 0; i < mergedKeys.length; i++) {
+      if (inserted == insertedOrdinals.length || (remapped < remappedCount
+          && remappedKeys[remapped].compareTo(insertedKeys[insertedOrdinals[inserted]]) <= 0)) {
+        mergedKeys[i] = remappedKeys[remapped];
+        mergedOrdinals[i] = remappedOrdinals[remapped++];
+      } else {
+        mergedOrdinals[i] = insertedOrdinals[inserted++];
+        mergedKeys[i] = insertedKeys[mergedOrdinals[i]];
+      }
+    }
+    return new PrefixIndex(mergedKeys, mergedOrdinals);
+  }
+
+  /**
+   * Returns the ordinals of the names that start with the given prefix, in ascending order. A
+   * prefix ending with an abbreviation also finds the names where it was expanded, see {@link
+   * NameNormalizer#expandedPrefixes(String)}, e.g. "st" finds "St. John's".
+   *
+   * @param prefix the prefix to look for, it is normalized by this method
+   * @return the ordinals of the names that start with the given prefix, in ascending order
+   */
+  public int[] lookup(String prefix) {
+    String key = NameNormalizer.normalize(prefix);
+    int[] toReturn = lookupKey(key);
+    for (String expandedKey : NameNormalizer.expandedPrefixes(key)) {
+      int[] expanded = lookupKey(expandedKey);
+      if (expanded.length > 0) {
+        int[] merged = Arrays.copyOf(toReturn, toReturn.length + expanded.length);
+        System.arraycopy(expanded, 0, merged, toReturn.length, expanded.length);
+        toReturn = merged;
+      }
+    }
+    Arrays.sort(toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Returns the ordinals of the keys that start with a normalized key, in key order.
+   */
+  private int[] lookupKey(String key) {
+    int from = lowerBound(key);
+    int to = from;
+    while (to < keys.length && keys[to].startsWith(key)) {
+      to++;
+    }
+    return from == to ? NO_ORDINALS : Arrays.copyOfRange(ordinals, from, to);
+  }
+
+  /**
+   * Returns the number of keys in this index.
+   *
+   * @return the number of keys in this index
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * Returns the ordinals of the names sorted by normalized name, so that the index can be restored
+   * with {@link #fromSortedOrdinals(List, int[])}.
+   *
+   * @return the ordinals of the names sorted by normalized name
+   */
+  public int[] getSortedOrdinals() {
+    return ordinals.clone();
+  }
+
+  private int lowerBound(String key) {
+    int low = 0;
+    int high = keys.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (keys[middle].compareTo(key) < 0) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+}
@@ -0,0 +1,242 @@
+package org.citybackend.index;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import org.citybackend.city.City;
+
+/**
+ * The names a list of {@code City}s can be searched by: the name, the ascii name and the alternate
+ * names of each {@code City}, so that "Québec" or "Kebek" both find the same {@code City}.
+ *
+ * <p>Keys are normalized once, when they are created, see {@link NameNormalizer#normalize(String)},
+ * so that lookups and scores compare folded keys with a folded query without normalizing names
+ * again on each request.</p>
+ *
+ * <p>Each search key has an ordinal, i.e. its position in {@link #getKeys()}, so that the indexes
+ * can be built over keys instead of names. The keys of a {@code City} are contiguous and ordered by
+ * {@code City} ordinal: its name first, then its ascii name and its alternate names in natural
+ * order. Keys that are empty or equal to a previous key of the same {@code City} are skipped. A
+ * {@code City} always has at least one key, its name, even if it is empty.</p>
+ */
+public final class SearchKeys {
+
+  private final String[] keys;
+  /**
+   * The ordinal of the first key of each {@code City}, followed by the number of keys.
+   */
+  private final int[] keyStarts;
+  private final int[] cityOrdinals;
+
+  private SearchKeys(String[] keys, int[] keyStarts) {
+    this.keys = keys;
+    this.keyStarts = keyStarts;
+    this.cityOrdinals = new int[keys.length];
+    for (int cityOrdinal = 0; cityOrdinal + 1 < keyStarts.length; cityOrdinal++) {
+      Arrays.fill(cityOrdinals, keyStarts[cityOrdinal], keyStarts[cityOrdinal + 1], cityOrdinal);
+    }
+  }
+
+  /**
+   * Creates the {@code SearchKeys} of a list of {@code City}s, each {@code City} being identified
+   * by its position in the list.
+   *
+   * @param cities the {@code City}s
+   * @return the {@code SearchKeys} of the {@code City}s
+   */
+  public static SearchKeys fromCities(List<City> cities) {
+    return fromCities(cities, null, null);
+  }
+
+  /**
+   * Returns the {@code SearchKeys} of a changed list of {@code City}s, derived from these keys: the
+   * keys of the {@code City}s that were remapped are reused, and only the other {@code City}s are
+   * split into keys. The keys of a remapped {@code City} keep their order, see {@link
+   * #mapKeyOrdinals(SearchKeys, int[])}.
+   *
+   * @param cities     the changed list of {@code City}s
+   * @param ordinalMap for each {@code City} ordinal of these keys, the ordinal of the same {@code
+   *                   City} in {@code cities} if its keys are unchanged, or -1
+   * @return the {@code SearchKeys} of the changed list of {@code City}s
+   */
+  public SearchKeys withChanges(List<City> cities, int[] ordinalMap) {
+    return fromCities(cities, this, ordinalMap);
+  }
+
+  private static SearchKeys fromCities(List<City> cities, SearchKeys previous,
+      int[] ordinalMap) {
+    int[] previousOrdinals = new int[cities.size()];
+    Arrays.fill(previousOrdinals, -1);
+    if (previous != null) {
+      for (int ordinal = 0; ordinal < ordinalMap.length; ordinal++) {
+        if (ordinalMap[ordinal] >= 0) {
+          previousOrdinals[ordinalMap[ordinal]] = ordinal;
+        }
+      }
+    }
+    List<String> keys = new ArrayList<>(cities.size());
+    int[] keyStarts = new int[cities.size() + 1];
+    for (int cityOrdinal = 0; cityOrdinal < cities.size(); cityOrdinal++) {
+      int previousOrdinal = previousOrdinals[cityOrdinal];
+      if (previousOrdinal >= 0) {
+        keys.addAll(previous.getKeys(previousOrdinal));
+      } else {
+        addKeys(keys, cities.get(cityOrdinal));
+      }
+      keyStarts[cityOrdinal + 1] = keys.size();
+    }
+    return new SearchKeys(keys.toArray(new String[0]), keyStarts);
+  }
+
+  private static void addKeys(List<String> keys, City city) {
+    String name = NameNormalizer.normalize(city.getName());
+    keys.add(name);
+    Set<String> normalizedKeys = new HashSet<>();
+    normalizedKeys.add(name);
+    List<String> otherNames = new ArrayList<>();
+    if (city.getAlternateNames() != null) {
+      otherNames.addAll(city.getAlternateNames());
+      Collections.sort(otherNames);
+    }
+    if (city.getAsciiName() != null) {
+      otherNames.add(0, city.getAsciiName());
+    }
+    for (String otherName : otherNames) {
+      String normalized = NameNormalizer.normalize(otherName);
+      if (!normalized.isEmpty() && normalizedKeys.add(normalized)) {
+        keys.add(normalized);
+      }
+    }
+  }
+
+  /**
+   * Returns whether two {@code City}s have the same search keys, i.e. the same name, ascii name
+   * and alternate names.
+   *
+   * @param city  a {@code City}
+   * @param other another {@code City}
+   * @return whether the {@code City}s have the same search keys
+   */
+  public static boolean haveSameKeys(City city, City other) {
+    return Objects.equals(city.getName(), other.getName())
+        && Objects.equals(city.getAsciiName(), other.getAsciiName())
+        && Objects.equals(city.getAlternateNames(), other.getAlternateNames());
+  }
+
+  /**
+   * Returns, for each key ordinal of these keys, the ordinal of the same key in {@code changed},
+   * or -1 if its {@code City} is not remapped.
+   *
+   * @param changed    the keys returned by {@link #withChanges(List, int[])}
+   * @param ordinalMap the {@code City} ordinal map given to {@link #withChanges(List, int[])}
+   * @return the ordinal of each key in {@code changed}, or -1
+   */
+  public int[] mapKeyOrdinals(SearchKeys changed, int[] ordinalMap) {
+    int[] keyOrdinalMap = new int[keys.length];
+    for (int cityOrdinal = 0; cityOrdinal < ordinalMap.length; cityOrdinal++) {
+      int changedStart = ordinalMap[cityOrdinal] >= 0
+          ? changed.keyStarts[ordinalMap[cityOrdinal]] : -1;
+      for (int key = keyStarts[cityOrdinal]; key < keyStarts[cityOrdinal + 1]; key++) {
+        keyOrdinalMap[key] = changedStart >= 0 ? changedStart + key - keyStarts[cityOrdinal] : -1;
+      }
+    }
+    return keyOrdinalMap;
+  }
+
+  /**
+   * Returns the normalized keys, the ordinal of a key being its position in the list.
+   *
+   * @return the normalized keys
+   */
+  public List<String> getKeys() {
+    return Collections.unmodifiableList(Arrays.asList(keys));
+  }
+
+  /**
+   * Returns the first key, i.e. the normalized name, of each {@code City}, the ordinal of a {@code
+   * City} being its position in the list. The names are not copied.
+   *
+   * @return the normalized names of the {@code City}s
+   */
+  public List<String> getNames() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int cityOrdinal) {
+        Objects.checkIndex(cityOrdinal, size());
+        return keys[keyStarts[cityOrdinal]];
+      }
+
+      @Override
+      public int size() {
+        return keyStarts.length - 1;
+      }
+    };
+  }
+
+  /**
+   * Returns the ordinals of the first key, i.e. the name, of the given {@code City}s.
+   *
+   * @param cityOrdinals {@code City} ordinals in ascending order
+   * @return the ordinals of the names of the {@code City}s, in ascending order
+   */
+  public int[] nameKeyOrdinals(int[] cityOrdinals) {
+    int[] toReturn = new int[cityOrdinals.length];
+    for (int i = 0; i < cityOrdinals.length; i++) {
+      toReturn[i] = keyStarts[cityOrdinals[i]];
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns the keys of a {@code City}, its name first.
+   *
+   * @param cityOrdinal the ordinal of the {@code City}
+   * @return the keys of the {@code City}
+   */
+  public List<String> getKeys(int cityOrdinal) {
+    return getKeys().subList(keyStarts[cityOrdinal], keyStarts[cityOrdinal + 1]);
+  }
+
+  public String getKey(int keyOrdinal) {
+    return keys[keyOrdinal];
+  }
+
+  public int getCityOrdinal(int keyOrdinal) {
+    return cityOrdinals[keyOrdinal];
+  }
+
+  /**
+   * Returns the ordinals of the keys of the given {@code City}s, in ascending order.
+   *
+   * @param cityOrdinals {@code City} ordinals in ascending order
+   * @return the ordinals of the keys of the {@code City}s, in ascending order
+   */
+  public int[] keyOrdinals(int[] cityOrdinals) {
+    int size = 0;
+    for (int cityOrdinal : cityOrdinals) {
+      size += keyStarts[cityOrdinal + 1] - keyStarts[cityOrdinal];
+    }
+    int[] toReturn = new int[size];
+    size = 0;
+    for (int cityOrdinal : cityOrdinals) {
+      for (int key = keyStarts[cityOrdinal]; key < keyStarts[cityOrdinal + 1]; key++) {
+        toReturn[size++] = key;
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns the number of keys.
+   *
+   * @return the number of keys
+   */
+  public int size() {
+    return keys.length;
+  }
+}
@@ -0,0 +1,285 @@
+package org.citybackend.index;
+
+import java.util.Arrays;
+import java.util.List;
+import org.citybackend.city.City;
+
+/**
+ * Spatial index over the coordinates of {@code City}s.
+ *
+ * <p>Coordinates are copied in primitive arrays indexed by ordinal, i.e. the position of the
+ * {@code City} in the list the index was created with, both in degrees and in radians along with
+ * the cosine of the latitude so that distances are computed without trigonometry on the indexed
+ * side. Ordinals are bucketed in a grid of square cells covering the bounding box of the indexed
+ * coordinates; coordinates outside of this box fall in the edge cells. A lookup only visits the
+ * cells overlapping the box bounding the searched circle, checks the box, then the great-circle
+ * distance. {@code City}s without coordinates are not indexed.</p>
+ */
+public class SpatialGridIndex {
+
+  private static final double DEFAULT_CELL_SIZE_DEGREES = 1.0;
+  private static final int[] NO_ORDINALS = new int[0];
+  private static final double BOX_TOLERANCE_DEGREES = 1e-9;
+
+  private final double[] latitudes;
+  private final double[] longitudes;
+  private final double[] latitudesRadians;
+  private final double[] longitudesRadians;
+  private final double[] cosLatitudes;
+  private final double cellSizeDegrees;
+  private final double minLatitude;
+  private final double minLongitude;
+  private final int rowCount;
+  private final int columnCount;
+  private final int[][] cells;
+  private final int[] cellSizes;
+
+  private SpatialGridIndex(double[] latitudes, double[] longitudes, double cellSizeDegrees) {
+    this.latitudes = latitudes;
+    this.longitudes = longitudes;
+    this.latitudesRadians = new double[latitudes.length];
+    this.longitudesRadians = new double[longitudes.length];
+    this.cosLatitudes = new double[latitudes.length];
+    this.cellSizeDegrees = cellSizeDegrees;
+    double minLat = Double.POSITIVE_INFINITY;
+    double maxLat = Double.NEGATIVE_INFINITY;
+    double minLon = Double.POSITIVE_INFINITY;
+    double maxLon = Double.NEGATIVE_INFINITY;
+    for (int ordinal = 0; ordinal < latitudes.length; ordinal++) {
+      if (isIndexed(ordinal)) {
+        minLat = Math.min(minLat, latitudes[ordinal]);
+        maxLat = Math.max(maxLat, latitudes[ordinal]);
+        minLon = Math.min(minLon, longitudes[ordinal]);
+        maxLon = Math.max(maxLon, longitudes[ordinal]);
+      }
+    }
+    if (minLat > maxLat) {
+      minLat = maxLat = minLon = maxLon = 0;
+    }
+    this.minLatitude = minLat;
+    this.minLongitude = minLon;
+    this.rowCount = (int) ((maxLat - minLat) / cellSizeDegrees) + 1;
+    this.columnCount = (int) ((maxLon - minLon) / cellSizeDegrees) + 1;
+    this.cells = new int[rowCount * columnCount][];
+    this.cellSizes = new int[rowCount * columnCount];
+    for (int ordinal = 0; ordinal < latitudes.length; ordinal++) {
+      if (isIndexed(ordinal)) {
+        latitudesRadians[ordinal] = Math.toRadians(latitudes[ordinal]);
+        longitudesRadians[ordinal] = Math.toRadians(longitudes[ordinal]);
+        cosLatitudes[ordinal] = Math.cos(latitudesRadians[ordinal]);
+        addToCell(cellOf(latitudes[ordinal], longitudes[ordinal]), ordinal);
+      }
+    }
+  }
+
+  /**
+   * Creates an empty {@code SpatialGridIndex} of {@code size} ordinals with the same grid as {@code
+   * index}.
+   */
+  private SpatialGridIndex(SpatialGridIndex index, int size) {
+    this.latitudes = new double[size];
+    this.longitudes = new double[size];
+    this.latitudesRadians = new double[size];
+    this.longitudesRadians = new double[size];
+    this.cosLatitudes = new double[size];
+    this.cellSizeDegrees = index.cellSizeDegrees;
+    this.minLatitude = index.minLatitude;
+    this.minLongitude = index.minLongitude;
+    this.rowCount = index.rowCount;
+    this.columnCount = index.columnCount;
+    this.cells = new int[rowCount * columnCount][];
+    this.cellSizes = new int[rowCount * columnCount];
+  }
+
+  /**
+   * Creates a {@code SpatialGridIndex} over the coordinates of the given {@code City}s. The ordinal
+   * of each {@code City} is its position in the list.
+   *
+   * @param cities the {@code City}s to index
+   * @return the {@code SpatialGridIndex} over the given {@code City}s
+   */
+  public static SpatialGridIndex fromCities(List<City> cities) {
+    double[] latitudes = new double[cities.size()];
+    double[] longitudes = new double[cities.size()];
+    for (int ordinal = 0; ordinal < cities.size(); ordinal++) {
+      City city = cities.get(ordinal);
+      latitudes[ordinal] = city.hasLatitude() ? city.getLatitude() : Double.NaN;
+      longitudes[ordinal] = city.hasLongitude() ? city.getLongitude() : Double.NaN;
+    }
+    return new SpatialGridIndex(latitudes, longitudes, DEFAULT_CELL_SIZE_DEGREES);
+  }
+
+  /**
+   * Creates a {@code SpatialGridIndex} over coordinates held by primitive arrays, where a missing
+   * coordinate is {@code Double.NaN}. The ordinal of each coordinate is its position in the arrays.
+   * The arrays are kept by the index: they must not be modified afterwards.
+   *
+   * @param latitudes  the latitudes to index, in degrees
+   * @param longitudes the longitudes to index, in degrees
+   * @return the {@code SpatialGridIndex} over the given coordinates
+   */
+  public static SpatialGridIndex fromCoordinates(double[] latitudes, double[] longitudes) {
+    if (latitudes.length != longitudes.length) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d longitudes, got %d", latitudes.length, longitudes.length));
+    }
+    return new SpatialGridIndex(latitudes, longitudes, DEFAULT_CELL_SIZE_DEGREES);
+  }
+
+  /**
+   * Returns a {@code SpatialGridIndex} over a changed list of {@code City}s, derived from this
+   * index without computing the cells of the unchanged coordinates again: they are remapped to
+   * their new ordinal or removed, and only the {@code City}s that were not remapped are indexed.
+   * The grid is kept as is, so new coordinates outside of its box fall in the edge cells.
+   *
+   * @param cities     the changed list of {@code City}s
+   * @param ordinalMap for each ordinal of this index, the ordinal of the same coordinates in {@code
+   *                   cities}, or -1 to remove them
+   * @return the {@code SpatialGridIndex} over the changed list of {@code City}s
+   * @throws IllegalArgumentException if there is not one entry per ordinal of this index in {@code
+   *                                  ordinalMap}
+   */
+  public SpatialGridIndex withChanges(List<City> cities, int[] ordinalMap) {
+    if (ordinalMap.length != latitudes.length) {
+      throw new IllegalArgumentException(String.format(
+          "Expected %d ordinals, got %d", latitudes.length, ordinalMap.length));
+    }
+    SpatialGridIndex changed = new SpatialGridIndex(this, cities.size());
+    boolean[] isRemapped = new boolean[cities.size()];
+    for (int ordinal = 0; ordinal < ordinalMap.length; ordinal++) {
+      int changedOrdinal = ordinalMap[ordinal];
+      if (changedOrdinal >= 0) {
+        changed.latitudes[changedOrdinal] = latitudes[ordinal];
+        changed.longitudes[changedOrdinal] = longitudes[ordinal];
+        changed.latitudesRadians[changedOrdinal] = latitudesRadians[ordinal];
+        changed.longitudesRadians[changedOrdinal] = longitudesRadians[ordinal];
+        changed.cosLatitudes[changedOrdinal] = cosLatitudes[ordinal];
+        isRemapped[changedOrdinal] = true;
+      }
+    }
+    for (int cell = 0; cell < cells.length; cell++) {
+      for (int i = 0; i < cellSizes[cell]; i++) {
+        int changedOrdinal = ordinalMap[cells[cell][i]];
+        if (changedOrdinal >= 0) {
+          changed.addToCell(cell, changedOrdinal);
+        }
+      }
+    }
+    for (int ordinal = 0; ordinal < cities.size(); ordinal++) {
+      if (!isRemapped[ordinal]) {
+        City city = cities.get(ordinal);
+        changed.latitudes[ordinal] = city.hasLatitude() ? city.getLatitude() : Double.NaN;
+        changed.longitudes[ordinal] = city.hasLongitude() ? city.getLongitude() : Double.NaN;
+        if (changed.isIndexed(ordinal)) {
+          changed.latitudesRadians[ordinal] = Math.toRadians(changed.latitudes[ordinal]);
+          changed.longitudesRadians[ordinal] = Math.toRadians(changed.longitudes[ordinal]);
+          changed.cosLatitudes[ordinal] = Math.cos(changed.latitudesRadians[ordinal]);
+          changed.addToCell(
+              changed.cellOf(changed.latitudes[ordinal], changed.longitudes[ordinal]), ordinal);
+        }
+      }
+    }
+    return changed;
+  }
+
+  private static int clamp(int value, int max) {
+    return Math.max(0, Math.min(value, max));
+  }
+
+  private boolean isIndexed(int ordinal) {
+    return !Double.isNaN(latitudes[ordinal]) && !Double.isNaN(longitudes[ordinal]);
+  }
+
+  private int rowOf(double latitude) {
+    return clamp((int) Math.floor((latitude - minLatitude) / cellSizeDegrees), rowCount - 1);
+  }
+
+  private int columnOf(double longitude) {
+    return clamp((int) Math.floor((longitude - minLongitude) / cellSizeDegrees), columnCount - 1);
+  }
+
+  private int cellOf(double latitude, double longitude) {
+    return rowOf(latitude) * columnCount + columnOf(longitude);
+  }
+
+  private void addToCell(int cell, int ordinal) {
+    int[] ordinals = cells[cell];
+    if (ordinals == null) {
+      ordinals = new int[4];
+    } else if (cellSizes[cell] == ordinals.length) {
+      ordinals = Arrays.copyOf(ordinals, ordinals.length * 2);
+    }
+    ordinals[cellSizes[cell]++] = ordinal;
+    cells[cell] = ordinals;
+  }
+
+  /**
+   * Returns the ordinals of the coordinates within the given great-circle distance of a location,
+   * in ascending order.
+   *
+   * @param latitude      the latitude of the location, in degrees
+   * @param longitude     the longitude of the location, in degrees
+   * @param maxDistanceKm the maximum distance with the location, in kilometers
+   * @return the ordinals of the coordinates within the distance, in ascending order
+   */
+  public int[] withinDistance(double latitude, double longitude, double maxDistanceKm) {
+    double latitudeDelta = GreatCircle.latitudeDelta(maxDistanceKm) + BOX_TOLERANCE_DEGREES;
+    double longitudeDelta =
+        GreatCircle.longitudeDelta(latitude, maxDistanceKm) + BOX_TOLERANCE_DEGREES;
+    double latitudeRadians = Math.toRadians(latitude);
+    double longitudeRadians = Math.toRadians(longitude);
+    double cosLatitude = Math.cos(latitudeRadians);
+    int fromRow = rowOf(latitude - latitudeDelta);
+    int toRow = rowOf(latitude + latitudeDelta);
+    int[] toReturn = NO_ORDINALS;
+    int size = 0;
+    for (double[] longitudeRange : longitudeRanges(longitude, longitudeDelta)) {
+      int fromColumn = columnOf(longitudeRange[0]);
+      int toColumn = columnOf(longitudeRange[1]);
+      for (int row = fromRow; row <= toRow; row++) {
+        for (int column = fromColumn; column <= toColumn; column++) {
+          int cell = row * columnCount + column;
+          int[] ordinals = cells[cell];
+          for (int i = 0; i < cellSizes[cell]; i++) {
+            int ordinal = ordinals[i];
+            double absLongitudeDelta = Math.abs(longitudes[ordinal] - longitude);
+            if (Math.abs(latitudes[ordinal] - latitude) <= latitudeDelta
+                && Math.min(absLongitudeDelta, 360 - absLongitudeDelta) <= longitudeDelta
+                && GreatCircle.distanceKm(latitudeRadians, longitudeRadians, cosLatitude,
+                latitudesRadians[ordinal], longitudesRadians[ordinal], cosLatitudes[ordinal])
+                <= maxDistanceKm) {
+              if (size == toReturn.length) {
+                toReturn = Arrays.copyOf(toReturn, Math.max(16, size * 2));
+              }
+              toReturn[size++] = ordinal;
+            }
+          }
+        }
+      }
+    }
+    Arrays.sort(toReturn, 0, size);
+    // Ranges wrapping around the antimeridian may share an edge cell: remove duplicates.
+    int distinctSize = 0;
+    for (int i = 0; i < size; i++) {
+      if (distinctSize == 0 || toReturn[distinctSize - 1] != toReturn[i]) {
+        toReturn[distinctSize++] = toReturn[i];
+      }
+    }
+    return Arrays.copyOf(toReturn, distinctSize);
+  }
+
+  private static double[][] longitudeRanges(double longitude, double longitudeDelta) {
+    if (longitudeDelta >= 180) {
+      return new double[][]{{-180, 180}};
+    }
+    double from = longitude - longitudeDelta;
+    double to = longitude + longitudeDelta;
+    if (from < -180) {
+      return new double[][]{{from + 360, 180}, {-180, to}};
+    }
+    if (to > 180) {
+      return new double[][]{{from, 180}, {-180, to - 360}};
+    }
+    return new double[][]{{from, to}};
+  }
+}
@@ -0,0 +1,115 @@
+package org.citybackend.index;
+
+import java.util.Comparator;
+import java.util.List;
+import org.citybackend.city.City;
+
+/**
+ * The static ranks of a list of {@code City}s, i.e. the part of their score that does not depend
+ * on the query: the larger the population, the higher the rank, see {@link #of(Long)}.
+ *
+ * <p>Each {@code City} is identified by its position in the list. Besides its rank, each {@code
+ * City} has a bound, the highest rank of the {@code City}s from its position to the end of the
+ * list. The repositories keep the {@code City}s of a country code ordered by descending rank, see
+ * {@link #BY_DESCENDING_RANK}, so that the bound of a {@code City} is usually its own rank, and a
+ * ranking can stop scanning a list in ordinal order once no remaining {@code City} can beat the
+ * ones it kept.</p>
+ */
+public final class StaticRanks {
+
+  /**
+   * The population whose static rank is 1, above the population of any city.
+   */
+  private static final double MAX_POPULATION = 1e8;
+  private static final double LOG_MAX_POPULATION = Math.log1p(MAX_POPULATION);
+  /**
+   * Orders {@code City}s by descending static rank.
+   */
+  public static final Comparator<City> BY_DESCENDING_RANK =
+      Comparator.comparingDouble((City city) -> of(city.getPopulation())).reversed();
+
+  private final double[] ranks;
+  private final double[] bounds;
+
+  private StaticRanks(double[] ranks) {
+    this.ranks = ranks;
+    this.bounds = new double[ranks.length];
+    fillBounds(ranks, bounds, ranks.length);
+  }
+
+  /**
+   * Returns the static rank of a population, between 0 and 1: the logarithm of the population
+   * scaled so that a population of {@link #MAX_POPULATION} or more ranks 1. An unknown or negative
+   * population ranks 0.
+   *
+   * @param population the population, or {@code null} if it is unknown
+   * @return the static rank of the population
+   */
+  public static double of(Long population) {
+    return population != null ? of(population.longValue()) : 0;
+  }
+
+  /**
+   * Returns the static rank of a population, see {@link #of(Long)}.
+   *
+   * @param population the population, 0 if it is unknown
+   * @return the static rank of the population
+   */
+  public static double of(long population) {
+    return population <= 0 ? 0 : Math.min(Math.log1p(population) / LOG_MAX_POPULATION, 1);
+  }
+
+  /**
+   * Creates the {@code StaticRanks} of a list of {@code City}s.
+   *
+   * @param cities the {@code City}s
+   * @return the {@code StaticRanks} of the {@code City}s
+   */
+  public static StaticRanks fromCities(List<City> cities) {
+    double[] ranks = new double[cities.size()];
+    for (int ordinal = 0; ordinal < ranks.length; ordinal++) {
+      ranks[ordinal] = of(cities.get(ordinal).getPopulation());
+    }
+    return new StaticRanks(ranks);
+  }
+
+  /**
+   * Writes, for each of the first {@code size} ranks, the highest rank from its position to
+   * {@code size}.
+   *
+   * @param ranks  the ranks
+   * @param bounds the array receiving the bounds, it may be {@code ranks}
+   * @param size   the number of ranks
+   */
+  public static void fillBounds(double[] ranks, double[] bounds, int size) {
+    double bound = 0;
+    for (int i = size - 1; i >= 0; i--) {
+      bound = Math.max(bound, ranks[i]);
+      bounds[i] = bound;
+    }
+  }
+
+  public double get(int ordinal) {
+    return ranks[ordinal];
+  }
+
+  /**
+   * Returns the highest static rank of the {@code City}s from the given ordinal to the end of the
+   * list.
+   *
+   * @param ordinal the ordinal of a {@code City}
+   * @return the highest rank from the ordinal to the end of the list
+   */
+  public double getBound(int ordinal) {
+    return bounds[ordinal];
+  }
+
+  /**
+   * Returns the number of {@code City}s.
+   *
+   * @return the number of {@code City}s
+   */
+  public int size() {
+    return ranks.length;
+  }
+}
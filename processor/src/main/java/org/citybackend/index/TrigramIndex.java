@@ -0,0 +1,371 @@
+package org.citybackend.index;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Trigram inverted index over normalized city names, to find the names that are similar to a query
+ * in spite of typos, e.g. "Montreal" for "Monteral".
+ *
+ * <p>A normalized name is padded with two spaces before and one space after, and is split into its
+ * overlapping sequences of three characters: "tor" gives "  t", " to", "tor" and "or ". Each
+ * distinct trigram is packed into a {@code long} key and mapped to the sorted ordinals of the names
+ * that contain it. Keys are kept sorted, so that a key is found by binary search.</p>
+ *
+ * <p>A lookup walks the postings of the trigrams of the query, counting for each name the number
+ * of trigrams it shares with the query, and only keeps the names that share the most. Its cost
+ * grows with the length of these postings, not with the number of names that are scored
+ * afterwards, nor with the number of indexed names: the counts are kept in arrays reused from one
+ * lookup to the next, and only the names touched by a lookup are cleared. These arrays are pooled
+ * by the index, so that they are released with it, e.g. once the repository is refreshed.</p>
+ */
+public final class TrigramIndex {
+
+  /**
+   * The number of characters of a trigram.
+   */
+  public static final int GRAM_LENGTH = 3;
+  private static final String PADDING_BEFORE = "  ";
+  private static final String PADDING_AFTER = " ";
+  private static final int[] NO_ORDINALS = new int[0];
+  /**
+   * Maximum number of trigrams of a query that are looked up, so that shared trigrams can be
+   * counted in a byte.
+   */
+  private static final int MAX_QUERY_TRIGRAMS = 255;
+  /**
+   * Maximum number of lookup arrays kept by an index between two lookups: concurrent lookups
+   * beyond it allocate their own arrays.
+   */
+  private static final int MAX_POOLED_SCRATCHES = Runtime.getRuntime().availableProcessors();
+  /**
+   * Maximum length of the ordinal arrays kept by a pooled scratch, larger arrays are dropped once
+   * the lookup that grew them is done.
+   */
+  private static final int MAX_RETAINED_ORDINALS = 1 << 16;
+
+  private final int nameCount;
+  private final long[] keys;
+  private final int[][] postings;
+  private final Queue<LookupScratch> scratches = new ArrayBlockingQueue<>(MAX_POOLED_SCRATCHES);
+
+  private TrigramIndex(int nameCount, long[] keys, int[][] postings) {
+    this.nameCount = nameCount;
+    this.keys = keys;
+    this.postings = postings;
+  }
+
+  /**
+   * Creates a {@code TrigramIndex} over a list of names, each name being identified by its position
+   * in the list.
+   *
+   * @param names the names to index, already normalized, see {@link
+   *              NameNormalizer#normalize(String)}: they are split as they are
+   * @return the {@code TrigramIndex} over the names
+   */
+  public static TrigramIndex fromNames(List<String> names) {
+    HashMap<Long, PostingBuilder> builders = new HashMap<>();
+    for (int ordinal = 0; ordinal < names.size(); ordinal++) {
+      add(builders, names.get(ordinal), ordinal);
+    }
+    return build(names.size(), builders);
+  }
+
+  /**
+   * Returns a {@code TrigramIndex} over a changed list of names, derived from this index without
+   * splitting all the names again: the postings of this index are remapped to the new ordinals or
+   * removed, and only the names that were not remapped are split and added.
+   *
+   * @param names      the changed list of names, already normalized
+   * @param ordinalMap for each ordinal of this index, the ordinal of the same name in {@code
+   *                   names}, or -1 to remove it
+   * @return the {@code TrigramIndex} over the changed list of names
+   */
+  public TrigramIndex withChanges(List<String> names, int[] ordinalMap) {
+    boolean[] isRemapped = new boolean[names.size()];
+    for (int ordinal : ordinalMap) {
+      if (ordinal >= 0) {
+        isRemapped[ordinal] = true;
+      }
+    }
+    HashMap<Long, PostingBuilder> builders = new HashMap<>();
+    for (int i = 0; i < keys.length; i++) {
+      PostingBuilder builder = new PostingBuilder(postings[i].length);
+      for (int ordinal : postings[i]) {
+        if (ordinalMap[ordinal] >= 0) {
+          builder.add(ordinalMap[ordinal]);
+        }
+      }
+      builders.put(keys[i], builder);
+    }
+    for (int ordinal = 0; ordinal < names.size(); ordinal++) {
+      if (!isRemapped[ordinal]) {
+        add(builders, names.get(ordinal), ordinal);
+      }
+    }
+    return build(names.size(), builders);
+  }
+
+  private static void add(Map<Long, PostingBuilder> builders, String name, int ordinal) {
+    for (long key : trigrams(name)) {
+      builders.computeIfAbsent(key, k -> new PostingBuilder(1)).add(ordinal);
+    }
+  }
+
+  private static TrigramIndex build(int nameCount, Map<Long, PostingBuilder> builders) {
+    long[] keys = builders.entrySet().stream()
+        .filter(entry -> entry.getValue().size > 0)
+        .mapToLong(Map.Entry::getKey)
+        .sorted()
+        .toArray();
+    int[][] postings = new int[keys.length][];
+    for (int i = 0; i < keys.length; i++) {
+      postings[i] = builders.get(keys[i]).toSortedArray();
+    }
+    return new TrigramIndex(nameCount, keys, postings);
+  }
+
+  /**
+   * Returns the distinct trigrams of a normalized name, packed into sorted {@code long} keys.
+   */
+  private static long[] trigrams(String normalizedName) {
+    String padded = PADDING_BEFORE + normalizedName + PADDING_AFTER;
+    long[] trigrams = new long[padded.length() - GRAM_LENGTH + 1];
+    for (int i = 0; i < trigrams.length; i++) {
+      trigrams[i] = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16)
+          | padded.charAt(i + 2);
+    }
+    Arrays.sort(trigrams);
+    int size = 0;
+    for (int i = 0; i < trigrams.length; i++) {
+      if (i == 0 || trigrams[i] != trigrams[i - 1]) {
+        trigrams[size++] = trigrams[i];
+      }
+    }
+    return Arrays.copyOf(trigrams, size);
+  }
+
+  /**
+   * Returns whether a query is long enough to be looked up by trigrams, i.e. whether its normalized
+   * form holds a whole trigram. Shorter queries only share the padded trigrams of their first
+   * letters.
+   *
+   * @param query the query
+   * @return whether the query is long enough to be looked up by trigrams
+   */
+  public static boolean canLookup(String query) {
+    return NameNormalizer.normalize(query).length() >= GRAM_LENGTH;
+  }
+
+  /**
+   * Returns the ordinals of the names sharing the most trigrams with the query, in ascending
+   * order, see {@link #lookup(String, int, int[])}.
+   *
+   * @param query         the query, it is normalized by this method
+   * @param maxCandidates the maximum number of ordinals to return
+   * @return the ordinals of the names sharing the most trigrams with the query, in ascending order
+   */
+  public int[] lookup(String query, int maxCandidates) {
+    return lookup(query, maxCandidates, null);
+  }
+
+  /**
+   * Returns the ordinals of the names sharing the most trigrams with the query, in ascending
+   * order. Names that share no trigram with the query are never returned. When more than {@code
+   * maxCandidates} names share trigrams with the query, the ones sharing the most are kept and ties
+   * are broken by ascending ordinal.
+   *
+   * @param query           the query, it is normalized by this method
+   * @param maxCandidates   the maximum number of ordinals to return
+   * @param allowedOrdinals if not {@code null}, the only ordinals that can be returned, in
+   *                        ascending order, e.g. the ones returned by a {@code SpatialGridIndex}
+   * @return the ordinals of the names sharing the most trigrams with the query, in ascending order
+   */
+  public int[] lookup(String query, int maxCandidates, int[] allowedOrdinals) {
+    long[] queryKeys = trigrams(NameNormalizer.normalize(query));
+    LookupScratch scratch = scratches.poll();
+    if (scratch == null) {
+      scratch = new LookupScratch(nameCount);
+    }
+    // Shared trigram counts, one byte per name: only the first MAX_QUERY_TRIGRAMS are counted.
+    byte[] counts = scratch.counts;
+    int touchedCount = 0;
+    int listCount = 0;
+    try {
+      for (int i = 0; i < queryKeys.length && listCount < MAX_QUERY_TRIGRAMS; i++) {
+        int position = Arrays.binarySearch(keys, queryKeys[i]);
+        if (position < 0) {
+          continue;
+        }
+        int[] touched = scratch.touched(touchedCount + postings[position].length);
+        for (int ordinal : postings[position]) {
+          if (counts[ordinal]++ == 0) {
+            touched[touchedCount++] = ordinal;
+          }
+        }
+        listCount++;
+      }
+      if (listCount == 0 || maxCandidates <= 0) {
+        return NO_ORDINALS;
+      }
+
+      // The ordinals to select from: the allowed ones in ascending order, or the touched ones in
+      // the order they were touched.
+      int[] scanned = allowedOrdinals != null ? allowedOrdinals : scratch.touched;
+      int scannedCount = allowedOrdinals != null ? allowedOrdinals.length : touchedCount;
+      int[] namesBySharedTrigrams = new int[listCount + 1];
+      for (int i = 0; i < scannedCount; i++) {
+        namesBySharedTrigrams[counts[scanned[i]] & 0xff]++;
+      }
+      // The lowest shared trigram count that is kept, and how many names with this count are kept.
+      int minCount = listCount;
+      int remaining = maxCandidates;
+      while (minCount > 1 && namesBySharedTrigrams[minCount] < remaining) {
+        remaining -= namesBySharedTrigrams[minCount];
+        minCount--;
+      }
+      int[] toReturn = new int[Math.min(maxCandidates, touchedCount)];
+      if (allowedOrdinals == null) {
+        return selectTouched(scratch, counts, touchedCount, minCount,
+            namesBySharedTrigrams[minCount] > remaining ? remaining : -1, toReturn);
+      }
+      int returned = 0;
+      for (int i = 0; i < scannedCount && returned < toReturn.length; i++) {
+        int ordinal = scanned[i];
+        int count = counts[ordinal] & 0xff;
+        if (count > minCount) {
+          toReturn[returned++] = ordinal;
+        } else if (count == minCount && remaining > 0) {
+          toReturn[returned++] = ordinal;
+          remaining--;
+        }
+      }
+      return returned == toReturn.length ? toReturn : Arrays.copyOf(toReturn, returned);
+    } finally {
+      // Only the touched counts are cleared, so that the next lookup starts from zeros without
+      // clearing every name.
+      for (int i = 0; i < touchedCount; i++) {
+        counts[scratch.touched[i]] = 0;
+      }
+      scratch.trim();
+      scratches.offer(scratch);
+    }
+  }
+
+  /**
+   * Selects the touched names sharing at least {@code minCount} trigrams with the query, without
+   * scanning every name: when only some of the names sharing exactly {@code minCount} trigrams
+   * are kept, these names alone are sorted to keep the lowest ordinals.
+   *
+   * @param tiesKept the number of names sharing exactly {@code minCount} trigrams that are kept,
+   *                 or -1 if they are all kept
+   * @param toReturn the array receiving the selected ordinals, in ascending order
+   */
+  private static int[] selectTouched(LookupScratch scratch, byte[] counts, int touchedCount,
+      int minCount, int tiesKept, int[] toReturn) {
+    int[] touched = scratch.touched;
+    int[] ties = tiesKept >= 0 ? scratch.ties(touchedCount) : null;
+    int tieCount = 0;
+    int returned = 0;
+    for (int i = 0; i < touchedCount; i++) {
+      int ordinal = touched[i];
+      int count = counts[ordinal] & 0xff;
+      if (count > minCount || (count == minCount && tiesKept < 0)) {
+        toReturn[returned++] = ordinal;
+      } else if (count == minCount) {
+        ties[tieCount++] = ordinal;
+      }
+    }
+    if (tiesKept >= 0) {
+      Arrays.sort(ties, 0, tieCount);
+      System.arraycopy(ties, 0, toReturn, returned, tiesKept);
+      returned += tiesKept;
+    }
+    Arrays.sort(toReturn, 0, returned);
+    return returned == toReturn.length ? toReturn : Arrays.copyOf(toReturn, returned);
+  }
+
+  /**
+   * Returns the number of distinct trigrams in this index.
+   *
+   * @return the number of distinct trigrams in this index
+   */
+  public int size() {
+    return keys.length;
+  }
+
+  /**
+   * The arrays of a lookup, pooled by the index and reused from one lookup to the next. The counts
+   * are all 0 between two lookups.
+   */
+  private static class LookupScratch {
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final byte[] counts;
+    private int[] touched = new int[INITIAL_CAPACITY];
+    private int[] ties = new int[INITIAL_CAPACITY];
+
+    LookupScratch(int nameCount) {
+      this.counts = new byte[nameCount];
+    }
+
+    int[] touched(int capacity) {
+      if (touched.length < capacity) {
+        touched = Arrays.copyOf(touched, Math.max(capacity, 2 * touched.length));
+      }
+      return touched;
+    }
+
+    int[] ties(int capacity) {
+      if (ties.length < capacity) {
+        ties = new int[Math.max(capacity, 2 * ties.length)];
+      }
+      return ties;
+    }
+
+    /**
+     * Drops the ordinal arrays that grew beyond {@link #MAX_RETAINED_ORDINALS}.
+     */
+    void trim() {
+      if (touched.length > MAX_RETAINED_ORDINALS) {
+        touched = new int[INITIAL_CAPACITY];
+      }
+      if (ties.length > MAX_RETAINED_ORDINALS) {
+        ties = new int[INITIAL_CAPACITY];
+      }
+    }
+  }
+
+  private static class PostingBuilder {
+
+    private int[] ordinals;
+    private int size;
+
+    PostingBuilder(int capacity) {
+      this.ordinals = new int[Math.max(1, capacity)];
+    }
+
+    void add(int ordinal) {
+      if (size == ordinals.length) {
+        ordinals = Arrays.copyOf(ordinals, 2 * size);
+      }
+      ordinals[size++] = ordinal;
+    }
+
+    int[] toSortedArray() {
+      int[] sorted = Arrays.copyOf(ordinals, size);
+      for (int i = 1; i < size; i++) {
+        if (sorted[i - 1] > sorted[i]) {
+          Arrays.sort(sorted);
+          break;
+        }
+      }
+      return sorted;
+    }
+  }
+}
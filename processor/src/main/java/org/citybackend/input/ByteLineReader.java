@@ -0,0 +1,76 @@
+package org.citybackend.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Reads the lines of a stream as bytes, without decoding them: each line is handed over as a
+ * window of a buffer that is reused for the next lines.
+ */
+public final class ByteLineReader {
+
+  private static final int INITIAL_BUFFER_SIZE = 1 << 16;
+
+  private ByteLineReader() {
+  }
+
+  /**
+   * Calls {@code consumer} with every line of {@code in}, without its line terminator ("\n" or
+   * "\r\n"). As with {@link java.io.BufferedReader#readLine()}, a last line without terminator is
+   * read, but not an empty one. The window handed over to {@code consumer} is only valid during
+   * the call.
+   *
+   * @param in       the stream to read
+   * @param consumer the consumer of the lines
+   * @throws IOException if {@code in} cannot be read
+   */
+  public static void forEachLine(InputStream in, LineConsumer consumer) throws IOException {
+    byte[] buffer = new byte[INITIAL_BUFFER_SIZE];
+    int lineStart = 0;
+    int filled = 0;
+    int scanned = 0;
+    while (true) {
+      for (; scanned < filled; scanned++) {
+        if (buffer[scanned] == '\n') {
+          int lineEnd = scanned > lineStart && buffer[scanned - 1] == '\r' ? scanned - 1 : scanned;
+          consumer.accept(buffer, lineStart, lineEnd - lineStart);
+          lineStart = scanned + 1;
+        }
+      }
+      if (lineStart > 0) {
+        // Move the beginning of the current line to the front of the buffer.
+        System.arraycopy(buffer, lineStart, buffer, 0, filled - lineStart);
+        filled -= lineStart;
+        scanned = filled;
+        lineStart = 0;
+      } else if (filled == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if (read < 0) {
+        break;
+      }
+      filled += read;
+    }
+    if (filled > 0) {
+      consumer.accept(buffer, 0, filled);
+    }
+  }
+
+  /**
+   * Consumer of the lines read by {@link #forEachLine(InputStream, LineConsumer)}.
+   */
+  @FunctionalInterface
+  public interface LineConsumer {
+
+    /**
+     * Consumes a line.
+     *
+     * @param bytes  the buffer holding the line
+     * @param offset the offset of the line in {@code bytes}
+     * @param length the length of the line, in bytes
+     */
+    void accept(byte[] bytes, int offset, int length);
+  }
+}
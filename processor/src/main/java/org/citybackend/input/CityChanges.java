@@ -0,0 +1,114 @@
+package org.citybackend.input;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import org.citybackend.city.City;
+import org.citybackend.parser.CityParser;
+import org.citybackend.parser.IngestFilter;
+
+/**
+ * Changes to apply to a repository, keyed by geonameId, e.g. read from the daily
+ * "modifications-YYYY-MM-DD.txt" and "deletes-YYYY-MM-DD.txt" files of geonames.org.
+ *
+ * <p>A modified {@code City} replaces the {@code City} of the same geonameId, or is added if there
+ * is none. A geonameId that is both modified and deleted is deleted. When several modified {@code
+ * City}s share the same geonameId, the last one is kept.</p>
+ */
+public class CityChanges {
+
+  private final LinkedHashMap<String, City> modifiedCities = new LinkedHashMap<>();
+  private final Set<String> deletedGeonameIds;
+
+  /**
+   * Creates an instance of {@code CityChanges}.
+   *
+   * @param modifiedCities    the {@code City}s to add or replace
+   * @param deletedGeonameIds the geonameIds of the {@code City}s to delete
+   */
+  public CityChanges(Collection<City> modifiedCities, Collection<String> deletedGeonameIds) {
+    this.deletedGeonameIds = Collections.unmodifiableSet(
+        new LinkedHashSet<>(deletedGeonameIds));
+    for (City city : modifiedCities) {
+      if (!this.deletedGeonameIds.contains(city.getGeonameId())) {
+        this.modifiedCities.put(city.getGeonameId(), city);
+      }
+    }
+  }
+
+  /**
+   * Reads the changes of a daily modifications file, whose rows have the same format as the
+   * datasets, and of a daily deletes file, whose rows start with the geonameId followed by the name
+   * and a comment. Modified rows are filtered before being parsed: a modified row that is not kept
+   * by {@code filter} deletes its geonameId, since the {@code City} may have been kept before
+   * being modified.
+   *
+   * @param parser            the parser to be used for deserialization
+   * @param filter            the filter the modified rows must be kept by
+   * @param modificationsFile the modifications file, e.g. "modifications-2021-08-01.txt"
+   * @param deletesFile       the deletes file, e.g. "deletes-2021-08-01.txt"
+   * @return the changes read from the files
+   * @throws IOException if a file cannot be read
+   */
+  public static CityChanges fromFiles(CityParser parser, IngestFilter filter,
+      Path modificationsFile, Path deletesFile) throws IOException {
+    LinkedHashMap<String, City> modifiedCities = new LinkedHashMap<>();
+    Set<String> deletedGeonameIds = new LinkedHashSet<>();
+    try (InputStream inputStream = Files.newInputStream(modificationsFile)) {
+      ByteLineReader.forEachLine(inputStream, (bytes, offset, length) -> {
+        if (length == 0) {
+          return;
+        }
+        if (filter.accept(bytes, offset, length)) {
+          City city = parser.parse(bytes, offset, length);
+          modifiedCities.put(city.getGeonameId(), city);
+          deletedGeonameIds.remove(city.getGeonameId());
+        } else {
+          String geonameId = firstField(bytes, offset, length);
+          modifiedCities.remove(geonameId);
+          deletedGeonameIds.add(geonameId);
+        }
+      });
+    }
+    try (InputStream inputStream = Files.newInputStream(deletesFile)) {
+      ByteLineReader.forEachLine(inputStream, (bytes, offset, length) -> {
+        if (length > 0) {
+          deletedGeonameIds.add(firstField(bytes, offset, length));
+        }
+      });
+    }
+    return new CityChanges(modifiedCities.values(), deletedGeonameIds);
+  }
+
+  private static String firstField(byte[] bytes, int offset, int length) {
+    int end = offset;
+    while (end < offset + length && bytes[end] != '\t') {
+      end++;
+    }
+    return new String(bytes, offset, end - offset, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Returns the {@code City}s to add or replace, in the order in which they were given.
+   *
+   * @return the {@code City}s to add or replace
+   */
+  public Collection<City> getModifiedCities() {
+    return Collections.unmodifiableCollection(modifiedCities.values());
+  }
+
+  public Set<String> getDeletedGeonameIds() {
+    return deletedGeonameIds;
+  }
+
+  public boolean isEmpty() {
+    return modifiedCities.isEmpty() && deletedGeonameIds.isEmpty();
+  }
+}
@@ -1,9 +1,12 @@
 package org.citybackend.input;
 
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Closer;
+import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -12,6 +15,8 @@ import java.net.URL;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveInputStream;
 import org.apache.commons.compress.archivers.zip.ZipFile;
 import org.apache.commons.compress.utils.SeekableInMemoryByteChannel;
 import org.apache.http.client.methods.CloseableHttpResponse;
@@ -21,6 +26,8 @@ import org.apache.http.impl.client.HttpClients;
 
 public abstract class CityInput implements Closeable {
 
+  private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
   /**
    * Creates a specific CityInput to read data from the given path.
    *
@@ -80,6 +87,94 @@ public abstract class CityInput implements Closeable {
     }
   }
 
+  /**
+   * Returns a stream to read a given file of the ZIP archive at the given URL, without keeping the
+   * archive: the file is inflated as the bytes of the archive arrive, so that it can be parsed
+   * while the archive is being downloaded. Closing the stream closes the connection.
+   * <p>
+   * HTTP and HTTPS URLs are downloaded with an HTTP client, other URLs (e.g. {@code file:} URLs)
+   * are opened with {@link URL#openStream()}.
+   * </p>
+   *
+   * @param sourceUrl the fully qualified URL of the archive
+   * @param filename  relative path to the file, e.g, "LN.txt"
+   * @return a stream to read the file data
+   * @throws IOException        if the archive or the file could not be found
+   * @throws URISyntaxException if URL is malformed
+   */
+  public static InputStream openFileFromUrl(URL sourceUrl, String filename)
+      throws IOException, URISyntaxException {
+    String protocol = sourceUrl.getProtocol();
+    if (!protocol.equals("http") && !protocol.equals("https")) {
+      return openFileFromZipStream(sourceUrl.openStream(), filename);
+    }
+    Closer closer = Closer.create();
+    try {
+      CloseableHttpClient httpClient = closer.register(HttpClients.createDefault());
+      CloseableHttpResponse httpResponse =
+          closer.register(httpClient.execute(new HttpGet(sourceUrl.toURI())));
+      int statusCode = httpResponse.getStatusLine().getStatusCode();
+      if (statusCode != 200) {
+        throw new FileNotFoundException(
+            String.format("%s (HTTP status %d)", sourceUrl, statusCode));
+      }
+      InputStream file = closer
+          .register(openFileFromZipStream(httpResponse.getEntity().getContent(), filename));
+      return new FilterInputStream(file) {
+        @Override
+        public void close() throws IOException {
+          closer.close();
+        }
+      };
+    } catch (Throwable e) {
+      try {
+        throw closer.rethrow(e, URISyntaxException.class);
+      } finally {
+        closer.close();
+      }
+    }
+  }
+
+  /**
+   * Returns a stream to read a given file of a ZIP archive that is read sequentially from {@code
+   * zipStream}. The entries that come before the file are skipped. Closing the returned stream
+   * closes {@code zipStream}.
+   *
+   * @param zipStream the stream of the ZIP archive
+   * @param filename  relative path to the file, e.g, "LN.txt"
+   * @return a stream to read the file data
+   * @throws IOException if the file is not in the archive
+   */
+  public static InputStream openFileFromZipStream(InputStream zipStream, String filename)
+      throws IOException {
+    ZipArchiveInputStream entries = new ZipArchiveInputStream(
+        new BufferedInputStream(zipStream, STREAM_BUFFER_SIZE), "UTF8", true, true);
+    try {
+      for (ZipArchiveEntry entry = entries.getNextZipEntry(); entry != null;
+          entry = entries.getNextZipEntry()) {
+        if (!entry.isDirectory() && getBaseName(entry.getName()).equals(filename)) {
+          return entries;
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      entries.close();
+      throw e;
+    }
+    entries.close();
+    throw new FileNotFoundException(filename);
+  }
+
+  /**
+   * Returns the name of a ZIP entry without its top-level directory, e.g. "LN.txt" for
+   * "LN/LN.txt".
+   *
+   * @param entryName the name of the ZIP entry
+   * @return the name of the entry without its top-level directory
+   */
+  static String getBaseName(String entryName) {
+    return entryName.substring(entryName.indexOf("/") + 1).trim();
+  }
+
   /**
    * Lists all files inside the City dataset, even if they are not TSV and do not have .txt
    * extension.
@@ -3,15 +3,38 @@ package org.citybackend.input;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Stream;
+import org.citybackend.city.City;
+import org.citybackend.parser.CityParser;
+import org.citybackend.parser.IngestFilter;
 
 /**
  * Implements support for unarchived geonames directories.
  */
 public class CityUnarchivedInput extends CityInput {
 
+  /**
+   * Default size of the chunks that are parsed in parallel, in bytes.
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 32 << 20;
+  private static final int BOUNDARY_SCAN_SIZE = 4096;
+  private static final int INITIAL_LINE_SIZE = 1024;
+
   private final ImmutableSet<String> filenames;
   private final Path directory;
 
@@ -49,6 +72,155 @@ public class CityUnarchivedInput extends CityInput {
     return Files.newInputStream(directory.resolve(filename));
   }
 
+  /**
+   * Parses every line of a given file with several threads, see {@link #parseFile(String,
+   * CityParser, int, int)}. Chunks are {@link #DEFAULT_CHUNK_SIZE} bytes long.
+   *
+   * @param filename    relative path to the file, e.g, "allCountries.txt"
+   * @param parser      the parser to be used for deserialization
+   * @param parallelism the number of threads parsing the file
+   * @return the parsed {@code City}s of each chunk, in file order
+   * @throws IOException if the file cannot be read
+   */
+  public List<List<City>> parseFile(String filename, CityParser parser, int parallelism)
+      throws IOException {
+    return parseFile(filename, parser, parallelism, DEFAULT_CHUNK_SIZE);
+  }
+
+  /**
+   * Parses every line of a given file with several threads. The file is split into chunks of
+   * about {@code chunkSize} bytes that end on a line boundary, each chunk is memory-mapped and its
+   * lines are handed over to the parser as bytes, see {@link CityParser#parse(byte[], int, int)}.
+   * <p>
+   * The {@code City}s are returned by chunk in file order, so that merging them in order gives the
+   * same result as reading the file line by line.
+   * </p>
+   *
+   * @param filename    relative path to the file, e.g, "allCountries.txt"
+   * @param parser      the parser to be used for deserialization
+   * @param parallelism the number of threads parsing the file
+   * @param chunkSize   the approximate size of the chunks, in bytes
+   * @return the parsed {@code City}s of each chunk, in file order
+   * @throws IOException if the file cannot be read
+   */
+  public List<List<City>> parseFile(String filename, CityParser parser, int parallelism,
+      int chunkSize) throws IOException {
+    return parseFile(filename, parser, IngestFilter.acceptAll(), parallelism, chunkSize);
+  }
+
+  /**
+   * Parses the lines of a given file that are kept by a filter with several threads, see {@link
+   * #parseFile(String, CityParser, int, int)}. Lines are filtered before being parsed.
+   *
+   * @param filename    relative path to the file, e.g, "allCountries.txt"
+   * @param parser      the parser to be used for deserialization
+   * @param filter      the filter the lines must be kept by
+   * @param parallelism the number of threads parsing the file
+   * @param chunkSize   the approximate size of the chunks, in bytes
+   * @return the parsed {@code City}s of each chunk, in file order
+   * @throws IOException if the file cannot be read
+   */
+  public List<List<City>> parseFile(String filename, CityParser parser, IngestFilter filter,
+      int parallelism, int chunkSize) throws IOException {
+    try (FileChannel channel = FileChannel
+        .open(directory.resolve(filename), StandardOpenOption.READ)) {
+      long[] boundaries = findChunkBoundaries(channel, chunkSize);
+      ExecutorService executor = Executors.newFixedThreadPool(
+          Math.max(1, Math.min(parallelism, boundaries.length - 1)));
+      try {
+        List<Future<List<City>>> chunks = new ArrayList<>(boundaries.length - 1);
+        for (int i = 0; i + 1 < boundaries.length; i++) {
+          long start = boundaries[i];
+          long end = boundaries[i + 1];
+          chunks.add(executor.submit(() -> parseChunk(channel, start, end, parser, filter)));
+        }
+        List<List<City>> cities = new ArrayList<>(chunks.size());
+        for (Future<List<City>> chunk : chunks) {
+          cities.add(chunk.get());
+        }
+        return cities;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException(e.getMessage());
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw new IOException(e.getCause());
+      } finally {
+        executor.shutdownNow();
+      }
+    }
+  }
+
+  /**
+   * Returns the offsets at which the chunks of the file start, followed by the size of the file.
+   * Each chunk starts right after a line terminator, at the first line that starts at or after a
+   * multiple of {@code chunkSize}.
+   */
+  private static long[] findChunkBoundaries(FileChannel channel, int chunkSize)
+      throws IOException {
+    long size = channel.size();
+    long[] boundaries = new long[(int) (size / chunkSize) + 2];
+    int count = 1;
+    ByteBuffer window = ByteBuffer.allocate(BOUNDARY_SCAN_SIZE);
+    for (long nominal = chunkSize; nominal < size; nominal += chunkSize) {
+      if (boundaries[count - 1] >= nominal) {
+        // The previous chunk ends with a line that is longer than a chunk.
+        continue;
+      }
+      long position = nominal - 1;
+      long boundary = size;
+      while (position < size && boundary == size) {
+        window.clear();
+        int read = channel.read(window, position);
+        if (read <= 0) {
+          break;
+        }
+        for (int i = 0; i < read; i++) {
+          if (window.get(i) == '\n') {
+            boundary = position + i + 1;
+            break;
+          }
+        }
+        position += read;
+      }
+      if (boundary > boundaries[count - 1] && boundary < size) {
+        boundaries[count++] = boundary;
+      }
+    }
+    boundaries[count++] = size;
+    return Arrays.copyOf(boundaries, count);
+  }
+
+  private static List<City> parseChunk(FileChannel channel, long start, long end,
+      CityParser parser, IngestFilter filter) throws IOException {
+    MappedByteBuffer chunk = channel.map(MapMode.READ_ONLY, start, end - start);
+    int size = chunk.limit();
+    List<City> cities = new ArrayList<>();
+    byte[] line = new byte[INITIAL_LINE_SIZE];
+    int lineStart = 0;
+    for (int i = 0; i <= size; i++) {
+      if (i < size ? chunk.get(i) != '\n' : lineStart == size) {
+        continue;
+      }
+      int length = i - lineStart;
+      if (length > line.length) {
+        line = new byte[Math.max(length, 2 * line.length)];
+      }
+      chunk.position(lineStart);
+      chunk.get(line, 0, length);
+      if (filter.accept(line, 0, length)) {
+        cities.add(parser.parse(line, 0, length));
+      }
+      lineStart = i + 1;
+    }
+    return cities;
+  }
+
   @Override
   public void close() throws IOException {
     // Do nothing.
@@ -24,9 +24,7 @@ public class CityZipFileInput extends CityInput {
       if (entry.isDirectory()) {
         continue;
       }
-      String name = entry.getName();
-      String curatedName = name.substring(name.indexOf("/") + 1).trim();
-      filenamesBuilder.add(curatedName);
+      filenamesBuilder.add(getBaseName(entry.getName()));
     }
     filenames = filenamesBuilder.build();
   }
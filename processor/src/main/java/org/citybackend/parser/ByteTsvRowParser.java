@@ -0,0 +1,338 @@
+package org.citybackend.parser;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import org.citybackend.city.City;
+
+/**
+ * Implementation for TSV files that works on the UTF-8 bytes of the rows. Tabs are located in the
+ * bytes directly, text fields are decoded one by one, and numbers and dates are parsed from the
+ * bytes without building intermediate {@code String}s. The resulting {@code City}s are the same as
+ * the ones of {@code TsvRowParser}.
+ *
+ * <p>A parser can be restricted to some fields with {@link #withFields(Set)}: the other fields are
+ * only skipped over, and are {@code null} in the resulting {@code City}s.</p>
+ */
+public class ByteTsvRowParser implements CityParser {
+
+  private static final ByteTsvRowParser entity =
+      new ByteTsvRowParser(EnumSet.allOf(CityField.class));
+  private static final String EMPTY = "";
+  private static final int MAX_LONG_DIGITS = 18;
+  private static final int MAX_INT_DIGITS = 9;
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+  private static final long NOT_PARSED = Long.MIN_VALUE;
+  /**
+   * Powers of ten that are exactly represented by a {@code double}.
+   */
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16,
+      1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  private final boolean[] isParsed = new boolean[CityField.values().length];
+  private final int lastParsedField;
+
+  private ByteTsvRowParser(Set<CityField> fields) {
+    int lastField = 0;
+    for (CityField field : fields) {
+      isParsed[field.ordinal()] = true;
+      lastField = Math.max(lastField, field.ordinal());
+    }
+    this.lastParsedField = lastField;
+  }
+
+  /**
+   * Returns the unique instance of {@code ByteTsvRowParser}.
+   *
+   * @return the unique instance of {@code ByteTsvRowParser}.
+   */
+  public static ByteTsvRowParser getParser() {
+    return entity;
+  }
+
+  /**
+   * Returns a {@code ByteTsvRowParser} that only parses the given fields, e.g. {@link
+   * CityField#SUGGESTION_FIELDS}. The other fields are {@code null} in the resulting {@code City}s,
+   * and the end of a row is not read at all after the last parsed field.
+   *
+   * @param fields the fields to parse, the geonameId must be one of them
+   * @return a {@code ByteTsvRowParser} that only parses the given fields
+   * @throws IllegalArgumentException if the geonameId is not one of the fields
+   */
+  public static ByteTsvRowParser withFields(Set<CityField> fields) {
+    if (!fields.contains(CityField.GEONAME_ID)) {
+      throw new IllegalArgumentException("The geonameId must be parsed");
+    }
+    return new ByteTsvRowParser(fields);
+  }
+
+  /**
+   * Return a {@code City} after parsing line from geonames.org.
+   *
+   * @param line the line to parse
+   * @return the {@code City} internat representation.
+   */
+  @Override
+  public City parse(String line) {
+    byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+    return parse(bytes, 0, bytes.length);
+  }
+
+  /**
+   * Returns a {@code City} after parsing a line from geonames.org that is held by a {@code
+   * ByteBuffer}, e.g. a memory-mapped file. The position of the buffer is not changed.
+   *
+   * @param buffer the buffer holding the line
+   * @param offset the offset of the line in {@code buffer}
+   * @param length the length of the line, in bytes
+   * @return the {@code City} internal representation
+   */
+  public City parse(ByteBuffer buffer, int offset, int length) {
+    if (buffer.hasArray()) {
+      return parse(buffer.array(), buffer.arrayOffset() + offset, length);
+    }
+    byte[] bytes = new byte[length];
+    for (int i = 0; i < length; i++) {
+      bytes[i] = buffer.get(offset + i);
+    }
+    return parse(bytes, 0, length);
+  }
+
+  @Override
+  public City parse(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    while (end > offset && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+      end--;
+    }
+    City.Builder builder = new City.Builder();
+    int fieldStart = offset;
+    for (int field = 0; field <= lastParsedField; field++) {
+      int fieldEnd = fieldStart;
+      while (fieldEnd < end && bytes[fieldEnd] != '\t') {
+        fieldEnd++;
+      }
+      if (!isParsed[field]) {
+        fieldStart = Math.min(fieldEnd + 1, end);
+        continue;
+      }
+      switch (field) {
+        case 0:
+          builder.geonameId(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 1:
+          builder.name(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 2:
+          builder.asciiName(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 3:
+          builder.alternateNames(parseAlternateNames(bytes, fieldStart, fieldEnd));
+          break;
+        case 4:
+          Double latitude = parseDouble(bytes, fieldStart, fieldEnd);
+          if (latitude != null) {
+            builder.latitude(latitude);
+          } else {
+            builder.latitude(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+        case 5:
+          Double longitude = parseDouble(bytes, fieldStart, fieldEnd);
+          if (longitude != null) {
+            builder.longitude(longitude);
+          } else {
+            builder.longitude(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+        case 6:
+          builder.featureClass(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 7:
+          builder.featureCode(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 8:
+          builder.countryCode(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 9:
+          builder.alternateCountryCode(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 10:
+          builder.admin1(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 11:
+          builder.admin2(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 12:
+          builder.admin3(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 13:
+          builder.admin4(decode(bytes, fieldStart, fieldEnd));
+          break;
+        case 14:
+          long population = parseDigits(bytes, fieldStart, fieldEnd, MAX_LONG_DIGITS);
+          if (population != NOT_PARSED) {
+            builder.population(population);
+          } else {
+            builder.population(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+        case 15:
+          long elevation = parseDigits(bytes, fieldStart, fieldEnd, MAX_INT_DIGITS);
+          if (elevation != NOT_PARSED) {
+            builder.elevation((int) elevation);
+          } else {
+            builder.elevation(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+        case 16:
+          long dem = parseDigits(bytes, fieldStart, fieldEnd, MAX_INT_DIGITS);
+          if (dem != NOT_PARSED) {
+            builder.dem((int) dem);
+          } else {
+            builder.dem(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+        case 17:
+          builder.timeZone(decode(bytes, fieldStart, fieldEnd));
+          break;
+        default:
+          LocalDate modificationDate = parseDate(bytes, fieldStart, fieldEnd);
+          if (modificationDate != null) {
+            builder.modificationDate(modificationDate);
+          } else {
+            builder.modificationDate(decode(bytes, fieldStart, fieldEnd));
+          }
+          break;
+      }
+      fieldStart = Math.min(fieldEnd + 1, end);
+    }
+    return builder.build();
+  }
+
+  private static String decode(byte[] bytes, int start, int end) {
+    return start == end ? EMPTY : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Splits alternate names on commas, as {@code String.split(",")} would: empty names are kept,
+   * except trailing ones.
+   */
+  private static Set<String> parseAlternateNames(byte[] bytes, int start, int end) {
+    while (end > start && bytes[end - 1] == ',') {
+      end--;
+    }
+    HashSet<String> names = new HashSet<>();
+    if (start == end) {
+      return names;
+    }
+    int nameStart = start;
+    for (int i = start; i < end; i++) {
+      if (bytes[i] == ',') {
+        names.add(decode(bytes, nameStart, i));
+        nameStart = i + 1;
+      }
+    }
+    names.add(decode(bytes, nameStart, end));
+    return names;
+  }
+
+  /**
+   * Parses a decimal number such as "-73.58781". Only numbers whose digits fit in a {@code double}
+   * are parsed: they are computed from their digits, which gives the same result as {@link
+   * Double#valueOf(String)}.
+   *
+   * @return the number, or {@code null} if the field does not have this form
+   */
+  private static Double parseDouble(byte[] bytes, int start, int end) {
+    int i = start;
+    boolean isNegative = i < end && bytes[i] == '-';
+    if (i < end && (isNegative || bytes[i] == '+')) {
+      i++;
+    }
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = -1;
+    for (; i < end; i++) {
+      byte b = bytes[i];
+      if (b >= '0' && b <= '9') {
+        if (++digits > MAX_LONG_DIGITS) {
+          return null;
+        }
+        mantissa = mantissa * 10 + (b - '0');
+        if (fractionDigits >= 0) {
+          fractionDigits++;
+        }
+      } else if (b == '.' && fractionDigits < 0) {
+        fractionDigits = 0;
+      } else {
+        return null;
+      }
+    }
+    if (digits == 0 || mantissa > MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+      return null;
+    }
+    // Both operands are exact, so the division is rounded as Double.valueOf would round.
+    double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+    return isNegative ? -value : value;
+  }
+
+  /**
+   * Parses an optionally signed number of at most {@code maxDigits} ASCII digits, such as "-9999".
+   *
+   * @return the number, or {@link #NOT_PARSED} if the field does not have this form
+   */
+  private static long parseDigits(byte[] bytes, int start, int end, int maxDigits) {
+    int i = start;
+    boolean isNegative = i < end && bytes[i] == '-';
+    if (i < end && (isNegative || bytes[i] == '+')) {
+      i++;
+    }
+    if (i == end || end - i > maxDigits) {
+      return NOT_PARSED;
+    }
+    long value = 0;
+    for (; i < end; i++) {
+      byte b = bytes[i];
+      if (b < '0' || b > '9') {
+        return NOT_PARSED;
+      }
+      value = value * 10 + (b - '0');
+    }
+    return isNegative ? -value : value;
+  }
+
+  /**
+   * Parses a date in yyyy-MM-dd format such as "2020-08-07". As with the smart resolution of {@code
+   * java.time.format.DateTimeFormatter}, a day of month that is too large for the month is changed
+   * to the last day of the month.
+   *
+   * @return the date, or {@code null} if the field does not have this form
+   */
+  private static LocalDate parseDate(byte[] bytes, int start, int end) {
+    if (end - start != 10 || bytes[start + 4] != '-' || bytes[start + 7] != '-') {
+      return null;
+    }
+    if (!isDigit(bytes[start]) || !isDigit(bytes[start + 5]) || !isDigit(bytes[start + 8])) {
+      return null;
+    }
+    long year = parseDigits(bytes, start, start + 4, 4);
+    long month = parseDigits(bytes, start + 5, start + 7, 2);
+    long day = parseDigits(bytes, start + 8, end, 2);
+    if (year < 1 || month < 1 || month > 12 || day < 1 || day > 31) {
+      return null;
+    }
+    Month monthOfYear = Month.of((int) month);
+    return LocalDate.of((int) year, monthOfYear,
+        (int) Math.min(day, monthOfYear.length(Year.isLeap(year))));
+  }
+
+  private static boolean isDigit(byte b) {
+    return b >= '0' && b <= '9';
+  }
+}
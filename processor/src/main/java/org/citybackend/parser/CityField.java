@@ -0,0 +1,39 @@
+package org.citybackend.parser;
+
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Columns of the rows from geonames.org, in the order of the TSV files. See
+ * https://download.geonames.org/export/dump/readme.txt.
+ */
+public enum CityField {
+  GEONAME_ID,
+  NAME,
+  ASCII_NAME,
+  ALTERNATE_NAMES,
+  LATITUDE,
+  LONGITUDE,
+  FEATURE_CLASS,
+  FEATURE_CODE,
+  COUNTRY_CODE,
+  ALTERNATE_COUNTRY_CODE,
+  ADMIN1,
+  ADMIN2,
+  ADMIN3,
+  ADMIN4,
+  POPULATION,
+  ELEVATION,
+  DEM,
+  TIME_ZONE,
+  MODIFICATION_DATE;
+
+  /**
+   * The fields read by suggestions: the geonameId and country code that repositories are keyed
+   * by, the names that are searched, the coordinates and the population.
+   */
+  public static final Set<CityField> SUGGESTION_FIELDS = Collections.unmodifiableSet(
+      EnumSet.of(GEONAME_ID, NAME, ASCII_NAME, ALTERNATE_NAMES, LATITUDE, LONGITUDE,
+          COUNTRY_CODE, POPULATION));
+}
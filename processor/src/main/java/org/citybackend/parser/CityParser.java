@@ -1,5 +1,6 @@
 package org.citybackend.parser;
 
+import java.nio.charset.StandardCharsets;
 import org.citybackend.city.City;
 
 /**
@@ -8,4 +9,21 @@ import org.citybackend.city.City;
 public interface CityParser {
   String TAB_SEPARATOR = "\t";
   City parse(String line);
+
+  /**
+   * Returns a {@code City} after parsing a line from geonames.org that is encoded in UTF-8. The
+   * line terminator, if any, is ignored.
+   *
+   * @param bytes  the bytes holding the line
+   * @param offset the offset of the line in {@code bytes}
+   * @param length the length of the line, in bytes
+   * @return the {@code City} internal representation
+   */
+  default City parse(byte[] bytes, int offset, int length) {
+    int end = offset + length;
+    while (end > offset && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+      end--;
+    }
+    return parse(new String(bytes, offset, end - offset, StandardCharsets.UTF_8));
+  }
 }
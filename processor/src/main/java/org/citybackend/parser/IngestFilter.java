@@ -0,0 +1,184 @@
+package org.citybackend.parser;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Filter over the rows from geonames.org, applied to the UTF-8 bytes of a row before it is parsed,
+ * so that unwanted rows are never built into {@code City}s. A row is kept if its feature class is
+ * one of the wanted ones, its feature code is one of the wanted ones and its population is at least
+ * the minimum population; each criterion is ignored unless it is set. Unknown or invalid
+ * populations count as 0.
+ *
+ * <p>The filter counts the rows it keeps and drops. It can be used by several parsing threads at
+ * once.</p>
+ *
+ * <pre>
+ *  IngestFilter filter = new IngestFilter.Builder()
+ *    .featureClasses("P")
+ *    .minPopulation(1000)
+ *    .build();
+ *  </pre>
+ */
+public class IngestFilter {
+
+  private static final int MAX_POPULATION_DIGITS = 18;
+
+  private final byte[][] featureClasses;
+  private final byte[][] featureCodes;
+  private final long minPopulation;
+  private final LongAdder keptCount = new LongAdder();
+  private final LongAdder droppedCount = new LongAdder();
+
+  private IngestFilter(byte[][] featureClasses, byte[][] featureCodes, long minPopulation) {
+    this.featureClasses = featureClasses;
+    this.featureCodes = featureCodes;
+    this.minPopulation = minPopulation;
+  }
+
+  /**
+   * Returns a new {@code IngestFilter} that keeps every row, which only counts them.
+   *
+   * @return a new {@code IngestFilter} that keeps every row
+   */
+  public static IngestFilter acceptAll() {
+    return new Builder().build();
+  }
+
+  /**
+   * Returns whether a row must be kept, and counts it as kept or dropped. The line terminator, if
+   * any, is ignored.
+   *
+   * @param bytes  the bytes holding the row
+   * @param offset the offset of the row in {@code bytes}
+   * @param length the length of the row, in bytes
+   * @return whether the row must be kept
+   */
+  public boolean accept(byte[] bytes, int offset, int length) {
+    boolean isKept = matches(bytes, offset, offset + length);
+    (isKept ? keptCount : droppedCount).increment();
+    return isKept;
+  }
+
+  public long getKeptCount() {
+    return keptCount.sum();
+  }
+
+  public long getDroppedCount() {
+    return droppedCount.sum();
+  }
+
+  private boolean matches(byte[] bytes, int start, int end) {
+    if (featureClasses == null && featureCodes == null && minPopulation <= 0) {
+      return true;
+    }
+    while (end > start && (bytes[end - 1] == '\n' || bytes[end - 1] == '\r')) {
+      end--;
+    }
+    int field = 0;
+    int fieldStart = start;
+    for (int i = start; i <= end && field <= CityField.POPULATION.ordinal(); i++) {
+      if (i < end && bytes[i] != '\t') {
+        continue;
+      }
+      if (field == CityField.FEATURE_CLASS.ordinal()
+          && !isOneOf(featureClasses, bytes, fieldStart, i)) {
+        return false;
+      }
+      if (field == CityField.FEATURE_CODE.ordinal()
+          && !isOneOf(featureCodes, bytes, fieldStart, i)) {
+        return false;
+      }
+      if (field == CityField.POPULATION.ordinal()) {
+        return parsePopulation(bytes, fieldStart, i) >= minPopulation;
+      }
+      field++;
+      fieldStart = i + 1;
+    }
+    // The row is too short to have all the filtered fields: missing fields are empty.
+    return (field > CityField.FEATURE_CLASS.ordinal() || isOneOf(featureClasses, bytes, 0, 0))
+        && (field > CityField.FEATURE_CODE.ordinal() || isOneOf(featureCodes, bytes, 0, 0))
+        && minPopulation <= 0;
+  }
+
+  private static boolean isOneOf(byte[][] values, byte[] bytes, int start, int end) {
+    if (values == null) {
+      return true;
+    }
+    for (byte[] value : values) {
+      if (Arrays.equals(value, 0, value.length, bytes, start, end)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long parsePopulation(byte[] bytes, int start, int end) {
+    if (start == end || end - start > MAX_POPULATION_DIGITS) {
+      return 0;
+    }
+    long population = 0;
+    for (int i = start; i < end; i++) {
+      if (bytes[i] < '0' || bytes[i] > '9') {
+        return 0;
+      }
+      population = population * 10 + (bytes[i] - '0');
+    }
+    return population;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("IngestFilter{kept=%d, dropped=%d}", getKeptCount(), getDroppedCount());
+  }
+
+  public static class Builder {
+
+    private byte[][] featureClasses;
+    private byte[][] featureCodes;
+    private long minPopulation;
+
+    /**
+     * Keeps only the rows of the given feature classes, e.g. "P" for populated places.
+     *
+     * @param featureClasses the wanted feature classes
+     * @return this builder
+     */
+    public Builder featureClasses(String... featureClasses) {
+      this.featureClasses = toBytes(featureClasses);
+      return this;
+    }
+
+    /**
+     * Keeps only the rows of the given feature codes, e.g. "PPL" or "PPLA".
+     *
+     * @param featureCodes the wanted feature codes
+     * @return this builder
+     */
+    public Builder featureCodes(String... featureCodes) {
+      this.featureCodes = toBytes(featureCodes);
+      return this;
+    }
+
+    /**
+     * Keeps only the rows whose population is at least the given one.
+     *
+     * @param minPopulation the minimum population
+     * @return this builder
+     */
+    public Builder minPopulation(long minPopulation) {
+      this.minPopulation = minPopulation;
+      return this;
+    }
+
+    public IngestFilter build() {
+      return new IngestFilter(featureClasses, featureCodes, minPopulation);
+    }
+
+    private static byte[][] toBytes(String... values) {
+      return Arrays.stream(values).map(value -> value.getBytes(StandardCharsets.UTF_8))
+          .toArray(byte[][]::new);
+    }
+  }
+}
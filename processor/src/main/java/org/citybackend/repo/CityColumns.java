@@ -0,0 +1,232 @@
+package org.citybackend.repo;
+
+import java.util.AbstractList;
+import java.util.Objects;
+import java.util.RandomAccess;
+import org.citybackend.city.City;
+import org.citybackend.index.StaticRanks;
+
+/**
+ * {@code City}s of a {@code ColumnarCityRepo}, as returned by its lookups.
+ *
+ * <p>The columns of the {@code City}s can be read by position without creating any object, e.g.
+ * to score names: {@link #getNameChars()} is the arena shared by all the names, and the name of a
+ * {@code City} is the range starting at {@link #getNameOffset(int)} of length {@link
+ * #getNameLength(int)}. {@code City}s are only created by {@link #get(int)}, each time it is
+ * called.</p>
+ *
+ * <p>The {@code City}s found by their search keys, e.g. by prefix, are listed once with the
+ * normalized keys they were found by, which are ranges of {@link #getKeyChars()}, see {@link
+ * #getMatchedKeyCount(int)}. The other ones are matched by their normalized name.</p>
+ *
+ * <p>The rows are listed in ascending order, hence by descending static rank within a country
+ * code, and the highest static rank of the rows left after each position is kept, see {@link
+ * #getStaticRankBound(int)}.</p>
+ */
+public final class CityColumns extends AbstractList<City> implements RandomAccess {
+
+  private final ColumnarCityRepo repository;
+  private final int start;
+  private final int size;
+  private final int[] rows;
+  private final int[] matchedKeyStarts;
+  private final int[] matchedKeys;
+  /**
+   * The static rank bound of each position, {@code null} for a range of rows, whose rows are
+   * ordered by descending static rank.
+   */
+  private final double[] staticRankBounds;
+
+  /**
+   * Creates the {@code CityColumns} of a range of rows of a country code.
+   */
+  CityColumns(ColumnarCityRepo repository, int start, int end) {
+    this.repository = repository;
+    this.start = start;
+    this.size = end - start;
+    this.rows = null;
+    this.matchedKeyStarts = null;
+    this.matchedKeys = null;
+    this.staticRankBounds = null;
+  }
+
+  /**
+   * Creates the {@code CityColumns} of the given rows.
+   */
+  CityColumns(ColumnarCityRepo repository, int[] rows) {
+    this(repository, rows, null, null);
+  }
+
+  /**
+   * Creates the {@code CityColumns} of the given rows, found by the given keys: the keys of the row
+   * at position {@code i} are the ones from {@code matchedKeyStarts[i]} to {@code
+   * matchedKeyStarts[i + 1]} in {@code matchedKeys}.
+   */
+  CityColumns(ColumnarCityRepo repository, int[] rows, int[] matchedKeyStarts,
+      int[] matchedKeys) {
+    this.repository = repository;
+    this.start = 0;
+    this.size = rows.length;
+    this.rows = rows;
+    this.matchedKeyStarts = matchedKeyStarts;
+    this.matchedKeys = matchedKeys;
+    this.staticRankBounds = new double[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      staticRankBounds[i] = repository.staticRanks[rows[i]];
+    }
+    StaticRanks.fillBounds(staticRankBounds, staticRankBounds, rows.length);
+  }
+
+  @Override
+  public City get(int index) {
+    return repository.city(row(index));
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  public long getGeonameId(int index) {
+    return repository.geonameIds[row(index)];
+  }
+
+  /**
+   * Returns the name of the {@code City} at the given position, empty if it is unknown.
+   *
+   * @param index the position of the {@code City}
+   * @return the name of the {@code City}
+   */
+  public String getName(int index) {
+    int row = row(index);
+    int offset = repository.nameOffsets[row];
+    return new String(repository.names, offset, repository.nameOffsets[row + 1] - offset);
+  }
+
+  /**
+   * Returns the arena holding the names of all the {@code City}s. It must not be modified.
+   *
+   * @return the arena holding the names of all the {@code City}s
+   */
+  public char[] getNameChars() {
+    return repository.names;
+  }
+
+  public int getNameOffset(int index) {
+    return repository.nameOffsets[row(index)];
+  }
+
+  public int getNameLength(int index) {
+    int row = row(index);
+    return repository.nameOffsets[row + 1] - repository.nameOffsets[row];
+  }
+
+  /**
+   * Returns the arena holding the normalized search keys of all the {@code City}s. It must not be
+   * modified.
+   *
+   * @return the arena holding the normalized search keys of all the {@code City}s
+   */
+  public char[] getKeyChars() {
+    return repository.keyChars;
+  }
+
+  /**
+   * Returns the number of keys the {@code City} at the given position was found by, 1 if it is
+   * matched by its normalized name.
+   *
+   * @param index the position of the {@code City}
+   * @return the number of keys the {@code City} was found by
+   */
+  public int getMatchedKeyCount(int index) {
+    Objects.checkIndex(index, size);
+    return matchedKeys == null ? 1 : matchedKeyStarts[index + 1] - matchedKeyStarts[index];
+  }
+
+  /**
+   * Returns the offset in {@link #getKeyChars()} of a key the {@code City} at the given position
+   * was found by.
+   *
+   * @param index      the position of the {@code City}
+   * @param matchedKey the position of the key, less than {@link #getMatchedKeyCount(int)}
+   * @return the offset of the key
+   */
+  public int getMatchedKeyOffset(int index, int matchedKey) {
+    return repository.keyOffsets[key(index, matchedKey)];
+  }
+
+  public int getMatchedKeyLength(int index, int matchedKey) {
+    int key = key(index, matchedKey);
+    return repository.keyOffsets[key + 1] - repository.keyOffsets[key];
+  }
+
+  public boolean hasCoordinates(int index) {
+    int row = row(index);
+    return !Double.isNaN(repository.latitudes[row]) && !Double.isNaN(repository.longitudes[row]);
+  }
+
+  /**
+   * Returns the latitude of the {@code City} at the given position, {@code Double.NaN} if it is
+   * unknown.
+   *
+   * @param index the position of the {@code City}
+   * @return the latitude of the {@code City}
+   */
+  public double getLatitude(int index) {
+    return repository.latitudes[row(index)];
+  }
+
+  /**
+   * Returns the longitude of the {@code City} at the given position, {@code Double.NaN} if it is
+   * unknown.
+   *
+   * @param index the position of the {@code City}
+   * @return the longitude of the {@code City}
+   */
+  public double getLongitude(int index) {
+    return repository.longitudes[row(index)];
+  }
+
+  /**
+   * Returns the population of the {@code City} at the given position, 0 if it is unknown.
+   *
+   * @param index the position of the {@code City}
+   * @return the population of the {@code City}
+   */
+  public long getPopulation(int index) {
+    return repository.populations[row(index)];
+  }
+
+  /**
+   * Returns the static rank of the {@code City} at the given position, see {@code StaticRanks}.
+   *
+   * @param index the position of the {@code City}
+   * @return the static rank of the {@code City}
+   */
+  public double getStaticRank(int index) {
+    return repository.staticRanks[row(index)];
+  }
+
+  /**
+   * Returns the highest static rank of the {@code City}s from the given position to the end of the
+   * list.
+   *
+   * @param index the position of a {@code City}
+   * @return the highest static rank from the position to the end of the list
+   */
+  public double getStaticRankBound(int index) {
+    Objects.checkIndex(index, size);
+    return staticRankBounds == null ? getStaticRank(index) : staticRankBounds[index];
+  }
+
+  private int key(int index, int matchedKey) {
+    Objects.checkIndex(matchedKey, getMatchedKeyCount(index));
+    return matchedKeys == null ? repository.keyStarts[row(index)]
+        : matchedKeys[matchedKeyStarts[index] + matchedKey];
+  }
+
+  private int row(int index) {
+    Objects.checkIndex(index, size);
+    return rows == null ? start + index : rows[index];
+  }
+}
@@ -0,0 +1,172 @@
+package org.citybackend.repo;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.HashSet;
+import java.util.Set;
+import org.citybackend.city.City;
+
+/**
+ * Binary encoding of {@code City}s, shared by {@code CityRepositorySnapshot} and {@code
+ * ColumnarCityRepo}.
+ *
+ * <p>A record holds the text fields of a {@code City}, then a byte of flags telling which of the
+ * optional fields follow. Numbers are big-endian, strings are UTF-8 bytes preceded by their length
+ * (-1 for {@code null}).</p>
+ */
+final class CityRecords {
+
+  private static final int NULL_LENGTH = -1;
+  private static final int HAS_LATITUDE = 1;
+  private static final int HAS_LONGITUDE = 1 << 1;
+  private static final int HAS_POPULATION = 1 << 2;
+  private static final int HAS_ELEVATION = 1 << 3;
+  private static final int HAS_DEM = 1 << 4;
+  private static final int HAS_TIME_ZONE = 1 << 5;
+  private static final int HAS_MODIFICATION_DATE = 1 << 6;
+
+  private CityRecords() {
+  }
+
+  /**
+   * Writes the record of a {@code City}.
+   *
+   * @param out  the output to write to
+   * @param city the {@code City} to write
+   * @throws IOException if the record cannot be written
+   */
+  static void write(DataOutput out, City city) throws IOException {
+    writeString(out, city.getGeonameId());
+    writeString(out, city.getName());
+    writeString(out, city.getAsciiName());
+    Set<String> alternateNames = city.getAlternateNames();
+    if (alternateNames == null) {
+      out.writeInt(NULL_LENGTH);
+    } else {
+      out.writeInt(alternateNames.size());
+      for (String alternateName : alternateNames) {
+        writeString(out, alternateName);
+      }
+    }
+    writeString(out, city.getFeatureClass());
+    writeString(out, city.getFeatureCode());
+    writeString(out, city.getCountryCode());
+    writeString(out, city.getAlternateCountryCode());
+    writeString(out, city.getAdmin1());
+    writeString(out, city.getAdmin2());
+    writeString(out, city.getAdmin3());
+    writeString(out, city.getAdmin4());
+    int flags = (city.getLatitude() != null ? HAS_LATITUDE : 0)
+        | (city.getLongitude() != null ? HAS_LONGITUDE : 0)
+        | (city.getPopulation() != null ? HAS_POPULATION : 0)
+        | (city.getElevation() != null ? HAS_ELEVATION : 0)
+        | (city.getDem() != null ? HAS_DEM : 0)
+        | (city.getTimeZone() != null ? HAS_TIME_ZONE : 0)
+        | (city.getModificationDate() != null ? HAS_MODIFICATION_DATE : 0);
+    out.writeByte(flags);
+    if (city.getLatitude() != null) {
+      out.writeDouble(city.getLatitude());
+    }
+    if (city.getLongitude() != null) {
+      out.writeDouble(city.getLongitude());
+    }
+    if (city.getPopulation() != null) {
+      out.writeLong(city.getPopulation());
+    }
+    if (city.getElevation() != null) {
+      out.writeInt(city.getElevation());
+    }
+    if (city.getDem() != null) {
+      out.writeInt(city.getDem());
+    }
+    if (city.getTimeZone() != null) {
+      writeString(out, city.getTimeZone().getID());
+    }
+    if (city.getModificationDate() != null) {
+      out.writeLong(city.getModificationDate().toEpochDay());
+    }
+  }
+
+  /**
+   * Reads the record of a {@code City} at the position of a buffer, and moves the position after
+   * the record.
+   *
+   * @param in      the buffer to read from
+   * @param scratch a buffer for strings of buffers that are not backed by an array, grown if needed
+   * @return the {@code City} of the record
+   */
+  static City read(ByteBuffer in, byte[] scratch) {
+    City.Builder builder = new City.Builder()
+        .geonameId(readString(in, scratch))
+        .name(readString(in, scratch))
+        .asciiName(readString(in, scratch));
+    int alternateNameCount = in.getInt();
+    if (alternateNameCount != NULL_LENGTH) {
+      Set<String> alternateNames = new HashSet<>();
+      for (int i = 0; i < alternateNameCount; i++) {
+        alternateNames.add(readString(in, scratch));
+      }
+      builder.alternateNames(alternateNames);
+    }
+    builder.featureClass(readString(in, scratch))
+        .featureCode(readString(in, scratch))
+        .countryCode(readString(in, scratch))
+        .alternateCountryCode(readString(in, scratch))
+        .admin1(readString(in, scratch))
+        .admin2(readString(in, scratch))
+        .admin3(readString(in, scratch))
+        .admin4(readString(in, scratch));
+    int flags = in.get();
+    if ((flags & HAS_LATITUDE) != 0) {
+      builder.latitude(in.getDouble());
+    }
+    if ((flags & HAS_LONGITUDE) != 0) {
+      builder.longitude(in.getDouble());
+    }
+    if ((flags & HAS_POPULATION) != 0) {
+      builder.population(in.getLong());
+    }
+    if ((flags & HAS_ELEVATION) != 0) {
+      builder.elevation(in.getInt());
+    }
+    if ((flags & HAS_DEM) != 0) {
+      builder.dem(in.getInt());
+    }
+    if ((flags & HAS_TIME_ZONE) != 0) {
+      builder.timeZone(readString(in, scratch));
+    }
+    if ((flags & HAS_MODIFICATION_DATE) != 0) {
+      builder.modificationDate(LocalDate.ofEpochDay(in.getLong()));
+    }
+    return builder.build();
+  }
+
+  static void writeString(DataOutput out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(NULL_LENGTH);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(ByteBuffer in, byte[] scratch) {
+    int length = in.getInt();
+    if (length == NULL_LENGTH) {
+      return null;
+    }
+    if (in.hasArray()) {
+      String value = new String(in.array(), in.arrayOffset() + in.position(), length,
+          StandardCharsets.UTF_8);
+      in.position(in.position() + length);
+      return value;
+    }
+    byte[] bytes = length <= scratch.length ? scratch : new byte[length];
+    in.get(bytes, 0, length);
+    return new String(bytes, 0, length, StandardCharsets.UTF_8);
+  }
+}
@@ -7,6 +7,10 @@ import org.citybackend.city.City;
 
 /**
  * Storage for {@code City}s.
+ *
+ * <p>The name lookups match the search keys of the {@code City}s, i.e. their name, ascii name and
+ * alternate names, see {@code SearchKeys}. Each {@code City} is returned once, however many of its
+ * keys match.</p>
  */
 public interface CityRepository {
 
@@ -17,4 +21,70 @@ public interface CityRepository {
   ListMultimap<String, City> byCountryCodeMap();
 
   List<City> forCountryCodes(String... countryCodes);
+
+  /**
+   * Returns the {@code City}s with a normalized search key starting with the normalized prefix, in
+   * the same relative order as {@link #forCountryCodes(String...)}.
+   *
+   * @param prefix       the prefix to look for
+   * @param countryCodes the country codes of the desired cities
+   * @return the {@code City}s with a key starting with the prefix
+   */
+  List<City> forPrefix(String prefix, String... countryCodes);
+
+  /**
+   * Returns the {@code City}s located within the given great-circle distance of a location, in the
+   * same relative order as {@link #forCountryCodes(String...)}.
+   *
+   * @param latitude      the latitude of the location
+   * @param longitude     the longitude of the location
+   * @param maxDistanceKm the maximum distance with the location, in kilometers
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s located around the location
+   */
+  List<City> near(double latitude, double longitude, double maxDistanceKm,
+      String... countryCodes);
+
+  /**
+   * Returns the {@code City}s that are returned by both {@link #forPrefix(String, String...)} and
+   * {@link #near(double, double, double, String...)}.
+   *
+   * @param prefix        the prefix to look for
+   * @param latitude      the latitude of the location
+   * @param longitude     the longitude of the location
+   * @param maxDistanceKm the maximum distance with the location, in kilometers
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s with a key starting with the prefix located around the location
+   */
+  List<City> forPrefixNear(String prefix, double latitude, double longitude,
+      double maxDistanceKm, String... countryCodes);
+
+  /**
+   * Returns the {@code City}s with a normalized search key sharing the most trigrams with the
+   * normalized query, e.g. to suggest names in spite of typos, in the same relative order as
+   * {@link #forCountryCodes(String...)}. At most {@code maxCandidates} keys are kept per country
+   * code, see {@code TrigramIndex}, hence at most as many {@code City}s.
+   *
+   * @param query         the query to look for
+   * @param maxCandidates the maximum number of keys per country code
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s with a key similar to the query
+   */
+  List<City> forSimilarName(String query, int maxCandidates, String... countryCodes);
+
+  /**
+   * Returns the {@code City}s with a normalized search key sharing the most trigrams with the
+   * normalized query among the ones returned by {@link #near(double, double, double, String...)},
+   * see {@link #forSimilarName(String, int, String...)}.
+   *
+   * @param query         the query to look for
+   * @param maxCandidates the maximum number of keys per country code
+   * @param latitude      the latitude of the location
+   * @param longitude     the longitude of the location
+   * @param maxDistanceKm the maximum distance with the location, in kilometers
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s with a key similar to the query located around the location
+   */
+  List<City> forSimilarNameNear(String query, int maxCandidates, double latitude,
+      double longitude, double maxDistanceKm, String... countryCodes);
 }
@@ -0,0 +1,251 @@
+package org.citybackend.repo;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.io.CountingOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import org.citybackend.city.City;
+import org.citybackend.index.PrefixIndex;
+import org.citybackend.index.SearchKeys;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Binary snapshot of an {@code InMemoryCityRepo}, so that a repository can be restored from a
+ * local file instead of downloading and parsing geonames datasets.
+ *
+ * <p>The file starts with a header made of {@link #MAGIC} and {@link #VERSION}, followed by one
+ * section per country code, a table of contents and the offset of this table. A section holds the
+ * {@code City}s of a country code in ordinal order, then the number of its search keys and the
+ * sorted key ordinals of its {@code PrefixIndex}, so that the index is restored without sorting
+ * keys again: the keys themselves are derived from the {@code City}s, see {@code SearchKeys}. The
+ * table of contents lists the country code, offset and length of each section. Each section is
+ * memory-mapped when the snapshot is read. Numbers are big-endian, {@code City}s and strings are
+ * encoded as described in {@code CityRecords}.</p>
+ */
+public class CityRepositorySnapshot {
+
+  /**
+   * Magic number the snapshot files start with.
+   */
+  public static final int MAGIC = 0x43495459;
+  /**
+   * Version of the snapshot format, to be increased when the format changes, or when the
+   * normalization of the keys changes the order of the saved prefix indexes.
+   */
+  public static final int VERSION = 3;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger(CityRepositorySnapshot.class);
+  private static final int HEADER_SIZE = 8;
+  private static final int TRAILER_SIZE = 8;
+
+  private CityRepositorySnapshot() {
+  }
+
+  /**
+   * Loads a repository from a snapshot if it is fresh, otherwise loads it with {@code loader} and
+   * saves it as the new snapshot. A snapshot is fresh if it has been modified within {@code
+   * maxAge} and can be read, see {@link #read(Path)}.
+   * <p>
+   * The snapshot is only a cache: if it cannot be saved, the loaded repository is returned anyway
+   * and the next call loads it again. A repository missing the datasets of some country codes,
+   * see {@link InMemoryCityRepo#getFailedCountryCodes()}, is returned but not saved, so that the
+   * next call tries to load every dataset again.
+   * </p>
+   *
+   * @param file   the snapshot file
+   * @param maxAge the age after which the snapshot is stale
+   * @param loader loads the repository when the snapshot is missing or stale
+   * @return the repository
+   * @throws IOException        if the repository cannot be loaded by {@code loader}
+   * @throws URISyntaxException if the repository cannot be loaded by {@code loader}
+   */
+  public static InMemoryCityRepo readOrLoad(Path file, Duration maxAge, Loader loader)
+      throws IOException, URISyntaxException {
+    if (isFresh(file, maxAge)) {
+      try {
+        return read(file);
+      } catch (IOException e) {
+        // The snapshot is corrupted or has an older format: it is replaced below.
+        LOGGER.warn("Snapshot {} could not be read, the cities are loaded again", file, e);
+      }
+    }
+    InMemoryCityRepo repository = loader.load();
+    if (!repository.getFailedCountryCodes().isEmpty()) {
+      LOGGER.warn("Snapshot not saved, the cities of {} could not be loaded",
+          repository.getFailedCountryCodes());
+      return repository;
+    }
+    try {
+      write(repository, file);
+    } catch (IOException e) {
+      // The repository is served without snapshot.
+      LOGGER.warn("Snapshot {} could not be saved", file, e);
+    }
+    return repository;
+  }
+
+  /**
+   * Returns whether a snapshot exists and has been modified within {@code maxAge}.
+   *
+   * @param file   the snapshot file
+   * @param maxAge the age after which the snapshot is stale
+   * @return whether the snapshot exists and is not stale
+   */
+  public static boolean isFresh(Path file, Duration maxAge) {
+    try {
+      FileTime lastModified = Files.getLastModifiedTime(file);
+      return lastModified.toInstant().plus(maxAge).isAfter(Instant.now());
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Saves a repository to a snapshot file. The snapshot is written to a temporary file of the same
+   * directory that then replaces {@code file}, so that a snapshot being written is never read.
+   *
+   * @param repository the repository to save
+   * @param file       the snapshot file
+   * @throws IOException if the snapshot cannot be written
+   */
+  public static void write(InMemoryCityRepo repository, Path file) throws IOException {
+    Path directory = file.toAbsolutePath().getParent();
+    Files.createDirectories(directory);
+    Path tmpFile = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+    try {
+      try (CountingOutputStream counter = new CountingOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tmpFile)));
+          DataOutputStream out = new DataOutputStream(counter)) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        ListMultimap<String, City> byCountryCodeMap = repository.byCountryCodeMap();
+        List<String> countryCodes = new ArrayList<>(byCountryCodeMap.keySet());
+        long[] offsets = new long[countryCodes.size()];
+        for (int i = 0; i < countryCodes.size(); i++) {
+          String countryCode = countryCodes.get(i);
+          offsets[i] = counter.getCount();
+          writeSection(out, byCountryCodeMap.get(countryCode),
+              repository.prefixIndex(countryCode));
+        }
+        long tableOffset = counter.getCount();
+        out.writeInt(countryCodes.size());
+        for (int i = 0; i < countryCodes.size(); i++) {
+          CityRecords.writeString(out, countryCodes.get(i));
+          out.writeLong(offsets[i]);
+          out.writeLong((i + 1 < countryCodes.size() ? offsets[i + 1] : tableOffset) - offsets[i]);
+        }
+        out.writeLong(tableOffset);
+      }
+      Files.move(tmpFile, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      Files.deleteIfExists(tmpFile);
+    }
+  }
+
+  /**
+   * Restores a repository from a snapshot file.
+   *
+   * @param file the snapshot file
+   * @return the repository
+   * @throws IOException if the snapshot cannot be read, is truncated or has another format version
+   */
+  public static InMemoryCityRepo read(Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (size < HEADER_SIZE + TRAILER_SIZE) {
+        throw new IOException("Truncated snapshot: " + file);
+      }
+      MappedByteBuffer header = channel.map(MapMode.READ_ONLY, 0, HEADER_SIZE);
+      if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+        throw new IOException("Unsupported snapshot format: " + file);
+      }
+      long tableOffset = channel.map(MapMode.READ_ONLY, size - TRAILER_SIZE, TRAILER_SIZE)
+          .getLong();
+      if (tableOffset < HEADER_SIZE || tableOffset > size - TRAILER_SIZE) {
+        throw new IOException("Truncated snapshot: " + file);
+      }
+      MappedByteBuffer table = map(channel, tableOffset, size - TRAILER_SIZE - tableOffset);
+      HashMap<String, City> cities = new HashMap<>();
+      ListMultimap<String, City> byCountryCodeMap = ArrayListMultimap.create();
+      HashMap<String, SearchKeys> searchKeysByCountryCode = new HashMap<>();
+      HashMap<String, PrefixIndex> prefixIndexByCountryCode = new HashMap<>();
+      byte[] scratch = new byte[256];
+      int countryCount = table.getInt();
+      for (int i = 0; i < countryCount; i++) {
+        String countryCode = CityRecords.readString(table, scratch);
+        long offset = table.getLong();
+        long length = table.getLong();
+        if (offset < HEADER_SIZE || offset + length > tableOffset) {
+          throw new IOException("Truncated snapshot: " + file);
+        }
+        MappedByteBuffer section = map(channel, offset, length);
+        List<City> countryCities = byCountryCodeMap.get(countryCode);
+        int cityCount = section.getInt();
+        for (int j = 0; j < cityCount; j++) {
+          City city = CityRecords.read(section, scratch);
+          countryCities.add(city);
+          cities.put(city.getGeonameId(), city);
+        }
+        SearchKeys searchKeys = SearchKeys.fromCities(countryCities);
+        int[] sortedOrdinals = new int[section.getInt()];
+        section.asIntBuffer().get(sortedOrdinals);
+        searchKeysByCountryCode.put(countryCode, searchKeys);
+        prefixIndexByCountryCode.put(countryCode,
+            PrefixIndex.fromSortedOrdinals(searchKeys.getKeys(), sortedOrdinals));
+      }
+      return new InMemoryCityRepo(cities, byCountryCodeMap, searchKeysByCountryCode,
+          prefixIndexByCountryCode, Collections.emptyMap(), Collections.emptyMap());
+    } catch (RuntimeException e) {
+      // Out of bounds reads of a corrupted snapshot.
+      throw new IOException("Corrupted snapshot: " + file, e);
+    }
+  }
+
+  private static MappedByteBuffer map(FileChannel channel, long offset, long length)
+      throws IOException {
+    if (length > Integer.MAX_VALUE) {
+      throw new IOException("Snapshot section too large to be mapped: " + length + " bytes");
+    }
+    return channel.map(MapMode.READ_ONLY, offset, length);
+  }
+
+  private static void writeSection(DataOutputStream out, List<City> countryCities,
+      PrefixIndex prefixIndex) throws IOException {
+    out.writeInt(countryCities.size());
+    for (City city : countryCities) {
+      CityRecords.write(out, city);
+    }
+    out.writeInt(prefixIndex.size());
+    for (int ordinal : prefixIndex.getSortedOrdinals()) {
+      out.writeInt(ordinal);
+    }
+  }
+
+  /**
+   * Loads a repository when its snapshot is missing or stale, e.g. from geonames datasets.
+   */
+  @FunctionalInterface
+  public interface Loader {
+
+    InMemoryCityRepo load() throws IOException, URISyntaxException;
+  }
+}
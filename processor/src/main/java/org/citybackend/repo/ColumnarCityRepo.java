@@ -0,0 +1,417 @@
+package org.citybackend.repo;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import org.citybackend.city.City;
+import org.citybackend.index.Ordinals;
+import org.citybackend.index.PrefixIndex;
+import org.citybackend.index.SearchKeys;
+import org.citybackend.index.SpatialGridIndex;
+import org.citybackend.index.StaticRanks;
+import org.citybackend.index.TrigramIndex;
+
+/**
+ * Columnar implementation of {@code CityRepository}.
+ *
+ * <p>{@code City}s are stored by row in parallel primitive arrays instead of objects: geonameIds,
+ * coordinates ({@code Double.NaN} when unknown), populations (0 when unknown) and static ranks,
+ * see {@code StaticRanks}, are columns, names are ranges of a single {@code char} arena, the
+ * normalized search keys of each row, i.e. its normalized name followed by its other {@code
+ * SearchKeys}, are contiguous ranges of another one, and the other fields are kept as binary
+ * records, see {@code CityRecords}. The rows of a country code are contiguous and ordered by
+ * descending static rank, and so are their keys: the spatial index of a country code uses the
+ * position of a row in its range as ordinal, its name indexes use the position of a key in its
+ * range.</p>
+ *
+ * <p>Lookups return {@code CityColumns}, whose columns can be scanned without creating any
+ * object. A {@code City} is only created when it is requested, and is not kept.</p>
+ */
+public class ColumnarCityRepo implements CityRepository {
+
+  private static final int RECORD_PAGE_SIZE = 1 << 24;
+  private static final byte[] NO_SCRATCH = new byte[0];
+  private static final String EMPTY = "";
+
+  final long[] geonameIds;
+  final double[] latitudes;
+  final double[] longitudes;
+  final long[] populations;
+  final double[] staticRanks;
+  final char[] names;
+  final int[] nameOffsets;
+  final char[] keyChars;
+  /**
+   * The offset of each key in {@link #keyChars}, followed by the length of the arena.
+   */
+  final int[] keyOffsets;
+  /**
+   * The first key of each row, which is its name, followed by the number of keys.
+   */
+  final int[] keyStarts;
+  final int[] keyRows;
+  private final byte[][] recordPages;
+  /**
+   * The page of a record in the upper 32 bits, its offset in the page in the lower ones.
+   */
+  private final long[] recordAddresses;
+  private final long[] sortedGeonameIds;
+  private final int[] rowsBySortedGeonameId;
+  private final LinkedHashMap<String, CountryRows> rowsByCountryCode = new LinkedHashMap<>();
+
+  private ColumnarCityRepo(LinkedHashMap<String, List<City>> byCountryCode, int rowCount) {
+    geonameIds = new long[rowCount];
+    latitudes = new double[rowCount];
+    longitudes = new double[rowCount];
+    populations = new long[rowCount];
+    staticRanks = new double[rowCount];
+    nameOffsets = new int[rowCount + 1];
+    keyStarts = new int[rowCount + 1];
+    recordAddresses = new long[rowCount];
+    StringBuilder nameArena = new StringBuilder();
+    StringBuilder keyArena = new StringBuilder();
+    List<Integer> offsets = new ArrayList<>();
+    offsets.add(0);
+    List<byte[]> pages = new ArrayList<>();
+    byte[] page = new byte[0];
+    int pageSize = 0;
+    ByteArrayOutputStream record = new ByteArrayOutputStream();
+    DataOutputStream recordOut = new DataOutputStream(record);
+    int row = 0;
+    for (Map.Entry<String, List<City>> entry : byCountryCode.entrySet()) {
+      List<City> countryCities = entry.getValue();
+      SearchKeys searchKeys = SearchKeys.fromCities(countryCities);
+      int start = row;
+      for (City city : countryCities) {
+        geonameIds[row] = parseGeonameId(city.getGeonameId());
+        latitudes[row] = city.hasLatitude() ? city.getLatitude() : Double.NaN;
+        longitudes[row] = city.hasLongitude() ? city.getLongitude() : Double.NaN;
+        populations[row] = city.getPopulation() != null ? city.getPopulation() : 0;
+        staticRanks[row] = StaticRanks.of(populations[row]);
+        nameArena.append(city.getName() != null ? city.getName() : EMPTY);
+        nameOffsets[row + 1] = nameArena.length();
+        for (String key : searchKeys.getKeys(row - start)) {
+          keyArena.append(key);
+          offsets.add(keyArena.length());
+        }
+        keyStarts[row + 1] = offsets.size() - 1;
+        record.reset();
+        try {
+          CityRecords.write(recordOut, city);
+        } catch (IOException e) {
+          // Not thrown by a ByteArrayOutputStream.
+          throw new UncheckedIOException(e);
+        }
+        if (pageSize + record.size() > page.length) {
+          page = new byte[Math.max(RECORD_PAGE_SIZE, record.size())];
+          pageSize = 0;
+          pages.add(page);
+        }
+        System.arraycopy(record.toByteArray(), 0, page, pageSize, record.size());
+        recordAddresses[row] = ((long) (pages.size() - 1) << 32) | pageSize;
+        pageSize += record.size();
+        row++;
+      }
+      rowsByCountryCode.put(entry.getKey(), new CountryRows(start, row,
+          PrefixIndex.fromNames(searchKeys.getKeys()),
+          SpatialGridIndex.fromCoordinates(Arrays.copyOfRange(latitudes, start, row),
+              Arrays.copyOfRange(longitudes, start, row)),
+          TrigramIndex.fromNames(searchKeys.getKeys())));
+    }
+    if (!pages.isEmpty()) {
+      pages.set(pages.size() - 1, Arrays.copyOf(page, pageSize));
+    }
+    names = new char[nameArena.length()];
+    nameArena.getChars(0, names.length, names, 0);
+    keyChars = new char[keyArena.length()];
+    keyArena.getChars(0, keyChars.length, keyChars, 0);
+    keyOffsets = offsets.stream().mapToInt(Integer::intValue).toArray();
+    keyRows = new int[keyOffsets.length - 1];
+    for (int keyRow = 0; keyRow < rowCount; keyRow++) {
+      Arrays.fill(keyRows, keyStarts[keyRow], keyStarts[keyRow + 1], keyRow);
+    }
+    recordPages = pages.toArray(new byte[0][]);
+    rowsBySortedGeonameId = IntStream.range(0, rowCount).boxed()
+        .sorted(Comparator.comparingLong(sortedRow -> geonameIds[sortedRow]))
+        .mapToInt(Integer::intValue)
+        .toArray();
+    sortedGeonameIds = new long[rowCount];
+    for (int i = 0; i < rowCount; i++) {
+      sortedGeonameIds[i] = geonameIds[rowsBySortedGeonameId[i]];
+    }
+  }
+
+  /**
+   * Creates an instance of {@code ColumnarCityRepo} from already parsed {@code City}s. When several
+   * {@code City}s share the same geonameId, the first one is kept. Country codes are stored in the
+   * order in which they first appear, and the {@code City}s of a country code by descending static
+   * rank.
+   *
+   * @param cities the {@code City}s to store
+   * @return an instance of {@code ColumnarCityRepo}
+   * @throws IllegalArgumentException if a geonameId is not a number
+   */
+  public static ColumnarCityRepo createFromCities(Collection<City> cities) {
+    HashMap<String, City> citiesByGeonameId = new HashMap<>();
+    LinkedHashMap<String, List<City>> byCountryCode = new LinkedHashMap<>();
+    for (City city : cities) {
+      if (citiesByGeonameId.putIfAbsent(city.getGeonameId(), city) == null) {
+        byCountryCode.computeIfAbsent(city.getCountryCode(), countryCode -> new ArrayList<>())
+            .add(city);
+      }
+    }
+    for (List<City> countryCities : byCountryCode.values()) {
+      countryCities.sort(StaticRanks.BY_DESCENDING_RANK);
+    }
+    return new ColumnarCityRepo(byCountryCode, citiesByGeonameId.size());
+  }
+
+  private static long parseGeonameId(String geonameId) {
+    try {
+      return Long.parseLong(geonameId);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid geonameId: " + geonameId, e);
+    }
+  }
+
+  /**
+   * Creates the {@code City} of a row.
+   */
+  City city(int row) {
+    long address = recordAddresses[row];
+    byte[] page = recordPages[(int) (address >>> 32)];
+    int offset = (int) address;
+    return CityRecords.read(ByteBuffer.wrap(page, offset, page.length - offset), NO_SCRATCH);
+  }
+
+  @Override
+  public City getByGeonameId(String geonameId) {
+    long id;
+    try {
+      id = Long.parseLong(geonameId);
+    } catch (NumberFormatException e) {
+      return null;
+    }
+    int position = Arrays.binarySearch(sortedGeonameIds, id);
+    return position >= 0 ? city(rowsBySortedGeonameId[position]) : null;
+  }
+
+  /**
+   * Returns all {@code City}s mapped by geonameId. The map is built on each call.
+   *
+   * @return all {@code City}s mapped by geonameId.
+   */
+  @Override
+  public HashMap<String, City> byGeonameIdMap() {
+    HashMap<String, City> cities = new HashMap<>();
+    for (int row = 0; row < geonameIds.length; row++) {
+      City city = city(row);
+      cities.put(city.getGeonameId(), city);
+    }
+    return cities;
+  }
+
+  /**
+   * Returns all {@code City}s mapped by country code. The map is built on each call.
+   *
+   * @return all {@code City}s mapped by country code.
+   */
+  @Override
+  public ListMultimap<String, City> byCountryCodeMap() {
+    ListMultimap<String, City> byCountryCodeMap = ArrayListMultimap.create();
+    for (Map.Entry<String, CountryRows> entry : rowsByCountryCode.entrySet()) {
+      byCountryCodeMap.putAll(entry.getKey(),
+          new CityColumns(this, entry.getValue().start, entry.getValue().end));
+    }
+    return byCountryCodeMap;
+  }
+
+  @Override
+  public CityColumns forCountryCodes(String... countryCodes) {
+    if (countryCodes.length == 1) {
+      CountryRows rows = rowsByCountryCode.get(countryCodes[0]);
+      return rows != null ? new CityColumns(this, rows.start, rows.end)
+          : new CityColumns(this, 0, 0);
+    }
+    int size = 0;
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      size += rows != null ? rows.end - rows.start : 0;
+    }
+    int[] selectedRows = new int[size];
+    size = 0;
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      if (rows != null) {
+        for (int row = rows.start; row < rows.end; row++) {
+          selectedRows[size++] = row;
+        }
+      }
+    }
+    return new CityColumns(this, selectedRows);
+  }
+
+  @Override
+  public CityColumns forPrefix(String prefix, String... countryCodes) {
+    List<int[]> ordinals = new ArrayList<>();
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      ordinals.add(rows != null ? rows.prefixIndex.lookup(prefix) : null);
+    }
+    return selectKeys(ordinals, countryCodes);
+  }
+
+  @Override
+  public CityColumns near(double latitude, double longitude, double maxDistanceKm,
+      String... countryCodes) {
+    List<int[]> ordinals = new ArrayList<>();
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      ordinals.add(rows != null
+          ? rows.spatialIndex.withinDistance(latitude, longitude, maxDistanceKm) : null);
+    }
+    return select(ordinals, countryCodes);
+  }
+
+  @Override
+  public CityColumns forPrefixNear(String prefix, double latitude, double longitude,
+      double maxDistanceKm, String... countryCodes) {
+    List<int[]> ordinals = new ArrayList<>();
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      ordinals.add(rows != null ? Ordinals.intersect(rows.prefixIndex.lookup(prefix),
+          keyOrdinals(rows, rows.spatialIndex.withinDistance(latitude, longitude, maxDistanceKm)))
+          : null);
+    }
+    return selectKeys(ordinals, countryCodes);
+  }
+
+  @Override
+  public CityColumns forSimilarName(String query, int maxCandidates, String... countryCodes) {
+    List<int[]> ordinals = new ArrayList<>();
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      ordinals.add(rows != null ? rows.trigramIndex.lookup(query, maxCandidates) : null);
+    }
+    return selectKeys(ordinals, countryCodes);
+  }
+
+  @Override
+  public CityColumns forSimilarNameNear(String query, int maxCandidates, double latitude,
+      double longitude, double maxDistanceKm, String... countryCodes) {
+    List<int[]> ordinals = new ArrayList<>();
+    for (String countryCode : countryCodes) {
+      CountryRows rows = rowsByCountryCode.get(countryCode);
+      ordinals.add(rows != null ? rows.trigramIndex.lookup(query, maxCandidates,
+          keyOrdinals(rows, rows.spatialIndex.withinDistance(latitude, longitude, maxDistanceKm)))
+          : null);
+    }
+    return selectKeys(ordinals, countryCodes);
+  }
+
+  /**
+   * Returns the rows of the given ordinals of each country code, {@code null} ordinals being
+   * skipped.
+   */
+  private CityColumns select(List<int[]> ordinals, String... countryCodes) {
+    int size = 0;
+    for (int[] countryOrdinals : ordinals) {
+      size += countryOrdinals != null ? countryOrdinals.length : 0;
+    }
+    int[] selectedRows = new int[size];
+    size = 0;
+    for (int i = 0; i < countryCodes.length; i++) {
+      if (ordinals.get(i) != null) {
+        int start = rowsByCountryCode.get(countryCodes[i]).start;
+        for (int ordinal : ordinals.get(i)) {
+          selectedRows[size++] = start + ordinal;
+        }
+      }
+    }
+    return new CityColumns(this, selectedRows);
+  }
+
+  /**
+   * Returns the rows of the given key ordinals of each country code, each row once with the keys
+   * it was found by, {@code null} ordinals being skipped.
+   */
+  private CityColumns selectKeys(List<int[]> keyOrdinals, String... countryCodes) {
+    int keyCount = 0;
+    for (int[] countryKeyOrdinals : keyOrdinals) {
+      keyCount += countryKeyOrdinals != null ? countryKeyOrdinals.length : 0;
+    }
+    int[] selectedRows = new int[keyCount];
+    int[] matchedKeyStarts = new int[keyCount + 1];
+    int[] matchedKeys = new int[keyCount];
+    int size = 0;
+    keyCount = 0;
+    for (int i = 0; i < countryCodes.length; i++) {
+      if (keyOrdinals.get(i) == null) {
+        continue;
+      }
+      int keyStart = keyStarts[rowsByCountryCode.get(countryCodes[i]).start];
+      for (int keyOrdinal : keyOrdinals.get(i)) {
+        int key = keyStart + keyOrdinal;
+        if (size == 0 || selectedRows[size - 1] != keyRows[key]) {
+          selectedRows[size++] = keyRows[key];
+        }
+        matchedKeys[keyCount++] = key;
+        matchedKeyStarts[size] = keyCount;
+      }
+    }
+    return new CityColumns(this, Arrays.copyOf(selectedRows, size),
+        Arrays.copyOf(matchedKeyStarts, size + 1), matchedKeys);
+  }
+
+  /**
+   * Returns the ordinals of the keys of the given row ordinals of a country code, in ascending
+   * order.
+   */
+  private int[] keyOrdinals(CountryRows rows, int[] ordinals) {
+    int keyStart = keyStarts[rows.start];
+    int size = 0;
+    for (int ordinal : ordinals) {
+      size += keyStarts[rows.start + ordinal + 1] - keyStarts[rows.start + ordinal];
+    }
+    int[] toReturn = new int[size];
+    size = 0;
+    for (int ordinal : ordinals) {
+      for (int key = keyStarts[rows.start + ordinal]; key < keyStarts[rows.start + ordinal + 1];
+          key++) {
+        toReturn[size++] = key - keyStart;
+      }
+    }
+    return toReturn;
+  }
+
+  private static class CountryRows {
+
+    private final int start;
+    private final int end;
+    private final PrefixIndex prefixIndex;
+    private final SpatialGridIndex spatialIndex;
+    private final TrigramIndex trigramIndex;
+
+    CountryRows(int start, int end, PrefixIndex prefixIndex, SpatialGridIndex spatialIndex,
+        TrigramIndex trigramIndex) {
+      this.start = start;
+      this.end = end;
+      this.prefixIndex = prefixIndex;
+      this.spatialIndex = spatialIndex;
+      this.trigramIndex = trigramIndex;
+    }
+  }
+}
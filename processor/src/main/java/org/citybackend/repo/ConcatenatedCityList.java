@@ -0,0 +1,55 @@
+package org.citybackend.repo;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import org.citybackend.city.City;
+
+/**
+ * Read-only view of several lists of {@code City}s, e.g. the {@code City}s of several country
+ * codes, one after the other. The lists are not copied, and must not be modified while the view is
+ * used.
+ */
+public final class ConcatenatedCityList extends AbstractList<City> implements RandomAccess {
+
+  private final List<List<City>> lists;
+  /**
+   * The position of the first {@code City} of each list, followed by the size of the view.
+   */
+  private final int[] starts;
+
+  /**
+   * Creates a view of the given lists, one after the other.
+   *
+   * @param lists the lists of {@code City}s
+   */
+  public ConcatenatedCityList(List<List<City>> lists) {
+    this.lists = lists;
+    this.starts = new int[lists.size() + 1];
+    for (int i = 0; i < lists.size(); i++) {
+      starts[i + 1] = starts[i] + lists.get(i).size();
+    }
+  }
+
+  @Override
+  public City get(int index) {
+    Objects.checkIndex(index, size());
+    int list = Arrays.binarySearch(starts, index);
+    if (list < 0) {
+      list = -list - 2;
+    } else {
+      // Skip the empty lists starting at the same position.
+      while (starts[list + 1] == index) {
+        list++;
+      }
+    }
+    return lists.get(list).get(index - starts[list]);
+  }
+
+  @Override
+  public int size() {
+    return starts[starts.length - 1];
+  }
+}
@@ -2,68 +2,466 @@ package org.citybackend.repo;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.ListMultimap;
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.citybackend.city.City;
+import org.citybackend.index.Ordinals;
+import org.citybackend.index.PrefixIndex;
+import org.citybackend.index.SearchKeys;
+import org.citybackend.index.SpatialGridIndex;
+import org.citybackend.index.StaticRanks;
+import org.citybackend.index.TrigramIndex;
+import org.citybackend.input.ByteLineReader;
+import org.citybackend.input.CityChanges;
 import org.citybackend.input.CityInput;
+import org.citybackend.input.CityUnarchivedInput;
+import org.citybackend.parser.ByteTsvRowParser;
 import org.citybackend.parser.CityParser;
+import org.citybackend.parser.IngestFilter;
 import org.springframework.stereotype.Repository;
 
 /**
  * In-memory implementation of {@code CityRepository}.
+ *
+ * <p>The name lookups of a country code are answered by indexes over the {@code SearchKeys} of its
+ * {@code City}s, i.e. their names, ascii names and alternate names, and return {@code
+ * MatchedCities}.</p>
+ *
+ * <p>The {@code City}s of a country code are ordered by descending static rank when they are
+ * loaded, see {@code StaticRanks}, so that the lookups list the largest {@code City}s first.</p>
  */
 @Repository
 public class InMemoryCityRepo implements CityRepository {
 
+  /**
+   * Default number of datasets that are downloaded and parsed at once.
+   */
+  public static final int DEFAULT_LOAD_PARALLELISM = 4;
+
   private final HashMap<String, City> cities;
-  private final ListMultimap<String, City> byCountryCodeMap = ArrayListMultimap.create();
+  private final ListMultimap<String, City> byCountryCodeMap;
+  private final HashMap<String, SearchKeys> searchKeysByCountryCode = new HashMap<>();
+  private final HashMap<String, StaticRanks> staticRanksByCountryCode = new HashMap<>();
+  private final HashMap<String, PrefixIndex> prefixIndexByCountryCode = new HashMap<>();
+  private final HashMap<String, SpatialGridIndex> spatialIndexByCountryCode = new HashMap<>();
+  private final HashMap<String, TrigramIndex> trigramIndexByCountryCode = new HashMap<>();
+  private final Set<String> failedCountryCodes;
 
   private InMemoryCityRepo(HashMap<String, City> cities) {
+    this(cities, Collections.emptySet());
+  }
+
+  private InMemoryCityRepo(HashMap<String, City> cities, Set<String> failedCountryCodes) {
+    this(cities, groupByCountryCode(cities), Collections.emptyMap(), Collections.emptyMap(),
+        Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+        failedCountryCodes);
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from {@code City}s that are already grouped by
+   * country code, e.g. read from a {@code CityRepositorySnapshot}. The indexes of a country code
+   * are built only if they are not given.
+   *
+   * @param cities                    the {@code City}s mapped by geonameId
+   * @param byCountryCodeMap          the same {@code City}s mapped by country code, in ordinal
+   *                                  order
+   * @param searchKeysByCountryCode   prebuilt {@code SearchKeys} mapped by country code, the
+   *                                  prebuilt name indexes are built over them
+   * @param prefixIndexByCountryCode  prebuilt {@code PrefixIndex}s mapped by country code
+   * @param spatialIndexByCountryCode prebuilt {@code SpatialGridIndex}s mapped by country code
+   * @param trigramIndexByCountryCode prebuilt {@code TrigramIndex}s mapped by country code
+   */
+  InMemoryCityRepo(HashMap<String, City> cities, ListMultimap<String, City> byCountryCodeMap,
+      Map<String, SearchKeys> searchKeysByCountryCode,
+      Map<String, PrefixIndex> prefixIndexByCountryCode,
+      Map<String, SpatialGridIndex> spatialIndexByCountryCode,
+      Map<String, TrigramIndex> trigramIndexByCountryCode) {
+    this(cities, byCountryCodeMap, searchKeysByCountryCode, Collections.emptyMap(),
+        prefixIndexByCountryCode, spatialIndexByCountryCode, trigramIndexByCountryCode,
+        Collections.emptySet());
+  }
+
+  private InMemoryCityRepo(HashMap<String, City> cities,
+      ListMultimap<String, City> byCountryCodeMap,
+      Map<String, SearchKeys> searchKeysByCountryCode,
+      Map<String, StaticRanks> staticRanksByCountryCode,
+      Map<String, PrefixIndex> prefixIndexByCountryCode,
+      Map<String, SpatialGridIndex> spatialIndexByCountryCode,
+      Map<String, TrigramIndex> trigramIndexByCountryCode, Set<String> failedCountryCodes) {
     this.cities = cities;
-    for (String geonameId : cities.keySet()) {
-      byCountryCodeMap.put(cities.get(geonameId).getCountryCode(), cities.get(geonameId));
+    this.failedCountryCodes = Collections.unmodifiableSet(failedCountryCodes);
+    this.byCountryCodeMap = byCountryCodeMap;
+    for (String countryCode : byCountryCodeMap.keySet()) {
+      List<City> countryCities = byCountryCodeMap.get(countryCode);
+      SearchKeys searchKeys = searchKeysByCountryCode.get(countryCode);
+      if (searchKeys == null) {
+        searchKeys = SearchKeys.fromCities(countryCities);
+      }
+      this.searchKeysByCountryCode.put(countryCode, searchKeys);
+      StaticRanks staticRanks = staticRanksByCountryCode.get(countryCode);
+      if (staticRanks == null) {
+        staticRanks = StaticRanks.fromCities(countryCities);
+      }
+      this.staticRanksByCountryCode.put(countryCode, staticRanks);
+      PrefixIndex prefixIndex = prefixIndexByCountryCode.get(countryCode);
+      if (prefixIndex == null) {
+        prefixIndex = PrefixIndex.fromNames(searchKeys.getKeys());
+      }
+      this.prefixIndexByCountryCode.put(countryCode, prefixIndex);
+      SpatialGridIndex spatialIndex = spatialIndexByCountryCode.get(countryCode);
+      if (spatialIndex == null) {
+        spatialIndex = SpatialGridIndex.fromCities(countryCities);
+      }
+      this.spatialIndexByCountryCode.put(countryCode, spatialIndex);
+      TrigramIndex trigramIndex = trigramIndexByCountryCode.get(countryCode);
+      if (trigramIndex == null) {
+        trigramIndex = TrigramIndex.fromNames(searchKeys.getKeys());
+      }
+      this.trigramIndexByCountryCode.put(countryCode, trigramIndex);
     }
   }
 
   /**
-   * Creates an instance of {@code InMemoryCityRepo} from {@code URL}s mapped by countrr code.
+   * Groups {@code City}s by country code, ordering the {@code City}s of each country code by
+   * descending static rank.
+   */
+  private static ListMultimap<String, City> groupByCountryCode(HashMap<String, City> cities) {
+    Map<String, List<City>> byCountryCode = new LinkedHashMap<>();
+    for (City city : cities.values()) {
+      byCountryCode.computeIfAbsent(city.getCountryCode(), k -> new ArrayList<>()).add(city);
+    }
+    ListMultimap<String, City> byCountryCodeMap = ArrayListMultimap.create();
+    for (Map.Entry<String, List<City>> entry : byCountryCode.entrySet()) {
+      entry.getValue().sort(StaticRanks.BY_DESCENDING_RANK);
+      byCountryCodeMap.putAll(entry.getKey(), entry.getValue());
+    }
+    return byCountryCodeMap;
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from already parsed {@code City}s. When several
+   * {@code City}s share the same geonameId, the first one is kept.
+   *
+   * @param cities the {@code City}s to store
+   * @return an instance of {@code InMemoryCityRepo}
+   */
+  public static InMemoryCityRepo createFromCities(Collection<City> cities) {
+    HashMap<String, City> citiesByGeonameId = new HashMap<>();
+    for (City city : cities) {
+      citiesByGeonameId.putIfAbsent(city.getGeonameId(), city);
+    }
+    return new InMemoryCityRepo(citiesByGeonameId);
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from {@code URL}s mapped by countrr code. The
+   * archives are not kept: each dataset is parsed line by line while it is being downloaded, see
+   * {@link CityInput#openFileFromUrl(URL, String)}. Up to {@link #DEFAULT_LOAD_PARALLELISM}
+   * datasets are loaded at once, see {@link #createFromUrls(CityParser, IngestFilter, Map, int)}.
    *
-   * @param parser            the parser to be used for deserialization
+   * @param parser            the parser to be used for deserialization, see {@link
+   *                          ByteTsvRowParser#withFields(Set)} to only parse some fields
    * @param urlsByCountryCode {@code URL}s to be used to download datasets
    * @return an instance of {@code InMemoryCityRepo}
-   * @throws IOException        in case of error while reading/loading datasets
+   * @throws IOException        if no dataset can be read/loaded
    * @throws URISyntaxException if an {@code URL} is malformed.
    */
   public static InMemoryCityRepo createFromUrls(CityParser parser,
       Map<String, URL> urlsByCountryCode)
       throws IOException, URISyntaxException {
-    HashMap<String, City> citiesByGeonameId = new HashMap<>();
-    for (String countryCode : urlsByCountryCode.keySet()) {
-      CityInput cityInput = CityInput.createFromUrlInMemory(urlsByCountryCode.get(countryCode));
-      InputStream inputStream = cityInput.getFile(String.format("%s.txt", countryCode));
-      BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
+    return createFromUrls(parser, IngestFilter.acceptAll(), urlsByCountryCode);
+  }
 
-      // Start reading fields.
-      String line = reader.readLine();
-      while (line != null) {
-        City city = parser.parse(line);
-        citiesByGeonameId.putIfAbsent(city.getGeonameId(), city);
-        line = reader.readLine();
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from the rows of datasets that are kept by a
+   * filter, see {@link #createFromUrls(CityParser, IngestFilter, Map, int)}. Up to {@link
+   * #DEFAULT_LOAD_PARALLELISM} datasets are loaded at once.
+   *
+   * @param parser            the parser to be used for deserialization, see {@link
+   *                          ByteTsvRowParser#withFields(Set)} to only parse some fields
+   * @param filter            the filter the rows must be kept by, it counts the kept and dropped
+   *                          rows
+   * @param urlsByCountryCode {@code URL}s to be used to download datasets
+   * @return an instance of {@code InMemoryCityRepo}
+   * @throws IOException        if no dataset can be read/loaded
+   * @throws URISyntaxException if an {@code URL} is malformed.
+   */
+  public static InMemoryCityRepo createFromUrls(CityParser parser, IngestFilter filter,
+      Map<String, URL> urlsByCountryCode)
+      throws IOException, URISyntaxException {
+    return createFromUrls(parser, filter, urlsByCountryCode, DEFAULT_LOAD_PARALLELISM);
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from the rows of datasets that are kept by a
+   * filter. Rows are filtered before being parsed.
+   * <p>
+   * Each dataset is downloaded and parsed by its own task into a separate shard, with up to {@code
+   * parallelism} tasks at once. Shards are merged in the iteration order of {@code
+   * urlsByCountryCode}: when several {@code City}s share the same geonameId, the first one is kept.
+   * A dataset that cannot be loaded does not prevent the other ones from being loaded: its country
+   * code is reported by {@link #getFailedCountryCodes()}.
+   * </p>
+   *
+   * @param parser            the parser to be used for deserialization, see {@link
+   *                          ByteTsvRowParser#withFields(Set)} to only parse some fields
+   * @param filter            the filter the rows must be kept by, it counts the kept and dropped
+   *                          rows
+   * @param urlsByCountryCode {@code URL}s to be used to download datasets
+   * @param parallelism       the maximum number of datasets loaded at once
+   * @return an instance of {@code InMemoryCityRepo}
+   * @throws IOException        if no dataset can be read/loaded, the other failures are
+   *                            suppressed by the first one
+   * @throws URISyntaxException if an {@code URL} is malformed.
+   */
+  public static InMemoryCityRepo createFromUrls(CityParser parser, IngestFilter filter,
+      Map<String, URL> urlsByCountryCode, int parallelism)
+      throws IOException, URISyntaxException {
+    for (URL url : urlsByCountryCode.values()) {
+      // Malformed URLs are reported before any download.
+      url.toURI();
+    }
+    List<String> countryCodes = new ArrayList<>(urlsByCountryCode.keySet());
+    ExecutorService executor = Executors.newFixedThreadPool(
+        Math.max(1, Math.min(parallelism, countryCodes.size())));
+    List<Future<HashMap<String, City>>> shards = new ArrayList<>(countryCodes.size());
+    try {
+      for (String countryCode : countryCodes) {
+        URL url = urlsByCountryCode.get(countryCode);
+        shards.add(executor.submit(() -> loadShard(parser, filter, countryCode, url)));
+      }
+      HashMap<String, City> citiesByGeonameId = new HashMap<>();
+      Set<String> failedCountryCodes = new LinkedHashSet<>();
+      IOException failure = null;
+      for (int i = 0; i < countryCodes.size(); i++) {
+        try {
+          for (City city : shards.get(i).get().values()) {
+            citiesByGeonameId.putIfAbsent(city.getGeonameId(), city);
+          }
+        } catch (ExecutionException e) {
+          failedCountryCodes.add(countryCodes.get(i));
+          IOException countryFailure = new IOException(
+              "Cannot load the cities of " + countryCodes.get(i), e.getCause());
+          if (failure == null) {
+            failure = countryFailure;
+          } else {
+            failure.addSuppressed(countryFailure);
+          }
+        }
+      }
+      if (failure != null && failedCountryCodes.size() == countryCodes.size()) {
+        throw failure;
+      }
+      return new InMemoryCityRepo(citiesByGeonameId, failedCountryCodes);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException(e.getMessage());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static HashMap<String, City> loadShard(CityParser parser, IngestFilter filter,
+      String countryCode, URL url) throws IOException, URISyntaxException {
+    HashMap<String, City> shard = new HashMap<>();
+    try (InputStream inputStream = CityInput.openFileFromUrl(url,
+        String.format("%s.txt", countryCode))) {
+      // Lines are handed over to the parser as bytes, see CityParser#parse(byte[], int, int).
+      ByteLineReader.forEachLine(inputStream, (bytes, offset, length) -> {
+        if (filter.accept(bytes, offset, length)) {
+          City city = parser.parse(bytes, offset, length);
+          shard.putIfAbsent(city.getGeonameId(), city);
+        }
+      });
+    }
+    return shard;
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from files of an unarchived geonames
+   * directory, e.g. "allCountries.txt". Each file is memory-mapped and parsed by chunks with
+   * several threads, see {@link CityUnarchivedInput#parseFile(String, CityParser, int)}. Chunks are
+   * merged in file order: when several {@code City}s share the same geonameId, the first one is
+   * kept, as with {@link #createFromUrls(CityParser, Map)}.
+   *
+   * @param parser      the parser to be used for deserialization, see {@link
+   *                    ByteTsvRowParser#withFields(Set)} to only parse some fields
+   * @param input       the unarchived geonames directory
+   * @param filenames   relative paths to the files to load, in order
+   * @param parallelism the number of threads parsing a file
+   * @return an instance of {@code InMemoryCityRepo}
+   * @throws IOException in case of error while reading datasets
+   */
+  public static InMemoryCityRepo createFromUnarchivedInput(CityParser parser,
+      CityUnarchivedInput input, List<String> filenames, int parallelism) throws IOException {
+    return createFromUnarchivedInput(parser, IngestFilter.acceptAll(), input, filenames,
+        parallelism);
+  }
+
+  /**
+   * Creates an instance of {@code InMemoryCityRepo} from the rows of files of an unarchived
+   * geonames directory that are kept by a filter, see {@link #createFromUnarchivedInput(CityParser,
+   * CityUnarchivedInput, List, int)}. Rows are filtered before being parsed.
+   *
+   * @param parser      the parser to be used for deserialization
+   * @param filter      the filter the rows must be kept by, it counts the kept and dropped rows
+   * @param input       the unarchived geonames directory
+   * @param filenames   relative paths to the files to load, in order
+   * @param parallelism the number of threads parsing a file
+   * @return an instance of {@code InMemoryCityRepo}
+   * @throws IOException in case of error while reading datasets
+   */
+  public static InMemoryCityRepo createFromUnarchivedInput(CityParser parser, IngestFilter filter,
+      CityUnarchivedInput input, List<String> filenames, int parallelism) throws IOException {
+    HashMap<String, City> citiesByGeonameId = new HashMap<>();
+    for (String filename : filenames) {
+      for (List<City> chunk : input.parseFile(filename, parser, filter, parallelism,
+          CityUnarchivedInput.DEFAULT_CHUNK_SIZE)) {
+        for (City city : chunk) {
+          citiesByGeonameId.putIfAbsent(city.getGeonameId(), city);
+        }
       }
-      reader.close();
     }
     return new InMemoryCityRepo(citiesByGeonameId);
   }
 
+  /**
+   * Returns a new {@code InMemoryCityRepo} with the given changes applied, e.g. read from the daily
+   * files of geonames.org, see {@link CityChanges#fromFiles(CityParser, IngestFilter, Path, Path)}.
+   * This repository is not modified, so that it can still be read while the changes are applied.
+   * <p>
+   * The country codes without change share their {@code City}s and indexes with this repository.
+   * In the other ones, a replaced {@code City} keeps its ordinal, deleted {@code City}s are
+   * removed and added {@code City}s are appended: their order by static rank is only restored by
+   * the next load, which does not change the rankings but lets them stop scanning earlier. Their
+   * search keys and indexes are derived from the ones of this repository, see {@link
+   * SearchKeys#withChanges(List, int[])}, {@link PrefixIndex#withChanges(List, int[])}, {@link
+   * SpatialGridIndex#withChanges(List, int[])} and {@link TrigramIndex#withChanges(List, int[])},
+   * so that only the changed {@code City}s are indexed again. A {@code City} whose country code
+   * changes is moved to its new country code.
+   * </p>
+   *
+   * @param changes the changes to apply
+   * @return an instance of {@code InMemoryCityRepo} with the changes applied
+   */
+  public InMemoryCityRepo withChanges(CityChanges changes) {
+    HashMap<String, City> changedCities = new HashMap<>(cities);
+    Map<String, Set<String>> removedIdsByCountryCode = new HashMap<>();
+    Map<String, City> replacements = new HashMap<>();
+    ListMultimap<String, City> addedByCountryCode = ArrayListMultimap.create();
+    for (String geonameId : changes.getDeletedGeonameIds()) {
+      City deleted = changedCities.remove(geonameId);
+      if (deleted != null) {
+        removedIdsByCountryCode.computeIfAbsent(deleted.getCountryCode(), k -> new HashSet<>())
+            .add(geonameId);
+      }
+    }
+    for (City city : changes.getModifiedCities()) {
+      City replaced = changedCities.put(city.getGeonameId(), city);
+      if (replaced != null && Objects.equals(replaced.getCountryCode(), city.getCountryCode())) {
+        replacements.put(city.getGeonameId(), city);
+        removedIdsByCountryCode.computeIfAbsent(city.getCountryCode(), k -> new HashSet<>());
+      } else {
+        if (replaced != null) {
+          removedIdsByCountryCode.computeIfAbsent(replaced.getCountryCode(), k -> new HashSet<>())
+              .add(city.getGeonameId());
+        }
+        addedByCountryCode.put(city.getCountryCode(), city);
+      }
+    }
+
+    Set<String> changedCountryCodes = new HashSet<>(removedIdsByCountryCode.keySet());
+    changedCountryCodes.addAll(addedByCountryCode.keySet());
+    Set<String> countryCodes = new LinkedHashSet<>(byCountryCodeMap.keySet());
+    countryCodes.addAll(addedByCountryCode.keySet());
+    ListMultimap<String, City> changedByCountryCodeMap = ArrayListMultimap.create();
+    Map<String, SearchKeys> changedSearchKeys = new HashMap<>();
+    Map<String, StaticRanks> changedStaticRanks = new HashMap<>();
+    Map<String, PrefixIndex> changedPrefixIndexes = new HashMap<>();
+    Map<String, SpatialGridIndex> changedSpatialIndexes = new HashMap<>();
+    Map<String, TrigramIndex> changedTrigramIndexes = new HashMap<>();
+    for (String countryCode : countryCodes) {
+      List<City> countryCities = byCountryCodeMap.get(countryCode);
+      if (!changedCountryCodes.contains(countryCode)) {
+        changedByCountryCodeMap.putAll(countryCode, countryCities);
+        changedSearchKeys.put(countryCode, searchKeysByCountryCode.get(countryCode));
+        changedStaticRanks.put(countryCode, staticRanksByCountryCode.get(countryCode));
+        changedPrefixIndexes.put(countryCode, prefixIndexByCountryCode.get(countryCode));
+        changedSpatialIndexes.put(countryCode, spatialIndexByCountryCode.get(countryCode));
+        changedTrigramIndexes.put(countryCode, trigramIndexByCountryCode.get(countryCode));
+        continue;
+      }
+      Set<String> removedIds = removedIdsByCountryCode.getOrDefault(countryCode,
+          Collections.emptySet());
+      List<City> changedCountryCities = new ArrayList<>(countryCities.size());
+      // Ordinals of the search keys and coordinates that do not need to be indexed again.
+      int[] nameOrdinalMap = new int[countryCities.size()];
+      int[] coordinatesOrdinalMap = new int[countryCities.size()];
+      for (int ordinal = 0; ordinal < countryCities.size(); ordinal++) {
+        City city = countryCities.get(ordinal);
+        if (removedIds.contains(city.getGeonameId())) {
+          nameOrdinalMap[ordinal] = -1;
+          coordinatesOrdinalMap[ordinal] = -1;
+          continue;
+        }
+        City replacement = replacements.getOrDefault(city.getGeonameId(), city);
+        int changedOrdinal = changedCountryCities.size();
+        nameOrdinalMap[ordinal] =
+            SearchKeys.haveSameKeys(city, replacement) ? changedOrdinal : -1;
+        coordinatesOrdinalMap[ordinal] = hasSameCoordinates(city, replacement)
+            ? changedOrdinal : -1;
+        changedCountryCities.add(replacement);
+      }
+      changedCountryCities.addAll(addedByCountryCode.get(countryCode));
+      if (changedCountryCities.isEmpty()) {
+        continue;
+      }
+      changedByCountryCodeMap.putAll(countryCode, changedCountryCities);
+      if (countryCities.isEmpty()) {
+        // New country code: its indexes are built by the constructor.
+        continue;
+      }
+      SearchKeys searchKeys = searchKeysByCountryCode.get(countryCode);
+      SearchKeys changedCountryKeys = searchKeys.withChanges(changedCountryCities,
+          nameOrdinalMap);
+      int[] keyOrdinalMap = searchKeys.mapKeyOrdinals(changedCountryKeys, nameOrdinalMap);
+      changedSearchKeys.put(countryCode, changedCountryKeys);
+      changedPrefixIndexes.put(countryCode, prefixIndexByCountryCode.get(countryCode)
+          .withChanges(changedCountryKeys.getKeys(), keyOrdinalMap));
+      changedTrigramIndexes.put(countryCode, trigramIndexByCountryCode.get(countryCode)
+          .withChanges(changedCountryKeys.getKeys(), keyOrdinalMap));
+      changedSpatialIndexes.put(countryCode, spatialIndexByCountryCode.get(countryCode)
+          .withChanges(changedCountryCities, coordinatesOrdinalMap));
+    }
+    return new InMemoryCityRepo(changedCities, changedByCountryCodeMap, changedSearchKeys,
+        changedStaticRanks, changedPrefixIndexes, changedSpatialIndexes, changedTrigramIndexes,
+        failedCountryCodes);
+  }
+
+  private static boolean hasSameCoordinates(City city, City other) {
+    return Objects.equals(city.getLatitude(), other.getLatitude())
+        && Objects.equals(city.getLongitude(), other.getLongitude());
+  }
+
   /**
    * Return the {@code City} whose geonameId matches the {@code String} passed as parameter.
    *
@@ -90,12 +488,153 @@ public class InMemoryCityRepo implements CityRepository {
     return byCountryCodeMap;
   }
 
+  /**
+   * Returns the {@code City}s of the given country codes. The returned list is a read-only view of
+   * the {@code City}s of each country code, which are not copied. The {@code City}s of a single
+   * country code are returned as {@code MatchedCities}, matched by their normalized name.
+   *
+   * @param countryCodes the country codes of the desired cities
+   * @return the {@code City}s of the country codes
+   */
   @Override
   public List<City> forCountryCodes(String... countryCodes) {
-    List<City> toReturn = new ArrayList<>();
+    if (countryCodes.length == 1) {
+      SearchKeys searchKeys = searchKeysByCountryCode.get(countryCodes[0]);
+      return searchKeys != null
+          ? MatchedCities.byName(byCountryCodeMap.get(countryCodes[0]), searchKeys,
+          staticRanksByCountryCode.get(countryCodes[0]))
+          : new MatchedCities();
+    }
+    List<List<City>> countryCities = new ArrayList<>(countryCodes.length);
+    for (String countryCode : countryCodes) {
+      countryCities.add(byCountryCodeMap.get(countryCode));
+    }
+    return new ConcatenatedCityList(countryCities);
+  }
+
+  /**
+   * Returns the country codes whose dataset could not be loaded, see {@link
+   * #createFromUrls(CityParser, IngestFilter, Map, int)}.
+   *
+   * @return the country codes whose dataset could not be loaded
+   */
+  public Set<String> getFailedCountryCodes() {
+    return failedCountryCodes;
+  }
+
+  /**
+   * Returns the {@code City}s with a normalized search key starting with the normalized prefix.
+   * Lookups are answered by a {@code PrefixIndex} over the {@code SearchKeys} of each country code,
+   * so that only matching {@code City}s are visited.
+   *
+   * @param prefix       the prefix to look for
+   * @param countryCodes the country codes of the desired cities
+   * @return the {@code City}s with a key starting with the prefix, with their matched keys
+   */
+  @Override
+  public MatchedCities forPrefix(String prefix, String... countryCodes) {
+    MatchedCities toReturn = new MatchedCities();
     for (String countryCode : countryCodes) {
-      toReturn.addAll(byCountryCodeMap.get(countryCode));
+      PrefixIndex prefixIndex = prefixIndexByCountryCode.get(countryCode);
+      if (prefixIndex != null) {
+        addMatches(toReturn, countryCode, prefixIndex.lookup(prefix));
+      }
     }
-    return Collections.unmodifiableList(toReturn);
+    return toReturn;
+  }
+
+  /**
+   * Returns the {@code City}s located within the given great-circle distance of a location.
+   * Lookups are answered by a {@code SpatialGridIndex} per country code, so that only {@code
+   * City}s in the grid cells overlapping the box bounding the searched circle are visited.
+   *
+   * @param latitude      the latitude of the location
+   * @param longitude     the longitude of the location
+   * @param maxDistanceKm the maximum distance with the location, in kilometers
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s located around the location, matched by their normalized name
+   */
+  @Override
+  public MatchedCities near(double latitude, double longitude, double maxDistanceKm,
+      String... countryCodes) {
+    MatchedCities toReturn = new MatchedCities();
+    for (String countryCode : countryCodes) {
+      SpatialGridIndex spatialIndex = spatialIndexByCountryCode.get(countryCode);
+      if (spatialIndex != null) {
+        addMatches(toReturn, countryCode, searchKeysByCountryCode.get(countryCode)
+            .nameKeyOrdinals(spatialIndex.withinDistance(latitude, longitude, maxDistanceKm)));
+      }
+    }
+    return toReturn;
+  }
+
+  @Override
+  public MatchedCities forPrefixNear(String prefix, double latitude, double longitude,
+      double maxDistanceKm, String... countryCodes) {
+    MatchedCities toReturn = new MatchedCities();
+    for (String countryCode : countryCodes) {
+      PrefixIndex prefixIndex = prefixIndexByCountryCode.get(countryCode);
+      SpatialGridIndex spatialIndex = spatialIndexByCountryCode.get(countryCode);
+      if (prefixIndex != null && spatialIndex != null) {
+        addMatches(toReturn, countryCode, Ordinals.intersect(prefixIndex.lookup(prefix),
+            searchKeysByCountryCode.get(countryCode).keyOrdinals(
+                spatialIndex.withinDistance(latitude, longitude, maxDistanceKm))));
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns the {@code City}s with a normalized search key sharing the most trigrams with the
+   * normalized query. Lookups are answered by a {@code TrigramIndex} over the {@code SearchKeys}
+   * of each country code, so that only the {@code City}s sharing trigrams with the query are
+   * visited.
+   *
+   * @param query         the query to look for
+   * @param maxCandidates the maximum number of keys, hence of {@code City}s, per country code
+   * @param countryCodes  the country codes of the desired cities
+   * @return the {@code City}s with a key similar to the query, with their matched keys
+   */
+  @Override
+  public MatchedCities forSimilarName(String query, int maxCandidates, String... countryCodes) {
+    MatchedCities toReturn = new MatchedCities();
+    for (String countryCode : countryCodes) {
+      TrigramIndex trigramIndex = trigramIndexByCountryCode.get(countryCode);
+      if (trigramIndex != null) {
+        addMatches(toReturn, countryCode, trigramIndex.lookup(query, maxCandidates));
+      }
+    }
+    return toReturn;
+  }
+
+  @Override
+  public MatchedCities forSimilarNameNear(String query, int maxCandidates, double latitude,
+      double longitude, double maxDistanceKm, String... countryCodes) {
+    MatchedCities toReturn = new MatchedCities();
+    for (String countryCode : countryCodes) {
+      TrigramIndex trigramIndex = trigramIndexByCountryCode.get(countryCode);
+      SpatialGridIndex spatialIndex = spatialIndexByCountryCode.get(countryCode);
+      if (trigramIndex != null && spatialIndex != null) {
+        addMatches(toReturn, countryCode, trigramIndex.lookup(query, maxCandidates,
+            searchKeysByCountryCode.get(countryCode).keyOrdinals(
+                spatialIndex.withinDistance(latitude, longitude, maxDistanceKm))));
+      }
+    }
+    return toReturn;
+  }
+
+  /**
+   * Returns the {@code PrefixIndex} over the search keys of the {@code City}s of a country code.
+   *
+   * @param countryCode the country code
+   * @return the {@code PrefixIndex} of the country code, or {@code null} if it has no city
+   */
+  PrefixIndex prefixIndex(String countryCode) {
+    return prefixIndexByCountryCode.get(countryCode);
+  }
+
+  private void addMatches(MatchedCities toReturn, String countryCode, int[] keyOrdinals) {
+    toReturn.addAll(byCountryCodeMap.get(countryCode), searchKeysByCountryCode.get(countryCode),
+        staticRanksByCountryCode.get(countryCode), keyOrdinals);
   }
 }
@@ -0,0 +1,182 @@
+package org.citybackend.repo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.RandomAccess;
+import org.citybackend.city.City;
+import org.citybackend.index.SearchKeys;
+import org.citybackend.index.StaticRanks;
+
+/**
+ * {@code City}s found by their search keys, as returned by the lookups of an {@code
+ * InMemoryCityRepo}, see {@code SearchKeys}. Each {@code City} is listed once, with the normalized
+ * keys it was found by, so that it can be scored under its best-matching key without scoring its
+ * other keys nor normalizing them again. The {@code City}s that are not found by name, e.g. by
+ * location, are matched by their normalized name.
+ *
+ * <p>The {@code City}s are listed in ordinal order, hence by descending static rank within a
+ * country code, see {@code StaticRanks}, and the highest static rank of the {@code City}s left
+ * after each position is kept, see {@link #getStaticRankBound(int)}.</p>
+ */
+public final class MatchedCities extends AbstractList<City> implements RandomAccess {
+
+  private final List<City> cities;
+  private final List<String> matchedKeys;
+  /**
+   * The position of the first matched key of each {@code City}, followed by the number of matched
+   * keys, or {@code null} if each {@code City} is matched by the key at its own position.
+   */
+  private int[] matchedKeyStarts;
+  /**
+   * The static ranks of the {@code City}s of a view matched by name, {@code null} otherwise.
+   */
+  private final StaticRanks countryRanks;
+  private double[] staticRanks;
+  private double[] staticRankBounds;
+
+  MatchedCities() {
+    this(new ArrayList<>(), new ArrayList<>(), new int[]{0}, null);
+    this.staticRanks = new double[1];
+    this.staticRankBounds = new double[1];
+  }
+
+  private MatchedCities(List<City> cities, List<String> matchedKeys, int[] matchedKeyStarts,
+      StaticRanks countryRanks) {
+    this.cities = cities;
+    this.matchedKeys = matchedKeys;
+    this.matchedKeyStarts = matchedKeyStarts;
+    this.countryRanks = countryRanks;
+  }
+
+  /**
+   * Returns a view of {@code City}s matched by their name. Neither the {@code City}s nor their
+   * keys are copied.
+   *
+   * @param countryCities the {@code City}s the keys were built from, in ordinal order
+   * @param searchKeys    the keys of {@code countryCities}
+   * @param staticRanks   the static ranks of {@code countryCities}
+   * @return the {@code City}s matched by their name
+   */
+  static MatchedCities byName(List<City> countryCities, SearchKeys searchKeys,
+      StaticRanks staticRanks) {
+    return new MatchedCities(Collections.unmodifiableList(countryCities), searchKeys.getNames(),
+        null, staticRanks);
+  }
+
+  /**
+   * Appends the {@code City}s of the given keys.
+   *
+   * @param countryCities the {@code City}s the keys were built from, in ordinal order
+   * @param searchKeys    the keys of {@code countryCities}
+   * @param countryRanks  the static ranks of {@code countryCities}
+   * @param keyOrdinals   the ordinals of the matched keys, in ascending order
+   * @throws UnsupportedOperationException if this is a view of {@code City}s matched by name
+   */
+  void addAll(List<City> countryCities, SearchKeys searchKeys, StaticRanks countryRanks,
+      int[] keyOrdinals) {
+    if (matchedKeyStarts == null) {
+      throw new UnsupportedOperationException();
+    }
+    int firstAdded = cities.size();
+    int previousCityOrdinal = -1;
+    for (int keyOrdinal : keyOrdinals) {
+      int cityOrdinal = searchKeys.getCityOrdinal(keyOrdinal);
+      if (cityOrdinal != previousCityOrdinal) {
+        if (cities.size() + 1 == matchedKeyStarts.length) {
+          matchedKeyStarts = Arrays.copyOf(matchedKeyStarts, 2 * matchedKeyStarts.length);
+          staticRanks = Arrays.copyOf(staticRanks, matchedKeyStarts.length);
+          staticRankBounds = Arrays.copyOf(staticRankBounds, matchedKeyStarts.length);
+        }
+        staticRanks[cities.size()] = countryRanks.get(cityOrdinal);
+        cities.add(countryCities.get(cityOrdinal));
+        previousCityOrdinal = cityOrdinal;
+      }
+      matchedKeys.add(searchKeys.getKey(keyOrdinal));
+      matchedKeyStarts[cities.size()] = matchedKeys.size();
+    }
+    // The bounds of the previous cities can only be raised by the cities that were just added.
+    double bound = 0;
+    for (int i = cities.size() - 1; i >= 0; i--) {
+      bound = Math.max(bound, staticRanks[i]);
+      if (i < firstAdded && staticRankBounds[i] >= bound) {
+        break;
+      }
+      staticRankBounds[i] = bound;
+    }
+  }
+
+  @Override
+  public City get(int index) {
+    return cities.get(index);
+  }
+
+  @Override
+  public int size() {
+    return cities.size();
+  }
+
+  /**
+   * Returns the normalized keys the {@code City} at the given position was found by, e.g. its name
+   * or one of its alternate names.
+   *
+   * @param index the position of the {@code City}
+   * @return the keys the {@code City} was found by
+   */
+  public List<String> getMatchedKeys(int index) {
+    Objects.checkIndex(index, cities.size());
+    return matchedKeyStarts == null ? Collections.singletonList(matchedKeys.get(index))
+        : Collections.unmodifiableList(
+            matchedKeys.subList(matchedKeyStarts[index], matchedKeyStarts[index + 1]));
+  }
+
+  /**
+   * Returns the number of keys the {@code City} at the given position was found by.
+   *
+   * @param index the position of the {@code City}
+   * @return the number of keys the {@code City} was found by
+   */
+  public int getMatchedKeyCount(int index) {
+    Objects.checkIndex(index, cities.size());
+    return matchedKeyStarts == null ? 1 : matchedKeyStarts[index + 1] - matchedKeyStarts[index];
+  }
+
+  /**
+   * Returns a key the {@code City} at the given position was found by, without creating a list.
+   *
+   * @param index      the position of the {@code City}
+   * @param matchedKey the position of the key, less than {@link #getMatchedKeyCount(int)}
+   * @return the key
+   */
+  public String getMatchedKey(int index, int matchedKey) {
+    Objects.checkIndex(matchedKey, getMatchedKeyCount(index));
+    return matchedKeys.get(matchedKeyStarts == null ? index
+        : matchedKeyStarts[index] + matchedKey);
+  }
+
+  /**
+   * Returns the static rank of the {@code City} at the given position, see {@code StaticRanks}.
+   *
+   * @param index the position of the {@code City}
+   * @return the static rank of the {@code City}
+   */
+  public double getStaticRank(int index) {
+    Objects.checkIndex(index, cities.size());
+    return countryRanks != null ? countryRanks.get(index) : staticRanks[index];
+  }
+
+  /**
+   * Returns the highest static rank of the {@code City}s from the given position to the end of the
+   * list.
+   *
+   * @param index the position of a {@code City}
+   * @return the highest static rank from the position to the end of the list
+   */
+  public double getStaticRankBound(int index) {
+    Objects.checkIndex(index, cities.size());
+    return countryRanks != null ? countryRanks.getBound(index) : staticRankBounds[index];
+  }
+}
@@ -0,0 +1,31 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class GreatCircleTest {
+
+  @Test
+  public void distanceKm_betweenCities() {
+    assertThat(GreatCircle.distanceKm(43.70, -79.42, 45.51, -73.59)).isWithin(5).of(505);
+    assertThat(GreatCircle.distanceKm(45.51, -73.59, 45.51, -73.59)).isEqualTo(0.0);
+    assertThat(GreatCircle.distanceKm(0, 0, 1, 0)).isWithin(0.1).of(111.2);
+  }
+
+  @Test
+  public void distanceKm_acrossAntimeridian() {
+    assertThat(GreatCircle.distanceKm(0, 179.5, 0, -179.5)).isWithin(0.1).of(111.2);
+  }
+
+  @Test
+  public void boundingBoxDeltas() {
+    assertThat(GreatCircle.latitudeDelta(111.2)).isWithin(0.01).of(1);
+    assertThat(GreatCircle.longitudeDelta(0, 111.2)).isWithin(0.01).of(1);
+    assertThat(GreatCircle.longitudeDelta(60, 111.2)).isWithin(0.01).of(2);
+    assertThat(GreatCircle.longitudeDelta(89.5, 111.2)).isEqualTo(180.0);
+  }
+}
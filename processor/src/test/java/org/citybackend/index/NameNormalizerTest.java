@@ -0,0 +1,67 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class NameNormalizerTest {
+
+  @Test
+  public void normalize_foldsAccentsAndCase() {
+    assertThat(NameNormalizer.normalize("Montréal")).isEqualTo("montreal");
+    assertThat(NameNormalizer.normalize("MONTRÉAL")).isEqualTo("montreal");
+    assertThat(NameNormalizer.normalize("São Paulo")).isEqualTo("sao paulo");
+    assertThat(NameNormalizer.normalize("Zürich")).isEqualTo("zurich");
+  }
+
+  @Test
+  public void normalize_foldsLettersWithoutDecomposition() {
+    assertThat(NameNormalizer.normalize("Łódź")).isEqualTo("lodz");
+    assertThat(NameNormalizer.normalize("Straße")).isEqualTo("strasse");
+    assertThat(NameNormalizer.normalize("Ærøskøbing")).isEqualTo("aeroskobing");
+    assertThat(NameNormalizer.normalize("Reykjavík")).isEqualTo("reykjavik");
+  }
+
+  @Test
+  public void normalize_collapsesPunctuationAndRemovesApostrophes() {
+    assertThat(NameNormalizer.normalize("  Saint-Jean-sur-Richelieu ")).isEqualTo(
+        "saint jean sur richelieu");
+    assertThat(NameNormalizer.normalize("L'Assomption")).isEqualTo("lassomption");
+    assertThat(NameNormalizer.normalize("L’Assomption")).isEqualTo("lassomption");
+    assertThat(NameNormalizer.normalize("- ,")).isEmpty();
+    assertThat(NameNormalizer.normalize(null)).isEmpty();
+  }
+
+  @Test
+  public void normalize_expandsSaintAbbreviations() {
+    assertThat(NameNormalizer.normalize("St. John's")).isEqualTo("saint johns");
+    assertThat(NameNormalizer.normalize("Ste-Foy")).isEqualTo("sainte foy");
+    assertThat(NameNormalizer.normalize("Saint John's")).isEqualTo("saint johns");
+    // Only a word followed by another word is an abbreviation.
+    assertThat(NameNormalizer.normalize("St")).isEqualTo("st");
+    assertThat(NameNormalizer.normalize("Stella")).isEqualTo("stella");
+  }
+
+  @Test
+  public void expandedPrefixes_abbreviationPrefix_addsExpandedForms() {
+    assertThat(NameNormalizer.expandedPrefixes("st")).containsExactly("saint ", "sainte ");
+    assertThat(NameNormalizer.expandedPrefixes("ste")).containsExactly("sainte ");
+    assertThat(NameNormalizer.expandedPrefixes("lac st")).containsExactly("lac saint ",
+        "lac sainte ");
+    // Prefixes of the expanded forms already start the normalized names.
+    assertThat(NameNormalizer.expandedPrefixes("s")).isEmpty();
+    assertThat(NameNormalizer.expandedPrefixes("")).isEmpty();
+    assertThat(NameNormalizer.expandedPrefixes("sta")).isEmpty();
+  }
+
+  @Test
+  public void normalize_isIdempotent() {
+    for (String name : new String[]{"Montréal", "St. John's", "Łódź", " A--b ", "Ste-Foy"}) {
+      String normalized = NameNormalizer.normalize(name);
+      assertThat(NameNormalizer.normalize(normalized)).isEqualTo(normalized);
+    }
+  }
+}
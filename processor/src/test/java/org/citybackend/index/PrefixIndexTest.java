@@ -0,0 +1,69 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class PrefixIndexTest {
+
+  private final PrefixIndex prefixIndex = PrefixIndex.fromNames(
+      ImmutableList.of("toronto", "montreal", "torbay", "quebec", "tor", "victoria"));
+
+  @Test
+  public void lookup_returnsMatchingOrdinalsInAscendingOrder() {
+    assertThat(prefixIndex.lookup("tor")).isEqualTo(new int[]{0, 2, 4});
+    assertThat(prefixIndex.lookup("TORO")).isEqualTo(new int[]{0});
+    assertThat(prefixIndex.lookup("québec")).isEqualTo(new int[]{3});
+  }
+
+  @Test
+  public void lookup_abbreviation_findsExpandedNames() {
+    PrefixIndex saintIndex = PrefixIndex.fromNames(
+        ImmutableList.of("saint johns", "stratford", "sainte foy", "salaberry", "st"));
+    assertThat(saintIndex.lookup("st")).isEqualTo(new int[]{0, 1, 2, 4});
+    assertThat(saintIndex.lookup("St. J")).isEqualTo(new int[]{0});
+    assertThat(saintIndex.lookup("ste")).isEqualTo(new int[]{2});
+    assertThat(saintIndex.lookup("sa")).isEqualTo(new int[]{0, 2, 3});
+  }
+
+  @Test
+  public void lookup_noMatch_isEmpty() {
+    assertThat(prefixIndex.lookup("paris")).isEmpty();
+    assertThat(prefixIndex.lookup("zzz")).isEmpty();
+  }
+
+  @Test
+  public void lookup_emptyPrefix_matchesEverything() {
+    assertThat(prefixIndex.lookup("")).isEqualTo(new int[]{0, 1, 2, 3, 4, 5});
+    assertThat(prefixIndex.size()).isEqualTo(6);
+  }
+
+  @Test
+  public void fromSortedOrdinals_restoresIndex() {
+    ImmutableList<String> names =
+        ImmutableList.of("toronto", "montreal", "torbay", "quebec", "tor", "victoria");
+    PrefixIndex restored = PrefixIndex.fromSortedOrdinals(names, prefixIndex.getSortedOrdinals());
+
+    assertThat(restored.getSortedOrdinals()).isEqualTo(prefixIndex.getSortedOrdinals());
+    assertThat(restored.lookup("tor")).isEqualTo(new int[]{0, 2, 4});
+    assertThat(restored.lookup("québec")).isEqualTo(new int[]{3});
+  }
+
+  @Test
+  public void withChanges_mergesChangedNames() {
+    // "torbay" is removed, "tor" becomes "paris" and "toronto" moves to ordinal 0.
+    PrefixIndex changed = prefixIndex.withChanges(
+        ImmutableList.of("toronto", "montreal", "quebec", "paris", "victoria", "torino"),
+        new int[]{0, 1, -1, 2, -1, 4});
+
+    assertThat(changed.lookup("tor")).isEqualTo(new int[]{0, 5});
+    assertThat(changed.lookup("p")).isEqualTo(new int[]{3});
+    assertThat(changed.getSortedOrdinals()).isEqualTo(PrefixIndex.fromNames(
+        ImmutableList.of("toronto", "montreal", "quebec", "paris", "victoria", "torino"))
+        .getSortedOrdinals());
+  }
+}
@@ -0,0 +1,55 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.List;
+import org.citybackend.city.City;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SearchKeysTest {
+
+  private final City montreal = new City.Builder().geonameId("1").name("Montréal")
+      .asciiName("Montreal").alternateNames(ImmutableSet.of("MONTRÉAL", "Montreal", "Mont-réal", " "))
+      .build();
+  private final City toronto = new City.Builder().geonameId("2").name("Toronto")
+      .asciiName("Toronto").build();
+  private final City quebec = new City.Builder().geonameId("3").name("Quebec City")
+      .alternateNames("Québec,Kebek").build();
+
+  @Test
+  public void fromCities_listsNameThenDistinctOtherKeysPerCity() {
+    SearchKeys searchKeys = SearchKeys.fromCities(ImmutableList.of(montreal, toronto, quebec));
+
+    assertThat(searchKeys.getKeys()).containsExactly("montreal", "mont real", "toronto",
+        "quebec city", "kebek", "quebec").inOrder();
+    assertThat(searchKeys.getKeys(2)).containsExactly("quebec city", "kebek", "quebec")
+        .inOrder();
+    assertThat(searchKeys.getNames()).containsExactly("montreal", "toronto", "quebec city")
+        .inOrder();
+    assertThat(searchKeys.getCityOrdinal(2)).isEqualTo(1);
+    assertThat(searchKeys.getCityOrdinal(3)).isEqualTo(2);
+    assertThat(searchKeys.keyOrdinals(new int[]{0, 2})).isEqualTo(new int[]{0, 1, 3, 4, 5});
+    assertThat(searchKeys.nameKeyOrdinals(new int[]{0, 2})).isEqualTo(new int[]{0, 3});
+  }
+
+  @Test
+  public void withChanges_reusesKeysOfRemappedCities() {
+    SearchKeys searchKeys = SearchKeys.fromCities(ImmutableList.of(montreal, toronto, quebec));
+    City renamedToronto = new City.Builder().geonameId("2").name("Toronto")
+        .alternateNames("Tkaronto").build();
+    List<City> changedCities = ImmutableList.of(quebec, renamedToronto);
+    int[] ordinalMap = {-1, SearchKeys.haveSameKeys(toronto, renamedToronto) ? 1 : -1, 0};
+
+    SearchKeys changed = searchKeys.withChanges(changedCities, ordinalMap);
+
+    assertThat(changed.getKeys())
+        .isEqualTo(SearchKeys.fromCities(changedCities).getKeys());
+    assertThat(searchKeys.mapKeyOrdinals(changed, ordinalMap))
+        .isEqualTo(new int[]{-1, -1, -1, 0, 1, 2});
+  }
+}
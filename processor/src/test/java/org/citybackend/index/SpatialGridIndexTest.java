@@ -0,0 +1,72 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.citybackend.city.City;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class SpatialGridIndexTest {
+
+  private static City city(String latitude, String longitude) {
+    return new City.Builder().latitude(latitude).longitude(longitude).build();
+  }
+
+  private final SpatialGridIndex spatialIndex = SpatialGridIndex.fromCities(ImmutableList.of(
+      city("43.70", "-79.42"),
+      city("45.51", "-73.59"),
+      city("", ""),
+      city("49.28", "-123.12"),
+      city("46.81", "-71.21"),
+      city("82.50", "-62.35")));
+
+  @Test
+  public void withinDistance_returnsOrdinalsInAscendingOrder() {
+    // Toronto - Montreal is about 505 km, Montreal - Quebec about 233 km.
+    assertThat(spatialIndex.withinDistance(45.51, -73.59, 300)).isEqualTo(new int[]{1, 4});
+    assertThat(spatialIndex.withinDistance(45.51, -73.59, 600)).isEqualTo(new int[]{0, 1, 4});
+    assertThat(spatialIndex.withinDistance(49.0, -123.0, 100)).isEqualTo(new int[]{3});
+  }
+
+  @Test
+  public void withinDistance_outsideIndexedArea_isEmpty() {
+    assertThat(spatialIndex.withinDistance(-33.86, 151.20, 1000)).isEmpty();
+    assertThat(spatialIndex.withinDistance(45.51, -73.59, 0)).isEqualTo(new int[]{1});
+  }
+
+  @Test
+  public void withinDistance_aroundPole_spansEveryLongitude() {
+    assertThat(spatialIndex.withinDistance(89.0, 120.0, 1000)).isEqualTo(new int[]{5});
+  }
+
+  @Test
+  public void withinDistance_acrossAntimeridian() {
+    SpatialGridIndex fijiIndex = SpatialGridIndex.fromCities(ImmutableList.of(
+        city("-17.71", "178.06"),
+        city("-16.25", "-179.99"),
+        city("-18.14", "178.44")));
+
+    assertThat(fijiIndex.withinDistance(-17.0, 179.9, 300)).isEqualTo(new int[]{0, 1, 2});
+    assertThat(fijiIndex.withinDistance(-16.2, -179.9, 50)).isEqualTo(new int[]{1});
+  }
+
+  @Test
+  public void withChanges_remapsAndIndexesChangedCoordinates() {
+    // Toronto is removed, Vancouver moves to Victoria and Ottawa is added.
+    SpatialGridIndex changed = spatialIndex.withChanges(ImmutableList.of(
+        city("45.51", "-73.59"),
+        city("", ""),
+        city("48.43", "-123.37"),
+        city("46.81", "-71.21"),
+        city("82.50", "-62.35"),
+        city("45.42", "-75.70")), new int[]{-1, 0, 1, -1, 3, 4});
+
+    assertThat(changed.withinDistance(45.51, -73.59, 300)).isEqualTo(new int[]{0, 3, 5});
+    assertThat(changed.withinDistance(43.70, -79.42, 100)).isEmpty();
+    assertThat(changed.withinDistance(48.43, -123.37, 10)).isEqualTo(new int[]{2});
+    assertThat(changed.withinDistance(89.0, 120.0, 1000)).isEqualTo(new int[]{4});
+  }
+}
@@ -0,0 +1,51 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import org.citybackend.city.City;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class StaticRanksTest {
+
+  private final City torbay = new City.Builder().geonameId("1").name("Torbay").build();
+  private final City toronto = new City.Builder().geonameId("2").name("Toronto")
+      .population(2600000L).build();
+  private final City thorold = new City.Builder().geonameId("3").name("Thorold")
+      .population(18801L).build();
+
+  @Test
+  public void of_growsWithPopulationBetweenZeroAndOne() {
+    assertThat(StaticRanks.of((Long) null)).isEqualTo(0.0);
+    assertThat(StaticRanks.of(0)).isEqualTo(0.0);
+    assertThat(StaticRanks.of(-5)).isEqualTo(0.0);
+    assertThat(StaticRanks.of(18801)).isLessThan(StaticRanks.of(2600000));
+    assertThat(StaticRanks.of(2600000)).isLessThan(1.0);
+    assertThat(StaticRanks.of(Long.MAX_VALUE)).isEqualTo(1.0);
+  }
+
+  @Test
+  public void fromCities_boundsRanksOfFollowingCities() {
+    StaticRanks staticRanks = StaticRanks.fromCities(ImmutableList.of(torbay, toronto, thorold));
+
+    assertThat(staticRanks.size()).isEqualTo(3);
+    assertThat(staticRanks.get(0)).isEqualTo(0.0);
+    assertThat(staticRanks.getBound(0)).isEqualTo(StaticRanks.of(2600000));
+    assertThat(staticRanks.getBound(1)).isEqualTo(StaticRanks.of(2600000));
+    assertThat(staticRanks.getBound(2)).isEqualTo(StaticRanks.of(18801));
+  }
+
+  @Test
+  public void byDescendingRank_ordersLargestCitiesFirst() {
+    List<City> cities = new ArrayList<>(ImmutableList.of(torbay, toronto, thorold));
+
+    cities.sort(StaticRanks.BY_DESCENDING_RANK);
+
+    assertThat(cities).containsExactly(toronto, thorold, torbay).inOrder();
+  }
+}
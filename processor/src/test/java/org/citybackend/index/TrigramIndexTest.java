@@ -0,0 +1,73 @@
+package org.citybackend.index;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class TrigramIndexTest {
+
+  private static final ImmutableList<String> NAMES = ImmutableList.of(
+      "toronto", "montreal", "torbay", "montreal est", "victoria", "mont royal");
+  private final TrigramIndex trigramIndex = TrigramIndex.fromNames(NAMES);
+
+  @Test
+  public void lookup_withTypos_findsSimilarNames() {
+    assertThat(trigramIndex.lookup("Torotno", 1)).isEqualTo(new int[]{0});
+    assertThat(trigramIndex.lookup("Monteral", 3)).isEqualTo(new int[]{1, 3, 5});
+    assertThat(trigramIndex.lookup("VICTORAI", 1)).isEqualTo(new int[]{4});
+  }
+
+  @Test
+  public void lookup_keepsNamesSharingTheMostTrigramsInAscendingOrder() {
+    // "toronto" shares "  t", " to", "tor" and "oro", "torbay" only the first three.
+    assertThat(trigramIndex.lookup("toro", 10)).isEqualTo(new int[]{0, 2, 4});
+    assertThat(trigramIndex.lookup("toro", 1)).isEqualTo(new int[]{0});
+    assertThat(trigramIndex.lookup("xyz", 10)).isEmpty();
+  }
+
+  @Test
+  public void lookup_ties_keepsLowestOrdinals() {
+    // Both names share two trigrams with "toro", "tozz" is found first by "  t" and " to".
+    TrigramIndex tiedIndex = TrigramIndex.fromNames(ImmutableList.of("zoro", "tozz"));
+    assertThat(tiedIndex.lookup("toro", 1)).isEqualTo(new int[]{0});
+    assertThat(tiedIndex.lookup("toro", 2)).isEqualTo(new int[]{0, 1});
+  }
+
+  @Test
+  public void lookup_afterLookupsOfOtherIndex_returnsSameOrdinals() {
+    ImmutableList.Builder<String> names = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      names.add("montreal " + i, "toronto " + i);
+    }
+    TrigramIndex largeIndex = TrigramIndex.fromNames(names.build());
+    int[] expected = trigramIndex.lookup("monteral", 3);
+
+    assertThat(largeIndex.lookup("monteral", 3)).isEqualTo(new int[]{0, 2, 4});
+    assertThat(trigramIndex.lookup("monteral", 3)).isEqualTo(expected);
+    assertThat(trigramIndex.lookup("torotno", 10, new int[]{0, 2})).isEqualTo(new int[]{0, 2});
+    assertThat(largeIndex.lookup("toronto 99", 1)).isEqualTo(new int[]{199});
+  }
+
+  @Test
+  public void lookup_allowedOrdinals_restrictsCandidates() {
+    assertThat(trigramIndex.lookup("montreal", 10, new int[]{3, 4, 5}))
+        .isEqualTo(new int[]{3, 5});
+  }
+
+  @Test
+  public void withChanges_matchesIndexOfChangedNames() {
+    ImmutableList<String> changedNames = ImmutableList.of(
+        "toronto", "montreal", "victoria", "mont royal", "torino");
+    TrigramIndex changed = trigramIndex.withChanges(changedNames, new int[]{0, -1, -1, -1, 2, 3});
+    TrigramIndex rebuilt = TrigramIndex.fromNames(changedNames);
+
+    for (String query : new String[]{"toro", "monteral", "victoria", "torin", "montreal-est"}) {
+      assertThat(changed.lookup(query, 3)).isEqualTo(rebuilt.lookup(query, 3));
+    }
+    assertThat(changed.size()).isEqualTo(rebuilt.size());
+  }
+}
@@ -0,0 +1,42 @@
+package org.citybackend.input;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.base.Strings;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ByteLineReaderTest {
+
+  private static List<String> readLines(String content) throws IOException {
+    List<String> lines = new ArrayList<>();
+    ByteLineReader.forEachLine(
+        new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8)),
+        (bytes, offset, length) -> lines
+            .add(new String(bytes, offset, length, StandardCharsets.UTF_8)));
+    return lines;
+  }
+
+  @Test
+  public void linesAreSplitOnTerminators() throws IOException {
+    assertThat(readLines("a\tb\nc\r\n\nMontréal")).containsExactly("a\tb", "c", "", "Montréal")
+        .inOrder();
+    assertThat(readLines("a\n")).containsExactly("a");
+    assertThat(readLines("")).isEmpty();
+  }
+
+  @Test
+  public void linesLongerThanBuffer_areRead() throws IOException {
+    String longLine = Strings.repeat("x", 200000);
+
+    assertThat(readLines("a\n" + longLine + "\nb")).containsExactly("a", longLine, "b")
+        .inOrder();
+  }
+}
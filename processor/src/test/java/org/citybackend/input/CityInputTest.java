@@ -3,12 +3,22 @@ package org.citybackend.input;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertThrows;
 
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -68,4 +78,59 @@ public class CityInputTest {
   public void createFromUrlInMemory_invalid_throwsException() {
     assertThrows(IOException.class, () -> CityInput.createFromUrlInMemory(new URL(INVALID_URL)));
   }
+
+  @Test
+  public void openFileFromUrl_localFile_streamsEntry() throws IOException, URISyntaxException {
+    File zipFile = tmpDir.newFile("CA.zip");
+    Files.write(zipFile.toPath(), createZip());
+
+    try (InputStream file = CityInput.openFileFromUrl(zipFile.toURI().toURL(), "CA.txt")) {
+      assertThat(CharStreams.toString(new InputStreamReader(file, StandardCharsets.UTF_8)))
+          .isEqualTo("1\tMontréal\n2\tToronto\n");
+    }
+    assertThrows(FileNotFoundException.class,
+        () -> CityInput.openFileFromUrl(zipFile.toURI().toURL(), "FR.txt"));
+  }
+
+  @Test
+  public void openFileFromUrl_http_streamsEntry() throws IOException, URISyntaxException {
+    byte[] zip = createZip();
+    InetAddress loopback = InetAddress.getLoopbackAddress();
+    HttpServer server = HttpServer.create(new InetSocketAddress(loopback, 0), 0);
+    server.createContext("/CA.zip", exchange -> {
+      exchange.sendResponseHeaders(200, zip.length);
+      try (OutputStream body = exchange.getResponseBody()) {
+        body.write(zip);
+      }
+    });
+    server.start();
+    try {
+      URL baseUrl = new URL("http", loopback.getHostAddress(),
+          server.getAddress().getPort(), "/");
+      try (InputStream file = CityInput.openFileFromUrl(new URL(baseUrl, "CA.zip"), "CA.txt")) {
+        assertThat(CharStreams.toString(new InputStreamReader(file, StandardCharsets.UTF_8)))
+            .isEqualTo("1\tMontréal\n2\tToronto\n");
+      }
+      assertThrows(FileNotFoundException.class,
+          () -> CityInput.openFileFromUrl(new URL(baseUrl, "FR.zip"), "FR.txt"));
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  /**
+   * Returns a ZIP archive with a readme before the CA.txt dataset, as in geonames archives.
+   */
+  private static byte[] createZip() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream out = new ZipOutputStream(bytes)) {
+      out.putNextEntry(new ZipEntry("readme.txt"));
+      out.write("readme".getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+      out.putNextEntry(new ZipEntry("CA.txt"));
+      out.write("1\tMontréal\n2\tToronto\n".getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+    return bytes.toByteArray();
+  }
 }
@@ -4,6 +4,13 @@ import static com.google.common.truth.Truth.assertThat;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import org.citybackend.city.City;
+import org.citybackend.parser.ByteTsvRowParser;
+import org.citybackend.parser.TsvRowParser;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
@@ -38,4 +45,34 @@ public class CityUnarchivedInputTest {
       assertThat(cityInput.getFilenames()).containsExactly("noext");
     }
   }
+
+  @Test
+  public void parseFile_chunksFollowFileOrder() throws IOException {
+    File rootDir = tmpDir.newFolder("unarchived");
+    List<String> lines = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      lines.add(i + "\tCity " + i + "\tCity " + i + "\t\t45." + i + "\t-73." + i
+          + "\tP\tPPL\tCA\t\t10\t\t\t\t" + i * 1000 + "\t\t12\tAmerica/Toronto\t2020-08-07");
+    }
+    // A line much longer than a chunk, and a last line without terminator.
+    lines.set(42, lines.get(42).replace("\t\t45.", "\t" + "x,".repeat(500) + "\t45."));
+    Files.write(rootDir.toPath().resolve("allCountries.txt"),
+        String.join("\r\n", lines).getBytes(StandardCharsets.UTF_8));
+    List<City> expected = new ArrayList<>();
+    for (String line : lines) {
+      expected.add(TsvRowParser.getParser().parse(line));
+    }
+
+    try (CityUnarchivedInput cityInput = new CityUnarchivedInput(rootDir.toPath())) {
+      for (int chunkSize : new int[]{64, 1000, 1 << 20}) {
+        List<List<City>> chunks = cityInput
+            .parseFile("allCountries.txt", ByteTsvRowParser.getParser(), 4, chunkSize);
+        List<City> cities = new ArrayList<>();
+        chunks.forEach(cities::addAll);
+        assertThat(cities).containsExactlyElementsIn(expected).inOrder();
+      }
+      assertThat(cityInput.parseFile("allCountries.txt", ByteTsvRowParser.getParser(), 4, 1000)
+          .size()).isGreaterThan(1);
+    }
+  }
 }
@@ -0,0 +1,123 @@
+package org.citybackend.parser;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.EnumSet;
+import java.util.Set;
+import org.citybackend.city.City;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ByteTsvRowParserTest {
+
+  private static final String LINE = "3424953\tVirgin Rocks\tVirgin Rocks\tVirgin roches,Virgin gros cailloux\t46.42886\t-50.81995\tU\tRFU\tCA\t\t01\t02\t03\t04\t0\t4548\t-9999\t\t2018-02-20\n";
+
+  @Test
+  public void lineWithValues_isParsedAsCity() {
+    City city = ByteTsvRowParser.getParser().parse(LINE);
+    assertThat(city.getGeonameId()).matches("3424953");
+    assertThat(city.getName()).matches("Virgin Rocks");
+    assertThat(city.getAsciiName()).matches("Virgin Rocks");
+    assertThat(city.getAlternateNames()).containsExactlyElementsIn(
+        Set.of("Virgin roches", "Virgin gros cailloux"));
+    assertThat(city.getLatitude()).isEqualTo(46.42886);
+    assertThat(city.getLongitude()).isEqualTo(-50.81995);
+    assertThat(city.getFeatureClass()).matches("U");
+    assertThat(city.getFeatureCode()).matches("RFU");
+    assertThat(city.getCountryCode()).matches("CA");
+    assertThat(city.getAlternateCountryCode()).matches("");
+    assertThat(city.getAdmin1()).matches("01");
+    assertThat(city.getAdmin2()).matches("02");
+    assertThat(city.getAdmin3()).matches("03");
+    assertThat(city.getAdmin4()).matches("04");
+    assertThat(city.getPopulation()).isEqualTo(0);
+    assertThat(city.getElevation()).isEqualTo(4548);
+    assertThat(city.getDem()).isEqualTo(-9999);
+    assertThat(city.getTimeZone()).isNull();
+    assertThat(city.getModificationDate()).isEqualTo(LocalDate.of(2018, 02, 20));
+  }
+
+  @Test
+  public void lineWithoutValues_isParsedAsCity() {
+    City city = ByteTsvRowParser.getParser().parse("\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\t\n");
+    assertThat(city.getGeonameId()).isEmpty();
+    assertThat(city.getName()).isEmpty();
+    assertThat(city.getAlternateNames()).isEmpty();
+    assertThat(city.getLatitude()).isNull();
+    assertThat(city.getLongitude()).isNull();
+    assertThat(city.getCountryCode()).isEmpty();
+    assertThat(city.getPopulation()).isNull();
+    assertThat(city.getElevation()).isNull();
+    assertThat(city.getDem()).isNull();
+    assertThat(city.getTimeZone()).isNull();
+    assertThat(city.getModificationDate()).isNull();
+  }
+
+  @Test
+  public void unusualValues_areParsedAsTsvRowParserDoes() {
+    String[] lines = {
+        "1\tMontréal\tMontreal\t,Montreal,,Mont-Réal,,\t45.508840000000000001\t-073.5\tP\tPPLA2"
+            + "\tCA\t\t10\t06\t\t\t99999999999999999999\t+12\t0012\tAmerica/Toronto\t2020-02-30",
+        "2\tA\tA\t,\t1e1\t180.5\tP\tPPL\tCA\t\t\t\t\t\t-0\t2147483648\tx\tNo/Zone\t2020-13-01",
+        "3\tB\tB\tb\t-0.0\t.5\tP\tPPL\tCA\t\t\t\t\t\t+7\t-2147483648\t \tUTC\t0000-01-01\r\n",
+        "4\tC\tC\tc\t 1.5\t1.\tP\tPPL\tCA\t\t\t\t\t\t١٢\t-\t12a\tUTC\t2021-1-01",
+        "5\tD\tD\td\t90.00000000000000001\t0.1234567890123456\tP\tPPL\tCA\t\t\t\t\t\t"
+            + "9223372036854775807\t\t\t\t2024-02-29",
+    };
+    for (String line : lines) {
+      assertThat(ByteTsvRowParser.getParser().parse(line))
+          .isEqualTo(TsvRowParser.getParser().parse(line.replace("\r\n", "")));
+    }
+  }
+
+  @Test
+  public void lineWindow_isParsed() {
+    byte[] bytes = ("ignored\n" + LINE + "ignored").getBytes(StandardCharsets.UTF_8);
+    int offset = "ignored\n".length();
+    City expected = TsvRowParser.getParser().parse(LINE);
+
+    assertThat(ByteTsvRowParser.getParser().parse(bytes, offset, LINE.length()))
+        .isEqualTo(expected);
+    ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length);
+    direct.put(bytes);
+    assertThat(ByteTsvRowParser.getParser().parse(direct, offset, LINE.length()))
+        .isEqualTo(expected);
+  }
+
+  @Test
+  public void withFields_onlyParsesGivenFields() {
+    City city = ByteTsvRowParser.withFields(CityField.SUGGESTION_FIELDS).parse(LINE);
+
+    assertThat(city.getGeonameId()).matches("3424953");
+    assertThat(city.getName()).matches("Virgin Rocks");
+    assertThat(city.getLatitude()).isEqualTo(46.42886);
+    assertThat(city.getLongitude()).isEqualTo(-50.81995);
+    assertThat(city.getCountryCode()).matches("CA");
+    assertThat(city.getPopulation()).isEqualTo(0);
+    assertThat(city.getAsciiName()).matches("Virgin Rocks");
+    assertThat(city.getAlternateNames())
+        .containsExactly("Virgin roches", "Virgin gros cailloux");
+    assertThat(city.getFeatureCode()).isNull();
+    assertThat(city.getAdmin1()).isNull();
+    assertThat(city.getElevation()).isNull();
+    assertThat(city.getModificationDate()).isNull();
+  }
+
+  @Test
+  public void withFields_allFields_isParsedAsGetParserDoes() {
+    assertThat(ByteTsvRowParser.withFields(EnumSet.allOf(CityField.class)).parse(LINE))
+        .isEqualTo(ByteTsvRowParser.getParser().parse(LINE));
+  }
+
+  @Test
+  public void withFields_withoutGeonameId_throws() {
+    assertThrows(IllegalArgumentException.class,
+        () -> ByteTsvRowParser.withFields(EnumSet.of(CityField.NAME)));
+  }
+}
@@ -0,0 +1,54 @@
+package org.citybackend.parser;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.nio.charset.StandardCharsets;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class IngestFilterTest {
+
+  private static final String MONTREAL = "6077243\tMontréal\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01\r\n";
+  private static final String TORBAY = "6166739\tTorbay\tTorbay\t\t47.66659\t-52.73145\tP\tPPL\tCA\t\t05\t\t\t\t\t\t131\tAmerica/St_Johns\t2019-08-29";
+  private static final String LAKE = "5993180\tLake Ontario\tLake Ontario\t\t43.63342\t-77.86606\tH\tLK\tCA\t\t08\t\t\t\t0\t75\t75\tAmerica/Toronto\t2011-04-19";
+
+  @Test
+  public void accept_keepsWantedRowsAndCountsThem() {
+    IngestFilter filter = new IngestFilter.Builder()
+        .featureClasses("P")
+        .minPopulation(1000)
+        .build();
+
+    assertThat(accept(filter, MONTREAL)).isTrue();
+    assertThat(accept(filter, TORBAY)).isFalse();
+    assertThat(accept(filter, LAKE)).isFalse();
+    assertThat(filter.getKeptCount()).isEqualTo(1);
+    assertThat(filter.getDroppedCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void accept_featureCodes() {
+    IngestFilter filter = new IngestFilter.Builder().featureCodes("PPL", "PPLA2").build();
+
+    assertThat(accept(filter, MONTREAL)).isTrue();
+    assertThat(accept(filter, TORBAY)).isTrue();
+    assertThat(accept(filter, LAKE)).isFalse();
+  }
+
+  @Test
+  public void accept_shortRow_hasEmptyFields() {
+    IngestFilter filter = new IngestFilter.Builder().featureClasses("P").build();
+
+    assertThat(accept(filter, "1\tSomewhere\tSomewhere\t\t45\t-73\tP")).isTrue();
+    assertThat(accept(filter, "1\tSomewhere\tSomewhere")).isFalse();
+    assertThat(accept(IngestFilter.acceptAll(), "")).isTrue();
+  }
+
+  private static boolean accept(IngestFilter filter, String row) {
+    byte[] bytes = ("ignored" + row + "ignored").getBytes(StandardCharsets.UTF_8);
+    return filter.accept(bytes, "ignored".length(),
+        row.getBytes(StandardCharsets.UTF_8).length);
+  }
+}
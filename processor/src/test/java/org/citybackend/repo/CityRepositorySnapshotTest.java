@@ -0,0 +1,124 @@
+package org.citybackend.repo;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.citybackend.city.City;
+import org.citybackend.parser.IngestFilter;
+import org.citybackend.parser.TsvRowParser;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class CityRepositorySnapshotTest {
+
+  @Rule
+  public final TemporaryFolder tmpDir = new TemporaryFolder();
+
+  private final City montreal = TsvRowParser.getParser().parse(
+      "6077243\tMontréal\tMontreal\tMontreal,Montréal,Монреаль\t45.50884\t-73.58781\tP\tPPLA2\tCA"
+          + "\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01");
+  private final City toronto = TsvRowParser.getParser().parse(
+      "6167865\tToronto\tToronto\t\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08\t\t\t\t2600000\t\t175"
+          + "\tAmerica/Toronto\t2019-12-10");
+  private final City torbay = new City.Builder().geonameId("6166739").name("Torbay")
+      .countryCode("CA").build();
+  private final City torino = TsvRowParser.getParser().parse(
+      "3165524\tTorino\tTorino\tTurin\t45.07049\t7.68682\tP\tPPLA\tIT\t\t09\tTO\t001272\t\t870952"
+          + "\t239\t245\tEurope/Rome\t2018-10-08");
+
+  @Test
+  public void read_restoresWrittenRepository() throws IOException {
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromCities(ImmutableList.of(montreal, toronto, torbay, torino));
+    Path file = tmpDir.getRoot().toPath().resolve("cities.snapshot");
+
+    CityRepositorySnapshot.write(cityRepo, file);
+    InMemoryCityRepo restored = CityRepositorySnapshot.read(file);
+
+    assertThat(restored.byGeonameIdMap()).isEqualTo(cityRepo.byGeonameIdMap());
+    assertThat(restored.byCountryCodeMap()).isEqualTo(cityRepo.byCountryCodeMap());
+    assertThat(restored.getByGeonameId("6077243").getAlternateNames())
+        .containsExactly("Montreal", "Montréal", "Монреаль");
+    assertThat(restored.forPrefix("tor", "CA", "IT")).containsExactly(toronto, torbay, torino);
+    assertThat(restored.forPrefix("монр", "CA")).containsExactly(montreal);
+    assertThat(restored.forPrefix("tur", "IT")).containsExactly(torino);
+    assertThat(restored.near(45.5, -73.6, 10, "CA")).containsExactly(montreal);
+  }
+
+  @Test
+  public void readOrLoad_freshSnapshot_skipsLoader() throws IOException, URISyntaxException {
+    Path file = tmpDir.getRoot().toPath().resolve("cities.snapshot");
+    AtomicInteger loads = new AtomicInteger();
+    CityRepositorySnapshot.Loader loader = () -> {
+      loads.incrementAndGet();
+      return InMemoryCityRepo.createFromCities(ImmutableList.of(montreal, torino));
+    };
+
+    CityRepositorySnapshot.readOrLoad(file, Duration.ofHours(1), loader);
+    InMemoryCityRepo restored = CityRepositorySnapshot
+        .readOrLoad(file, Duration.ofHours(1), loader);
+    assertThat(loads.get()).isEqualTo(1);
+    assertThat(restored.byGeonameIdMap().values()).containsExactly(montreal, torino);
+
+    CityRepositorySnapshot.readOrLoad(file, Duration.ZERO, loader);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void readOrLoad_failedCountryCodes_doesNotSaveSnapshot()
+      throws IOException, URISyntaxException {
+    Path file = tmpDir.getRoot().toPath().resolve("cities.snapshot");
+    File canada = tmpDir.newFile("CA.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(canada))) {
+      out.putNextEntry(new ZipEntry("CA.txt"));
+      out.write(("6167865\tToronto\tToronto\t\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08\t\t\t\t"
+          + "2600000\t\t175\tAmerica/Toronto\t2019-12-10").getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+    URL missing = new File(tmpDir.getRoot(), "FR.zip").toURI().toURL();
+    AtomicInteger loads = new AtomicInteger();
+    CityRepositorySnapshot.Loader loader = () -> {
+      loads.incrementAndGet();
+      return InMemoryCityRepo.createFromUrls(TsvRowParser.getParser(), IngestFilter.acceptAll(),
+          ImmutableMap.of("CA", canada.toURI().toURL(), "FR", missing), 1);
+    };
+
+    InMemoryCityRepo cityRepo = CityRepositorySnapshot.readOrLoad(file, Duration.ofHours(1),
+        loader);
+    assertThat(cityRepo.byGeonameIdMap().values()).containsExactly(toronto);
+    assertThat(cityRepo.getFailedCountryCodes()).containsExactly("FR");
+    assertThat(Files.exists(file)).isFalse();
+    CityRepositorySnapshot.readOrLoad(file, Duration.ofHours(1), loader);
+    assertThat(loads.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void readOrLoad_corruptedSnapshot_callsLoader() throws IOException, URISyntaxException {
+    Path file = tmpDir.getRoot().toPath().resolve("cities.snapshot");
+    Files.write(file, "6077243\tMontréal".getBytes());
+
+    InMemoryCityRepo cityRepo = CityRepositorySnapshot.readOrLoad(file, Duration.ofHours(1),
+        () -> InMemoryCityRepo.createFromCities(ImmutableList.of(montreal)));
+
+    assertThat(cityRepo.byGeonameIdMap().values()).containsExactly(montreal);
+    assertThat(CityRepositorySnapshot.read(file).byGeonameIdMap().values())
+        .containsExactly(montreal);
+  }
+}
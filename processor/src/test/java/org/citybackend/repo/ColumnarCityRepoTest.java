@@ -0,0 +1,107 @@
+package org.citybackend.repo;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import com.google.common.collect.ImmutableList;
+import org.citybackend.city.City;
+import org.citybackend.index.StaticRanks;
+import org.citybackend.parser.TsvRowParser;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+@RunWith(JUnit4.class)
+public class ColumnarCityRepoTest {
+
+  private final City montreal = TsvRowParser.getParser().parse(
+      "6077243\tMontréal\tMontreal\tMontreal,Montréal\t45.50884\t-73.58781\tP\tPPLA2\tCA"
+          + "\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01");
+  private final City toronto = TsvRowParser.getParser().parse(
+      "6167865\tToronto\tToronto\t\t43.70011\t-79.4163\tP\tPPLA\tCA\t\t08\t\t\t\t2600000\t\t175"
+          + "\tAmerica/Toronto\t2019-12-10");
+  private final City torbay = new City.Builder().geonameId("6166739").name("Torbay")
+      .countryCode("CA").build();
+  private final City torino = TsvRowParser.getParser().parse(
+      "3165524\tTorino\tTorino\tTurin\t45.07049\t7.68682\tP\tPPLA\tIT\t\t09\tTO\t001272\t\t870952"
+          + "\t239\t245\tEurope/Rome\t2018-10-08");
+  private final ColumnarCityRepo cityRepo = ColumnarCityRepo
+      .createFromCities(ImmutableList.of(montreal, toronto, torbay, torino, toronto));
+
+  @Test
+  public void lookups_returnSameCitiesAsInMemoryCityRepo() {
+    InMemoryCityRepo inMemoryCityRepo = InMemoryCityRepo
+        .createFromCities(ImmutableList.of(montreal, toronto, torbay, torino));
+
+    assertThat(cityRepo.byGeonameIdMap()).isEqualTo(inMemoryCityRepo.byGeonameIdMap());
+    assertThat(cityRepo.getByGeonameId("3165524")).isEqualTo(torino);
+    assertThat(cityRepo.getByGeonameId("42")).isNull();
+    assertThat(cityRepo.getByGeonameId("not an id")).isNull();
+    assertThat(cityRepo.forCountryCodes("CA", "IT")).containsExactly(toronto, montreal, torbay,
+        torino).inOrder();
+    assertThat(cityRepo.forPrefix("TOR", "CA", "IT", "FR")).containsExactly(toronto, torbay,
+        torino).inOrder();
+    assertThat(cityRepo.near(45.5, -73.6, 600, "CA")).containsExactly(toronto, montreal)
+        .inOrder();
+    assertThat(cityRepo.forPrefixNear("tor", 45.5, -73.6, 600, "CA", "IT"))
+        .containsExactly(toronto);
+    assertThat(cityRepo.byCountryCodeMap().get("IT")).containsExactly(torino);
+    assertThat(cityRepo.forPrefix("tur", "CA", "IT"))
+        .containsExactlyElementsIn(inMemoryCityRepo.forPrefix("tur", "CA", "IT"));
+    assertThat(cityRepo.forSimilarName("Montrael", 10, "CA"))
+        .containsExactlyElementsIn(inMemoryCityRepo.forSimilarName("Montrael", 10, "CA"));
+  }
+
+  @Test
+  public void cityColumns_readMatchedKeys() {
+    CityColumns columns = cityRepo.forPrefix("montr", "CA", "IT");
+
+    assertThat(columns).containsExactly(montreal);
+    assertThat(columns.getMatchedKeyCount(0)).isEqualTo(1);
+    assertThat(new String(columns.getKeyChars(), columns.getMatchedKeyOffset(0, 0),
+        columns.getMatchedKeyLength(0, 0))).isEqualTo("montreal");
+    columns = cityRepo.forPrefix("tur", "CA", "IT");
+    assertThat(columns).containsExactly(torino);
+    assertThat(columns.getName(0)).isEqualTo("Torino");
+    assertThat(new String(columns.getKeyChars(), columns.getMatchedKeyOffset(0, 0),
+        columns.getMatchedKeyLength(0, 0))).isEqualTo("turin");
+    assertThat(cityRepo.forCountryCodes("IT").getMatchedKeyCount(0)).isEqualTo(1);
+  }
+
+  @Test
+  public void cityColumns_readColumnsByPosition() {
+    CityColumns columns = cityRepo.forCountryCodes("CA");
+
+    assertThat(columns).hasSize(3);
+    assertThat(columns.getGeonameId(0)).isEqualTo(6167865L);
+    assertThat(columns.getName(1)).isEqualTo("Montréal");
+    assertThat(new String(columns.getNameChars(), columns.getNameOffset(2),
+        columns.getNameLength(2))).isEqualTo("Torbay");
+    assertThat(columns.getLatitude(0)).isEqualTo(43.70011);
+    assertThat(columns.getLongitude(0)).isEqualTo(-79.4163);
+    assertThat(columns.getPopulation(1)).isEqualTo(1600000L);
+    assertThat(columns.hasCoordinates(2)).isFalse();
+    assertThat(Double.isNaN(columns.getLatitude(2))).isTrue();
+    assertThat(columns.getPopulation(2)).isEqualTo(0L);
+    assertThat(columns.get(1).getAlternateNames()).containsExactly("Montreal", "Montréal");
+  }
+
+  @Test
+  public void cityColumns_readStaticRanksByDescendingRank() {
+    CityColumns columns = cityRepo.forPrefix("tor", "CA", "IT");
+
+    assertThat(columns).containsExactly(toronto, torbay, torino).inOrder();
+    assertThat(columns.getStaticRank(0)).isEqualTo(StaticRanks.of(2600000L));
+    assertThat(columns.getStaticRank(1)).isEqualTo(0.0);
+    // The bound of Torbay is raised by Torino, which is listed after it.
+    assertThat(columns.getStaticRankBound(1)).isEqualTo(StaticRanks.of(870952L));
+    assertThat(cityRepo.forCountryCodes("CA").getStaticRankBound(1))
+        .isEqualTo(StaticRanks.of(1600000L));
+  }
+
+  @Test
+  public void createFromCities_nonNumericGeonameId_throws() {
+    assertThrows(IllegalArgumentException.class, () -> ColumnarCityRepo.createFromCities(
+        ImmutableList.of(new City.Builder().geonameId("1st id").name("Toronto").build())));
+  }
+}
@@ -1,15 +1,31 @@
 package org.citybackend.repo;
 import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.citybackend.city.City;
+import org.citybackend.index.StaticRanks;
+import org.citybackend.input.CityChanges;
+import org.citybackend.input.CityUnarchivedInput;
+import org.citybackend.parser.ByteTsvRowParser;
 import org.citybackend.parser.CityParser;
+import org.citybackend.parser.IngestFilter;
 import org.citybackend.parser.TsvRowParser;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
@@ -19,6 +35,8 @@ public class InMemoryCityRepoTest {
   ImmutableMap<String, URL> customDataset = ImmutableMap.of("LN", new URL(
       "https://city-backend.s3.us-east-2.amazonaws.com/LN.zip"));
   CityParser parser = TsvRowParser.getParser();
+  @Rule
+  public final TemporaryFolder tmpDir = new TemporaryFolder();
 
   public InMemoryCityRepoTest() throws MalformedURLException {
   }
@@ -31,4 +49,234 @@ public class InMemoryCityRepoTest {
         parser.parse("3577483\tThe Narrows\tThe Narrows\tThe Narrows\t18.37502\t-64.72517\tH\tCHN\tUS\tVG\t00\t\t\t\t0\t\t-9999\tAmerica/St_Thomas\t2018-11-06\n")
     ));
   }
+
+  @Test
+  public void createFromUrls_localArchive_parsesWhileStreaming()
+      throws IOException, URISyntaxException {
+    String mcArthurReef = "2130833\tMcArthur Reef\tMcArthur Reef\t\t52.06667\t177.86667\tU\tRFU\tUS\t\tAK\t016\t\t\t0\t\t-9999\tAsia/Kamchatka\t2016-07-05";
+    String montreal = "6077243\tMontréal\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01";
+    File zipFile = tmpDir.newFile("LN.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      out.putNextEntry(new ZipEntry("LN.txt"));
+      out.write(String.join("\n", mcArthurReef, montreal, mcArthurReef)
+          .getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromUrls(parser, ImmutableMap.of("LN", zipFile.toURI().toURL()));
+    assertThat(cityRepo.byGeonameIdMap().values())
+        .containsExactly(parser.parse(mcArthurReef), parser.parse(montreal));
+    assertThat(cityRepo.getByGeonameId("6077243").getName()).isEqualTo("Montréal");
+  }
+
+  @Test
+  public void createFromUrls_filter_dropsRowsBeforeParsing()
+      throws IOException, URISyntaxException {
+    String lake = "5993180\tLake Ontario\tLake Ontario\t\t43.63342\t-77.86606\tH\tLK\tCA\t\t08\t\t\t\t0\t75\t75\tAmerica/Toronto\t2011-04-19";
+    String montreal = "6077243\tMontréal\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01";
+    File zipFile = tmpDir.newFile("CA.zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      out.putNextEntry(new ZipEntry("CA.txt"));
+      out.write(String.join("\n", lake, montreal).getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+    IngestFilter filter = new IngestFilter.Builder().featureClasses("P").build();
+
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromUrls(parser, filter, ImmutableMap.of("CA", zipFile.toURI().toURL()));
+    assertThat(cityRepo.byGeonameIdMap().values()).containsExactly(parser.parse(montreal));
+    assertThat(filter.getKeptCount()).isEqualTo(1);
+    assertThat(filter.getDroppedCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void createFromUrls_severalCountries_isolatesFailures()
+      throws IOException, URISyntaxException {
+    String montreal = "6077243\tMontréal\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01";
+    String torino = "3165524\tTorino\tTorino\t\t45.07049\t7.68682\tP\tPPLA\tIT\t\t12\tTO\t001272\t\t870456\t\t239\tEurope/Rome\t2019-09-05";
+    URL canada = zipDataset("CA", montreal);
+    URL italy = zipDataset("IT", torino);
+    URL missing = new File(tmpDir.getRoot(), "FR.zip").toURI().toURL();
+
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromUrls(parser,
+        IngestFilter.acceptAll(), ImmutableMap.of("CA", canada, "FR", missing, "IT", italy), 2);
+    assertThat(cityRepo.byGeonameIdMap().values())
+        .containsExactly(parser.parse(montreal), parser.parse(torino));
+    assertThat(cityRepo.getFailedCountryCodes()).containsExactly("FR");
+    assertThat(cityRepo.forCountryCodes("IT", "FR", "CA"))
+        .containsExactly(parser.parse(torino), parser.parse(montreal)).inOrder();
+    assertThrows(IOException.class, () -> InMemoryCityRepo.createFromUrls(parser,
+        IngestFilter.acceptAll(), ImmutableMap.of("FR", missing), 2));
+  }
+
+  private URL zipDataset(String countryCode, String... rows) throws IOException {
+    File zipFile = tmpDir.newFile(countryCode + ".zip");
+    try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      out.putNextEntry(new ZipEntry(countryCode + ".txt"));
+      out.write(String.join("\n", rows).getBytes(StandardCharsets.UTF_8));
+      out.closeEntry();
+    }
+    return zipFile.toURI().toURL();
+  }
+
+  @Test
+  public void createFromUnarchivedInput_keepsFirstCityByGeonameId() throws IOException {
+    File rootDir = tmpDir.newFolder("unarchived");
+    StringBuilder content = new StringBuilder();
+    for (int i = 0; i < 200; i++) {
+      content.append(i % 50).append("\tCity ").append(i).append("\tCity\t\t45.5\t-73.5\tP\tPPL")
+          .append("\tCA\t\t10\t\t\t\t0\t\t12\tAmerica/Toronto\t2020-08-07\n");
+    }
+    Files.write(rootDir.toPath().resolve("allCountries.txt"),
+        content.toString().getBytes(StandardCharsets.UTF_8));
+
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromUnarchivedInput(
+        ByteTsvRowParser.getParser(), new CityUnarchivedInput(rootDir.toPath()),
+        ImmutableList.of("allCountries.txt"), 4);
+    assertThat(cityRepo.byGeonameIdMap()).hasSize(50);
+    assertThat(cityRepo.getByGeonameId("7").getName()).isEqualTo("City 7");
+  }
+
+  @Test
+  public void forPrefix_returnsCitiesWhoseNameStartsWithPrefix() {
+    City toronto = new City.Builder().geonameId("1").name("Toronto").countryCode("CA").build();
+    City torbay = new City.Builder().geonameId("2").name("Torbay").countryCode("CA").build();
+    City montreal = new City.Builder().geonameId("3").name("Montréal").countryCode("CA").build();
+    City torino = new City.Builder().geonameId("4").name("Torino").countryCode("IT").build();
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromCities(ImmutableList.of(toronto, torbay, montreal, torino));
+
+    assertThat(cityRepo.forPrefix("tor", "CA")).containsExactly(toronto, torbay);
+    assertThat(cityRepo.forPrefix("TOR", "CA", "IT")).containsExactly(toronto, torbay, torino);
+    assertThat(cityRepo.forPrefix("mont", "IT")).isEmpty();
+    assertThat(cityRepo.forPrefix("tor", "FR")).isEmpty();
+  }
+
+  @Test
+  public void forPrefix_matchesOtherNamesOncePerCity() {
+    City montreal = new City.Builder().geonameId("1").name("Montréal").asciiName("Montreal")
+        .alternateNames("Montreal,Montréal,Montreal-Ville").countryCode("CA")
+        .latitude("45.51").longitude("-73.59").build();
+    City quebec = new City.Builder().geonameId("2").name("Quebec City").asciiName("Quebec City")
+        .alternateNames("Québec,Kebek").countryCode("CA").latitude("46.81").longitude("-71.21")
+        .build();
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(ImmutableList.of(montreal,
+        quebec));
+
+    MatchedCities matched = cityRepo.forPrefix("montr", "CA");
+    assertThat(matched).containsExactly(montreal);
+    assertThat(matched.getMatchedKeys(0))
+        .containsExactly("montreal", "montreal ville").inOrder();
+    matched = cityRepo.forPrefixNear("québ", 46.81, -71.21, 10, "CA");
+    assertThat(matched).containsExactly(quebec);
+    assertThat(matched.getMatchedKeys(0)).containsExactly("quebec city", "quebec").inOrder();
+    matched = cityRepo.forSimilarName("Kebec", 10, "CA");
+    assertThat(matched).containsExactly(quebec);
+    assertThat(matched.getMatchedKeys(0)).contains("kebek");
+  }
+
+  @Test
+  public void lookups_listCitiesByDescendingStaticRank() {
+    City torbay = new City.Builder().geonameId("1").name("Torbay").countryCode("CA").build();
+    City toronto = new City.Builder().geonameId("2").name("Toronto").countryCode("CA")
+        .population(2600000L).build();
+    City torino = new City.Builder().geonameId("3").name("Torino").countryCode("IT")
+        .population(870952L).build();
+    City thorold = new City.Builder().geonameId("4").name("Thorold").countryCode("CA")
+        .population(18801L).build();
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(ImmutableList.of(torbay,
+        toronto, torino, thorold));
+
+    MatchedCities matched = (MatchedCities) cityRepo.forCountryCodes("CA");
+    assertThat(matched).containsExactly(toronto, thorold, torbay).inOrder();
+    assertThat(matched.getStaticRank(1)).isEqualTo(StaticRanks.of(18801L));
+    assertThat(matched.getStaticRankBound(2)).isEqualTo(0.0);
+    matched = cityRepo.forPrefix("tor", "CA", "IT");
+    assertThat(matched).containsExactly(toronto, torbay, torino).inOrder();
+    // The bound of Torbay is raised by Torino, which is listed after it.
+    assertThat(matched.getStaticRankBound(1)).isEqualTo(StaticRanks.of(870952L));
+    assertThat(matched.getStaticRankBound(0)).isEqualTo(StaticRanks.of(2600000L));
+  }
+
+  @Test
+  public void near_returnsCitiesAroundLocation() {
+    City toronto = new City.Builder().geonameId("1").name("Toronto").countryCode("CA")
+        .latitude("43.70").longitude("-79.42").build();
+    City montreal = new City.Builder().geonameId("2").name("Montréal").countryCode("CA")
+        .latitude("45.51").longitude("-73.59").build();
+    City vancouver = new City.Builder().geonameId("3").name("Vancouver").countryCode("CA")
+        .latitude("49.28").longitude("-123.12").build();
+    City torbay = new City.Builder().geonameId("4").name("Torbay").countryCode("CA")
+        .latitude("47.66").longitude("-52.73").build();
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromCities(ImmutableList.of(toronto, montreal, vancouver, torbay));
+
+    assertThat(cityRepo.near(45.0, -75.0, 1111, "CA")).containsExactly(toronto, montreal);
+    assertThat(cityRepo.near(45.0, -75.0, 200, "CA")).containsExactly(montreal);
+    assertThat(cityRepo.near(45.0, -75.0, 1111, "FR")).isEmpty();
+    assertThat(cityRepo.forPrefixNear("tor", 45.0, -75.0, 1111, "CA")).containsExactly(toronto);
+    assertThat(cityRepo.forPrefixNear("tor", 45.0, -60.0, 1111, "CA")).containsExactly(torbay);
+  }
+
+  @Test
+  public void withChanges_matchesRepositoryOfChangedCities() {
+    City toronto = new City.Builder().geonameId("1").name("Toronto").countryCode("CA")
+        .latitude("43.70").longitude("-79.42").build();
+    City montreal = new City.Builder().geonameId("2").name("Montréal").countryCode("CA")
+        .latitude("45.51").longitude("-73.59").build();
+    City torbay = new City.Builder().geonameId("3").name("Torbay").countryCode("CA")
+        .latitude("47.66").longitude("-52.73").build();
+    City torino = new City.Builder().geonameId("4").name("Torino").countryCode("IT")
+        .latitude("45.07").longitude("7.69").build();
+    InMemoryCityRepo cityRepo = InMemoryCityRepo
+        .createFromCities(ImmutableList.of(toronto, montreal, torbay, torino));
+    City renamedMontreal = new City.Builder().geonameId("2").name("Montreal").countryCode("CA")
+        .latitude("45.51").longitude("-73.59").build();
+    City movedTorbay = new City.Builder().geonameId("3").name("Torbay").countryCode("CA")
+        .latitude("45.42").longitude("-75.70").build();
+    City ottawa = new City.Builder().geonameId("5").name("Ottawa").countryCode("CA")
+        .latitude("45.42").longitude("-75.70").build();
+    City toulouse = new City.Builder().geonameId("6").name("Toulouse").countryCode("FR")
+        .latitude("43.60").longitude("1.44").build();
+
+    InMemoryCityRepo changed = cityRepo.withChanges(new CityChanges(
+        ImmutableList.of(renamedMontreal, movedTorbay, ottawa, toulouse),
+        ImmutableList.of("1", "4", "42")));
+
+    assertThat(changed.byGeonameIdMap().values())
+        .containsExactly(renamedMontreal, movedTorbay, ottawa, toulouse);
+    assertThat(changed.forPrefix("to", "CA", "IT", "FR")).containsExactly(movedTorbay, toulouse);
+    assertThat(changed.forPrefix("montreal", "CA")).containsExactly(renamedMontreal);
+    assertThat(changed.forPrefix("montréal", "CA")).containsExactly(renamedMontreal);
+    assertThat(changed.near(45.42, -75.70, 10, "CA")).containsExactly(movedTorbay, ottawa);
+    assertThat(changed.near(47.66, -52.73, 10, "CA")).isEmpty();
+    assertThat(changed.byCountryCodeMap().keySet()).containsExactly("CA", "FR");
+    // The repository the changes are applied to is not modified.
+    assertThat(cityRepo.forPrefix("to", "CA", "IT")).containsExactly(toronto, torbay, torino);
+  }
+
+  @Test
+  public void withChanges_fromDailyFiles() throws IOException {
+    String montreal = "6077243\tMontréal\tMontreal\t\t45.50884\t-73.58781\tP\tPPLA2\tCA\t\t10\t06\t\t\t1600000\t\t216\tAmerica/Toronto\t2020-01-01";
+    String laval = "6050610\tLaval\tLaval\t\t45.56995\t-73.692\tP\tPPLA3\tCA\t\t10\t13\t\t\t376845\t\t35\tAmerica/Toronto\t2020-01-01";
+    String quebec = "6325494\tQuébec\tQuebec\t\t46.81228\t-71.21454\tP\tPPLA\tCA\t\t10\t23\t\t\t528595\t\t56\tAmerica/Toronto\t2020-01-01";
+    InMemoryCityRepo cityRepo = InMemoryCityRepo.createFromCities(ImmutableList.of(
+        parser.parse(montreal), parser.parse(laval), parser.parse(quebec)));
+    String lavalAsLake = laval.replace("\tP\tPPLA3", "\tH\tLK");
+    String gatineau = "6295672\tGatineau\tGatineau\t\t45.47723\t-75.70164\tP\tPPLA3\tCA\t\t10\t07\t\t\t242124\t\t95\tAmerica/Toronto\t2021-08-01";
+    Path modifications = tmpDir.newFile("modifications-2021-08-01.txt").toPath();
+    Files.write(modifications,
+        String.join("\n", lavalAsLake, gatineau, "").getBytes(StandardCharsets.UTF_8));
+    Path deletes = tmpDir.newFile("deletes-2021-08-01.txt").toPath();
+    Files.write(deletes, "6325494\tQuébec\tduplicate\n".getBytes(StandardCharsets.UTF_8));
+
+    InMemoryCityRepo changed = cityRepo.withChanges(CityChanges.fromFiles(parser,
+        new IngestFilter.Builder().featureClasses("P").build(), modifications, deletes));
+
+    assertThat(changed.byGeonameIdMap().values())
+        .containsExactly(parser.parse(montreal), parser.parse(gatineau));
+    assertThat(changed.forPrefix("", "CA"))
+        .containsExactly(parser.parse(montreal), parser.parse(gatineau));
+  }
 }